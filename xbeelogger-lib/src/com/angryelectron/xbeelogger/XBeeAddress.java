@@ -5,29 +5,30 @@
 package com.angryelectron.xbeelogger;
 
 import com.rapplogic.xbee.api.XBeeAddress64;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A human-readable representation of a 64-bit XBee Address.  With methods for
  * converting to and from com.rapplogic.xbee.api.XBeeAddress64.
+ * <p>
+ * The address is held as a single long.  The string and XBeeAddress64 forms 
+ * are only built when asked for, and then kept.
  * @author Andrew Bythell <abythell@ieee.org>
  */
 public class XBeeAddress {
     
-    private final String address;   
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    
+    private final long address;
+    private transient String text;
+    private transient XBeeAddress64 address64;
            
     /**
      * Constructor.
      * @param addr 64-bit XBee Address, formatted as a string of 16 hexadecimal digits.
+     * @throws IllegalArgumentException If addr is not 16 hexadecimal digits.
      */
     public XBeeAddress(String addr) {
-        Pattern pattern = Pattern.compile("[0-9a-fA-F]{8}");
-        Matcher matcher = pattern.matcher(addr);
-        if (!matcher.find()) {
-            throw new IllegalArgumentException("Invalid address.");
-        }
-        address = addr;
+        address = parse(addr);
     }
     
     /**
@@ -35,9 +36,16 @@ public class XBeeAddress {
      * @param addr 64-bit XBee Address using the com.rapplogic.xbee.api format.
      */
     public XBeeAddress(XBeeAddress64 addr) {
-        address = XBeeAddress.toXBeeAddress(addr);
+        address = toLong(addr.getAddress());
     }
     
+    /**
+     * Constructor.
+     * @param addr 64-bit XBee Address.
+     */
+    public XBeeAddress(long addr) {
+        address = addr;
+    }
     
     /**
      * Convert an XBeeAddress64 to a formatted string.
@@ -45,18 +53,17 @@ public class XBeeAddress {
      * @return String of 16 hexadecimal digits.
      */
     public static final String toXBeeAddress(XBeeAddress64 address64) {        
-        String addr = address64.toString().replaceAll("0x|[,|\\s+]","");
-        return addr.toUpperCase();
+        return format(toLong(address64.getAddress()));
     }
     
     /**
      * Convert a formatted string to an XBeeAddress64
      * @param address String of 16 hexadecimal digits.
      * @return XBeeAddress64 object.
+     * @throws IllegalArgumentException If address is not 16 hexadecimal digits.
      */
     public static final XBeeAddress64 toXBeeAddress64(String address) {        
-        String address64 = address.replaceAll("(?<=\\G.{2})", " ");
-        return new XBeeAddress64(address64.trim());        
+        return new XBeeAddress64(toBytes(parse(address)));        
     }
     
     /**
@@ -64,7 +71,20 @@ public class XBeeAddress {
      * @return XBeeAddress64.
      */
     public XBeeAddress64 toXBeeAddress64() {
-        return toXBeeAddress64(address);
+        XBeeAddress64 a = address64;
+        if (a == null) {
+            a = new XBeeAddress64(toBytes(address));
+            address64 = a;
+        }
+        return a;
+    }
+    
+    /**
+     * Get the address as a number.
+     * @return 64-bit address.
+     */
+    public long toLong() {
+        return address;
     }
     
     /**
@@ -73,21 +93,25 @@ public class XBeeAddress {
      */
     @Override
     public String toString() {
-        return address;
+        String t = text;
+        if (t == null) {
+            t = format(address);
+            text = t;
+        }
+        return t;
     }
 
     /**
      * Internal. Required to use XBeeAddress as a key in HashMaps.
      * @param obj The XBeeAddress to be compared.
-     * @return True if address strings are equal.
+     * @return True if addresses are equal.
      */
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof XBeeAddress)) {
             return false;
         }
-        XBeeAddress a = (XBeeAddress)obj;
-        return address.equals(a.toString());
+        return address == ((XBeeAddress) obj).address;
     }
 
     /**
@@ -96,9 +120,54 @@ public class XBeeAddress {
      */
     @Override
     public int hashCode() {
-        return address.hashCode();
+        return (int) (address ^ (address >>> 32));
+    }
+    
+    private static long parse(String addr) {
+        if (addr == null || addr.length() != 16) {
+            throw new IllegalArgumentException("Invalid address.");
+        }
+        long value = 0;
+        for (int i = 0; i < 16; i++) {
+            /* not Character.digit, which also takes fullwidth and other Unicode digits */
+            char c = addr.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                throw new IllegalArgumentException("Invalid address.");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
     }
     
+    private static String format(long value) {
+        char[] chars = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            chars[i] = HEX[(int) value & 0xf];
+            value >>>= 4;
+        }
+        return new String(chars);
+    }
     
+    private static long toLong(int[] bytes) {
+        long value = 0;
+        for (int b : bytes) {
+            value = (value << 8) | (b & 0xff);
+        }
+        return value;
+    }
     
+    private static int[] toBytes(long value) {
+        int[] bytes = new int[8];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (int) (value >>> (56 - 8 * i)) & 0xff;
+        }
+        return bytes;
+    }
 }
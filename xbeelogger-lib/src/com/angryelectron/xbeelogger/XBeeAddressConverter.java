@@ -0,0 +1,53 @@
+/**
+ * XBeeAddressConverter.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+
+/**
+ * Write an {@link XBeeAddress} to XML as a string of 16 hexadecimal digits,
+ * the same as when it was held as a string.
+ */
+class XBeeAddressConverter implements Converter {
+
+    /* XStream 1.4 declares this with a raw Class, so Class<?> would not override it */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean canConvert(Class type) {
+        return type == XBeeAddress.class;
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+        writer.startNode("address");
+        writer.setValue(source.toString());
+        writer.endNode();
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+        XBeeAddress address = null;
+        while (reader.hasMoreChildren()) {
+            reader.moveDown();
+            if ("address".equals(reader.getNodeName())) {
+                try {
+                    address = new XBeeAddress(reader.getValue().trim());
+                } catch (IllegalArgumentException ex) {
+                    throw new ConversionException("Invalid address.", ex);
+                }
+            }
+            reader.moveUp();
+        }
+        if (address == null) {
+            throw new ConversionException("Missing address.");
+        }
+        return address;
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * XBeeChannelStatistics.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * The minimum, maximum and mean of one analog input over a period of time.
+ * Values are raw ADC readings.
+ */
+public class XBeeChannelStatistics {
+
+    private final int count;
+    private final int min;
+    private final int max;
+    private final double mean;
+
+    XBeeChannelStatistics(int count, int min, int max, double mean) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+    }
+
+    /**
+     * Get the number of samples.
+     * @return Samples in which the input was enabled.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the lowest reading.
+     * @return ADC value.
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * Get the highest reading.
+     * @return ADC value.
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Get the average reading.
+     * @return ADC value.
+     */
+    public double getMean() {
+        return mean;
+    }
+}
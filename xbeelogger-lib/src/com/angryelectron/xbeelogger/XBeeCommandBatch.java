@@ -0,0 +1,84 @@
+/**
+ * XBeeCommandBatch.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A list of AT commands to be sent together by
+ * {@link XBeeProgrammer#command(XBeeCommandBatch)}.  Commands are sent in the
+ * order they are added.
+ * <pre>
+ * XBeeCommandBatch batch = new XBeeCommandBatch()
+ *     .add("ID", "7FFF")
+ *     .add("D0", 2)
+ *     .add("WR");
+ * </pre>
+ */
+public class XBeeCommandBatch {
+
+    private final List<String> commands = new ArrayList<>();
+    private final List<int[]> values = new ArrayList<>();
+
+    /**
+     * Add a query or an execution command, such as "VR" or "WR".
+     * @param command AT command.
+     * @return This batch.
+     */
+    public XBeeCommandBatch add(String command) {
+        return add(command, (int[]) null);
+    }
+
+    /**
+     * Add a setting.
+     * @param command AT command, eg. "D0".
+     * @param value Value, 0-255.
+     * @return This batch.
+     */
+    public XBeeCommandBatch add(String command, int value) {
+        return add(command, new int[]{value});
+    }
+
+    /**
+     * Add a setting.
+     * @param command AT command.
+     * @param values Value, one byte per element.
+     * @return This batch.
+     */
+    public XBeeCommandBatch add(String command, int[] values) {
+        commands.add(command);
+        this.values.add(values);
+        return this;
+    }
+
+    /**
+     * Add a setting.
+     * @param command AT command, eg. "ID".
+     * @param value Value in hex, eg. "7FFF", or the name itself for "NI".
+     * @return This batch.
+     */
+    public XBeeCommandBatch add(String command, String value) {
+        return add(command, command.equals("NI")
+                ? XBeeProgrammer.stringToIntArrayASCII(value)
+                : XBeeProgrammer.stringtoIntArray(value));
+    }
+
+    /**
+     * Get the number of commands.
+     * @return Size.
+     */
+    public int size() {
+        return commands.size();
+    }
+
+    String getCommand(int index) {
+        return commands.get(index);
+    }
+
+    int[] getValue(int index) {
+        return values.get(index);
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * XBeeCommandResult.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.api.AtCommandResponse.Status;
+
+/**
+ * The reply to one command in an {@link XBeeCommandBatch}.
+ */
+public class XBeeCommandResult {
+
+    private final String command;
+    private final Status status;
+    private final int[] value;
+
+    XBeeCommandResult(String command, Status status, int[] value) {
+        this.command = command;
+        this.status = status;
+        this.value = value;
+    }
+
+    /**
+     * Get the command that was sent.
+     * @return AT command.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Get the radio's reply status.
+     * @return Status, or null if there was no reply in time.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Check if the command was accepted.
+     * @return True if the radio replied OK.
+     */
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    /**
+     * Get the value returned by a query.
+     * @return Value, one byte per element, or an empty array.
+     */
+    public int[] getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s", command, (status == null) ? "no reply" : status);
+    }
+}
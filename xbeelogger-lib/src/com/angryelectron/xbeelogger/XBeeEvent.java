@@ -0,0 +1,116 @@
+/**
+ * XBeeEvent.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.Date;
+
+/**
+ * Something that happened on the XBee network, delivered by an
+ * {@link XBeeEventBus}.  Subscribe to one of the subclasses to receive only
+ * that kind of event, or to XBeeEvent to receive them all.
+ */
+public abstract class XBeeEvent {
+
+    private final XBeeAddress address;
+    private final long time;
+    private final long nanos;
+
+    XBeeEvent(XBeeAddress address) {
+        this.address = address;
+        this.time = System.currentTimeMillis();
+        this.nanos = System.nanoTime();
+    }
+
+    /**
+     * Get the node the event is about.
+     * @return XBee 64-bit address.
+     */
+    public XBeeAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Get the time the event was published.
+     * @return Time.
+     */
+    public Date getTime() {
+        return new Date(time);
+    }
+
+    /**
+     * Get the time the event was published, from System.nanoTime(), for
+     * measuring how long it waited to be delivered.
+     * @return Time, in ns.
+     */
+    long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * A sample was received.
+     */
+    public static final class SampleReceived extends XBeeEvent {
+
+        private final XBeeSample sample;
+
+        SampleReceived(XBeeSample sample) {
+            super(sample.getAddress());
+            this.sample = sample;
+        }
+
+        /**
+         * Get the sample.
+         * @return The new sample, with the node's Node Identifier if known.
+         */
+        public XBeeSample getSample() {
+            return sample;
+        }
+    }
+
+    /**
+     * A node's Node Identifier was received.  Requested the first time a
+     * sample arrives from a node.
+     */
+    public static final class NodeIdentified extends XBeeEvent {
+
+        private final String nodeIdentifier;
+
+        NodeIdentified(XBeeAddress address, String nodeIdentifier) {
+            super(address);
+            this.nodeIdentifier = nodeIdentifier;
+        }
+
+        /**
+         * Get the Node Identifier.
+         * @return XBee 'NI' string.
+         */
+        public String getNodeIdentifier() {
+            return nodeIdentifier;
+        }
+    }
+
+    /**
+     * No sample has been received from a node for longer than the stale
+     * interval.  Published once; the node is no longer stale when its next
+     * sample arrives.
+     */
+    public static final class NodeStale extends XBeeEvent {
+
+        private final XBeeSample lastSample;
+
+        NodeStale(XBeeSample lastSample) {
+            super(lastSample.getAddress());
+            this.lastSample = lastSample;
+        }
+
+        /**
+         * Get the last sample received from the node.
+         * @return Sample.
+         */
+        public XBeeSample getLastSample() {
+            return lastSample;
+        }
+    }
+}
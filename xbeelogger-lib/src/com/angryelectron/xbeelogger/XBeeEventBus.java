@@ -0,0 +1,71 @@
+/**
+ * XBeeEventBus.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers {@link XBeeEvent}s to any number of consumers.  Publishing only
+ * places the event in each interested consumer's queue, so it never blocks
+ * the thread receiving from the radio.  Each consumer has its own thread,
+ * and its own counts of delivered, dropped and failed events.
+ */
+public class XBeeEventBus {
+
+    private final CopyOnWriteArrayList<XBeeEventConsumer<?>> consumers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Add a consumer.
+     * @param <E> The type of event handled.
+     * @param name Name used for the consumer's thread and statistics.
+     * @param type Events of this class, or its subclasses, are delivered.
+     * @param handler Called with each event.
+     * @param capacity Maximum number of events waiting to be handled.
+     * @return The consumer, for statistics and unsubscribing.
+     * @throws IllegalArgumentException If capacity is less than 1.
+     */
+    public <E extends XBeeEvent> XBeeEventConsumer<E> subscribe(String name, Class<E> type,
+            XBeeEventHandler<? super E> handler, int capacity) {
+        XBeeEventConsumer<E> consumer = new XBeeEventConsumer<>(name, type, handler, capacity);
+        consumers.add(consumer);
+        return consumer;
+    }
+
+    /**
+     * Remove a consumer.  Events already queued are handled before this
+     * returns.
+     * @param consumer The consumer returned by 
+     * {@link #subscribe(String, Class, XBeeEventHandler, int)}.
+     */
+    public void unsubscribe(XBeeEventConsumer<?> consumer) {
+        if (consumers.remove(consumer)) {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Get the activity of every consumer.
+     * @return Statistics, in the order consumers subscribed.
+     */
+    public List<XBeeEventStatistics> getStatistics() {
+        ArrayList<XBeeEventStatistics> statistics = new ArrayList<>();
+        for (XBeeEventConsumer<?> consumer : consumers) {
+            statistics.add(consumer.getStatistics());
+        }
+        return statistics;
+    }
+
+    /**
+     * Queue an event for every interested consumer.  Never blocks.
+     * @param event The event.
+     */
+    void publish(XBeeEvent event) {
+        for (XBeeEventConsumer<?> consumer : consumers) {
+            consumer.offer(event);
+        }
+    }
+}
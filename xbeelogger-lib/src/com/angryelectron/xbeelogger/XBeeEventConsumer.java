@@ -0,0 +1,143 @@
+/**
+ * XBeeEventConsumer.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * One subscriber to an {@link XBeeEventBus}.  Events are queued for the 
+ * handler and delivered by the consumer's own thread, so a slow or failing
+ * handler never delays the radio or any other consumer.  If the queue is
+ * full, new events are dropped and counted.
+ * @param <E> The type of event handled.
+ */
+public class XBeeEventConsumer<E extends XBeeEvent> {
+
+    private static final Logger log = Logger.getLogger(XBeeEventConsumer.class.getName());
+
+    private final String name;
+    private final Class<E> type;
+    private final XBeeEventHandler<? super E> handler;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /* updated by the consumer's thread; guarded by this */
+    private long delivered;
+    private long failed;
+    private long lastLagNanos;
+    private long maxLagNanos;
+    private long totalLagNanos;
+
+    XBeeEventConsumer(final String name, Class<E> type, XBeeEventHandler<? super E> handler,
+            int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+        this.name = name;
+        this.type = type;
+        this.handler = handler;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "XBeeEventBus-" + name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Get the name given when subscribing.
+     * @return Name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the type of event handled.
+     * @return Event class.
+     */
+    public Class<E> getType() {
+        return type;
+    }
+
+    /**
+     * Get a snapshot of this consumer's activity.
+     * @return Statistics.
+     */
+    public XBeeEventStatistics getStatistics() {
+        synchronized (this) {
+            double ms = TimeUnit.MILLISECONDS.toNanos(1);
+            return new XBeeEventStatistics(name, executor.getQueue().size(), delivered,
+                    dropped.get(), failed, lastLagNanos / ms, maxLagNanos / ms,
+                    (delivered == 0) ? 0 : totalLagNanos / ms / delivered);
+        }
+    }
+
+    /**
+     * Queue an event, if it is of the handled type.  Never blocks.
+     * @param event The event.
+     */
+    void offer(XBeeEvent event) {
+        if (!type.isInstance(event)) {
+            return;
+        }
+        final E e = type.cast(event);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(e);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop accepting events and wait for those queued to be handled.
+     */
+    void close() {
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.log(Level.WARN, "Waiting for " + name + " to handle "
+                        + executor.getQueue().size() + " events.");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void deliver(E event) {
+        long lag = System.nanoTime() - event.getNanos();
+        boolean ok = false;
+        try {
+            handler.handle(event);
+            ok = true;
+        } catch (RuntimeException ex) {
+            log.log(Level.ERROR, name + " failed to handle an event.", ex);
+        }
+        synchronized (this) {
+            delivered++;
+            if (!ok) {
+                failed++;
+            }
+            lastLagNanos = lag;
+            maxLagNanos = Math.max(maxLagNanos, lag);
+            totalLagNanos += lag;
+        }
+    }
+}
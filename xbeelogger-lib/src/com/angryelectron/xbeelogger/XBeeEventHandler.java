@@ -0,0 +1,20 @@
+/**
+ * XBeeEventHandler.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * Handles events from an {@link XBeeEventBus}.  Each handler is called from
+ * its own thread, one event at a time, in the order events were published.
+ * @param <E> The type of event handled.
+ */
+public interface XBeeEventHandler<E extends XBeeEvent> {
+
+    /**
+     * Handle an event.  An exception is logged and counted as a failure, and
+     * does not stop the next event being delivered.
+     * @param event The event.
+     */
+    void handle(E event);
+}
@@ -0,0 +1,104 @@
+/**
+ * XBeeEventStatistics.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * A snapshot of one {@link XBeeEventConsumer}'s activity.  Lag is the time 
+ * from an event being published to its handler being called.
+ */
+public class XBeeEventStatistics {
+
+    private final String name;
+    private final int pending;
+    private final long delivered;
+    private final long dropped;
+    private final long failed;
+    private final double lastLagMs;
+    private final double maxLagMs;
+    private final double meanLagMs;
+
+    XBeeEventStatistics(String name, int pending, long delivered, long dropped, long failed,
+            double lastLagMs, double maxLagMs, double meanLagMs) {
+        this.name = name;
+        this.pending = pending;
+        this.delivered = delivered;
+        this.dropped = dropped;
+        this.failed = failed;
+        this.lastLagMs = lastLagMs;
+        this.maxLagMs = maxLagMs;
+        this.meanLagMs = meanLagMs;
+    }
+
+    /**
+     * Get the consumer's name.
+     * @return Name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of events waiting to be handled.
+     * @return Queue depth.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Get the number of events handled, including failures.
+     * @return Events delivered.
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Get the number of events dropped because the queue was full.
+     * @return Dropped events.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get the number of events for which the handler threw an exception.
+     * @return Failed events.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Get the lag of the most recent event.
+     * @return Lag, in milliseconds.
+     */
+    public double getLastLagMs() {
+        return lastLagMs;
+    }
+
+    /**
+     * Get the longest lag.
+     * @return Lag, in milliseconds.
+     */
+    public double getMaxLagMs() {
+        return maxLagMs;
+    }
+
+    /**
+     * Get the average lag.
+     * @return Lag, in milliseconds.
+     */
+    public double getMeanLagMs() {
+        return meanLagMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: pending=%d delivered=%d dropped=%d failed=%d "
+                + "lag(last/mean/max)=%.3f/%.3f/%.3fms",
+                name, pending, delivered, dropped, failed, lastLagMs, meanLagMs, maxLagMs);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * XBeeFastConnection.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.XBeeConnection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Decodes I/O samples and NI responses from a connection before xbee-api sees
+ * them.  A thread reads the connection into a re-used buffer and runs an
+ * {@link XBeeFrameDecoder}.  Decoded frames go straight to a handler; every
+ * other frame is queued, unchanged, on this connection's input stream, where
+ * xbee-api parses it as usual.  Output is passed to the connection untouched.
+ */
+final class XBeeFastConnection implements XBeeConnection {
+
+    private static final Logger log = Logger.getLogger(XBeeFastConnection.class.getName());
+
+    private final XBeeConnection source;
+    private final XBeeFrameDecoder decoder;
+    private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    /* frames for xbee-api, guarded by this */
+    private final byte[] queue = new byte[16 * 1024];
+    private int head = 0;
+    private int count = 0;
+
+    private final InputStream in = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            synchronized (XBeeFastConnection.this) {
+                while (count == 0) {
+                    if (closed) {
+                        return -1;
+                    }
+                    try {
+                        XBeeFastConnection.this.wait();
+                    } catch (InterruptedException ex) {
+                        throw new IOException(ex);
+                    }
+                }
+                int b = queue[head] & 0xff;
+                head = (head + 1) % queue.length;
+                count--;
+                return b;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (XBeeFastConnection.this) {
+                return count;
+            }
+        }
+    };
+
+    /**
+     * Constructor.  Starts decoding immediately.
+     * @param source Connection to read.  Must notify itself when new data is
+     * available, as xbee-api expects.
+     * @param handler Receives decoded samples and Node Identifiers.
+     * @param threadName Name of the decoding thread.
+     */
+    XBeeFastConnection(XBeeConnection source, final XBeeFrameDecoder.Handler handler,
+            String threadName) {
+        this.source = source;
+        this.decoder = new XBeeFrameDecoder(new XBeeFrameDecoder.Handler() {
+            @Override
+            public void sample(long address, int digitalMask, int analogMask, int dio, long analog) {
+                handler.sample(address, digitalMask, analogMask, dio, analog);
+            }
+
+            @Override
+            public void identified(long address, byte[] name, int offset, int length) {
+                handler.identified(address, name, offset, length);
+            }
+
+            @Override
+            public void other(byte[] frame, int length) {
+                pass(frame, length);
+            }
+        });
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    decode();
+                } catch (IOException ex) {
+                    if (!closed) {
+                        log.log(Level.ERROR, null, ex);
+                    }
+                } catch (InterruptedException ex) {
+                    /* closed */
+                }
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Check whether the connection is still being read.
+     * @return False once closed, or if reading failed.
+     */
+    boolean isOpen() {
+        return !closed && thread.isAlive();
+    }
+
+    /**
+     * Get the number of frames that could not be decoded.
+     * @return Frames discarded because they were cut short, too long, or had
+     * a bad checksum.
+     */
+    long getErrors() {
+        return decoder.getErrors();
+    }
+
+    /**
+     * Read and decode until closed.
+     */
+    private void decode() throws IOException, InterruptedException {
+        InputStream input = source.getInputStream();
+        while (!closed) {
+            int available;
+            synchronized (source) {
+                /* a serial port notifies the connection when data arrives, but
+                 * check regularly in case it is closed */
+                while ((available = input.available()) == 0 && !closed) {
+                    source.wait(100);
+                }
+            }
+            if (closed) {
+                return;
+            }
+            int n = input.read(buffer.array(), 0, Math.min(available, buffer.capacity()));
+            if (n < 0) {
+                return;
+            }
+            buffer.clear();
+            buffer.limit(n);
+            decoder.decode(buffer);
+        }
+    }
+
+    /**
+     * Queue a frame for xbee-api, and wake its receive thread.
+     */
+    private synchronized void pass(byte[] frame, int length) {
+        if (count + length > queue.length) {
+            log.log(Level.WARN, "xbee-api is not keeping up.  Frame discarded.");
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            queue[(head + count) % queue.length] = frame[i];
+            count++;
+        }
+        notifyAll();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return source.getOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    /**
+     * Stop decoding, and close the source connection.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        synchronized (this) {
+            notifyAll();
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,496 @@
+/**
+ * XBeeFleetProgrammer.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.XBeeConnection;
+import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.AtCommand;
+import com.rapplogic.xbee.api.AtCommandResponse;
+import com.rapplogic.xbee.api.PacketListener;
+import com.rapplogic.xbee.api.RemoteAtRequest;
+import com.rapplogic.xbee.api.RemoteAtResponse;
+import com.rapplogic.xbee.api.XBee;
+import com.rapplogic.xbee.api.XBeeAddress16;
+import com.rapplogic.xbee.api.XBeeConfiguration;
+import com.rapplogic.xbee.api.XBeeException;
+import com.rapplogic.xbee.api.XBeeResponse;
+import com.rapplogic.xbee.api.zigbee.NodeDiscover;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Program many remote XBees over the air, through a locally attached
+ * coordinator, instead of plugging each one in to an {@link XBeeProgrammer}.
+ * <p>
+ * Settings are sent to several nodes at once, and several commands are sent
+ * to each node without waiting for the previous reply.  Settings are queued
+ * on the node without being applied, then optionally written to flash, and
+ * finally applied together with AC, so a node never runs with half a
+ * configuration, and changing the PAN ID does not cut off the commands that
+ * follow it.  Commands that get no reply are sent again.  A node that moves
+ * to a new PAN ID may never answer AC; it is reported as unconfirmed, not as
+ * programmed.  See {@link XBeeFleetResult#isUnconfirmed()}.
+ * <pre>
+ * XBeeFleetProgrammer fleet = new XBeeFleetProgrammer();
+ * fleet.open("/dev/ttyUSB0", 9600);
+ * fleet.set("IR", "3E8");
+ * for (XBeeFleetResult result : fleet.program(fleet.discover(), true)) {
+ *     System.out.println(result);
+ * }
+ * fleet.close();
+ * </pre>
+ */
+public class XBeeFleetProgrammer {
+
+    private static final Logger log = Logger.getLogger(XBeeFleetProgrammer.class.getName());
+    private static final int FRAME_IDS = 255;
+
+    private XBee xbee;
+    private final LinkedHashMap<String, int[]> settings = new LinkedHashMap<>();
+    private int concurrency = 8;
+    private int depth = 4;
+    private int timeout = 5000;
+    private int retries = 2;
+
+    /* guarded by this while programming */
+    private final Command[] inFlight = new Command[FRAME_IDS + 1];
+    private int nextFrameId = 1;
+
+    /**
+     * Handles replies on xbee-api's receive thread.
+     */
+    private final PacketListener replies = new PacketListener() {
+        @Override
+        public void processResponse(XBeeResponse response) {
+            if (response.getApiId() == ApiId.REMOTE_AT_RESPONSE) {
+                replied((RemoteAtResponse) response);
+            }
+        }
+    };
+
+    /**
+     * One remote AT command, sent to one node.
+     */
+    private static final class Command {
+
+        private final Node node;
+        private final int index;
+        private long sent;
+        private int attempts = 0;
+
+        Command(Node node, int index) {
+            this.node = node;
+            this.index = index;
+        }
+    }
+
+    /**
+     * The progress of programming one node.
+     */
+    private static final class Node {
+
+        private final XBeeAddress address;
+        private final ArrayDeque<Command> resend = new ArrayDeque<>();
+        private int next = 0;
+        private int acknowledged = 0;
+        private int inFlight = 0;
+        private int retries = 0;
+        private long started;
+        private XBeeFleetResult result;
+
+        Node(XBeeAddress address) {
+            this.address = address;
+        }
+    }
+
+    /* the commands sent to every node, set by program() */
+    private String[] commands;
+    private int[][] values;
+    private int pipelined;
+    private boolean panChanges;
+
+    /**
+     * Open the coordinator.
+     * @param port Serial port, eg. /dev/ttyUSB0, COM6.
+     * @param baud Typically 9600.  Depends on XBee configuration.
+     * @throws XBeeException If the port cannot be opened.
+     */
+    public void open(String port, Integer baud) throws XBeeException {
+        xbee = new XBee();
+        xbee.open(port, baud);
+        xbee.addPacketListener(replies);
+    }
+
+    /**
+     * Open a coordinator on a connection other than a serial port, such as
+     * a simulated radio.  The usual startup checks are skipped.
+     * @param connection Source of API frames.  Must notify itself when new
+     * data is available, as xbee-api expects.
+     * @throws XBeeException If the connection cannot be used.
+     */
+    void open(XBeeConnection connection) throws XBeeException {
+        xbee = new XBee(new XBeeConfiguration().withStartupChecks(false));
+        xbee.initProviderConnection(connection);
+        xbee.addPacketListener(replies);
+    }
+
+    /**
+     * Close the coordinator.
+     */
+    public void close() {
+        /* the api automatically removes any packet listeners when closing */
+        xbee.close();
+    }
+
+    /**
+     * Add a setting to program, replacing any earlier value for the same
+     * command.  Settings are sent in the order they were first added.
+     * @param command AT command, eg. "D0".
+     * @param value Value, 0-255.
+     */
+    public void set(String command, int value) {
+        settings.put(command, new int[]{value});
+    }
+
+    /**
+     * Add a setting to program, replacing any earlier value for the same
+     * command.
+     * @param command AT command, eg. "ID".
+     * @param value Value in hex, eg. "7FFF", or the name itself for "NI".
+     */
+    public void set(String command, String value) {
+        settings.put(command, command.equals("NI")
+                ? XBeeProgrammer.stringToIntArrayASCII(value)
+                : XBeeProgrammer.stringtoIntArray(value));
+    }
+
+    /**
+     * Set how many nodes are programmed at the same time.
+     * @param nodes Number of nodes (default 8).
+     */
+    public void setConcurrency(int nodes) {
+        this.concurrency = Math.max(1, nodes);
+    }
+
+    /**
+     * Set how many settings may be sent to a node before the first is
+     * answered.
+     * @param commands Number of commands (default 4).
+     */
+    public void setPipelineDepth(int commands) {
+        this.depth = Math.max(1, commands);
+    }
+
+    /**
+     * Set how long to wait for each reply.
+     * @param ms Time, in milliseconds (default 5000).
+     */
+    public void setTimeout(int ms) {
+        this.timeout = ms;
+    }
+
+    /**
+     * Set how many times a command with no reply is sent again before the
+     * node is given up on.
+     * @param retries Number of retries (default 2).
+     */
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Find the nodes on the coordinator's PAN with a Node Discover (ND)
+     * command.  Takes as long as the coordinator's discovery time (NT).
+     * @return Addresses of the nodes that answered.
+     * @throws XBeeException If the coordinator does not respond.
+     */
+    public List<XBeeAddress> discover() throws XBeeException {
+        AtCommandResponse nt = (AtCommandResponse) xbee.sendSynchronous(new AtCommand("NT"), timeout);
+        if (!nt.isOk()) {
+            throw new XBeeException("Could not read NT (" + nt.getStatus() + ").");
+        }
+        /* in units of 100 ms */
+        long wait = 0;
+        for (int b : nt.getValue()) {
+            wait = (wait << 8) | b;
+        }
+        wait *= 100;
+        final ArrayList<XBeeAddress> found = new ArrayList<>();
+        PacketListener listener = new PacketListener() {
+            @Override
+            public void processResponse(XBeeResponse response) {
+                if (response.getApiId() != ApiId.AT_RESPONSE) {
+                    return;
+                }
+                AtCommandResponse at = (AtCommandResponse) response;
+                if (at.getCommand().equals("ND") && at.isOk()
+                        && at.getValue() != null && at.getValue().length > 0) {
+                    XBeeAddress address = new XBeeAddress(NodeDiscover.parse(at).getNodeAddress64());
+                    synchronized (found) {
+                        if (!found.contains(address)) {
+                            found.add(address);
+                        }
+                    }
+                }
+            }
+        };
+        xbee.addPacketListener(listener);
+        try {
+            xbee.sendAsynchronous(new AtCommand("ND"));
+            /* replies may arrive until the discovery time has passed */
+            Thread.sleep(wait + 1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            xbee.removePacketListener(listener);
+        }
+        synchronized (found) {
+            return new ArrayList<>(found);
+        }
+    }
+
+    /**
+     * Program every node with the settings added by {@link #set(String, int)}.
+     * Returns when every node has been programmed or given up on.
+     * @param nodes Addresses of the nodes.
+     * @param write True to write the settings to flash (WR), so they survive
+     * a reset.
+     * @return One result per node, in the order given.
+     */
+    public synchronized List<XBeeFleetResult> program(Collection<XBeeAddress> nodes, boolean write) {
+        /* settings, then WR while the node can still be reached, then AC */
+        pipelined = settings.size();
+        commands = new String[pipelined + (write ? 2 : 1)];
+        values = new int[commands.length][];
+        int c = 0;
+        for (Map.Entry<String, int[]> setting : settings.entrySet()) {
+            commands[c] = setting.getKey();
+            values[c++] = setting.getValue();
+        }
+        if (write) {
+            commands[c++] = "WR";
+        }
+        commands[c] = "AC";
+        panChanges = settings.containsKey("ID") && changesPan(settings.get("ID"));
+
+        ArrayList<Node> all = new ArrayList<>();
+        for (XBeeAddress address : nodes) {
+            all.add(new Node(address));
+        }
+        ArrayDeque<Node> waiting = new ArrayDeque<>(all);
+        ArrayList<Node> active = new ArrayList<>();
+        int finished = 0;
+        while (finished < all.size()) {
+            long now = System.currentTimeMillis();
+            expire(now);
+            for (int i = 0; i < active.size(); i++) {
+                Node node = active.get(i);
+                if (node.result == null) {
+                    send(node, now);
+                }
+                if (node.result != null) {
+                    release(node);
+                    active.remove(i--);
+                    finished++;
+                }
+            }
+            while (active.size() < concurrency && !waiting.isEmpty()) {
+                Node node = waiting.poll();
+                node.started = now;
+                active.add(node);
+                send(node, now);
+            }
+            try {
+                /* woken by each reply */
+                wait(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        ArrayList<XBeeFleetResult> results = new ArrayList<>();
+        for (Node node : all) {
+            results.add((node.result != null) ? node.result
+                    : new XBeeFleetResult(node.address, false, false, "Interrupted.", 0, node.retries));
+        }
+        return results;
+    }
+
+    /**
+     * Send as many of a node's commands as its pipeline allows.  WR and AC
+     * are only sent once everything before them has been accepted.
+     */
+    private void send(Node node, long now) {
+        while (node.inFlight < depth) {
+            Command command;
+            if (!node.resend.isEmpty()) {
+                command = node.resend.peek();
+            } else if (node.next < pipelined
+                    || (node.next < commands.length && node.acknowledged == node.next
+                    && node.inFlight == 0)) {
+                command = new Command(node, node.next);
+            } else {
+                return;
+            }
+            int frameId = nextFrameId();
+            if (frameId == 0) {
+                /* every frame ID is waiting for a reply */
+                return;
+            }
+            if (command == node.resend.peek()) {
+                node.resend.poll();
+            } else {
+                node.next++;
+            }
+            command.sent = now;
+            command.attempts++;
+            inFlight[frameId] = command;
+            node.inFlight++;
+            RemoteAtRequest request = new RemoteAtRequest(frameId,
+                    node.address.toXBeeAddress64(), XBeeAddress16.ZNET_BROADCAST, false,
+                    commands[command.index], values[command.index]);
+            try {
+                xbee.sendAsynchronous(request);
+            } catch (XBeeException ex) {
+                log.log(Level.ERROR, null, ex);
+                /* handled like a lost reply */
+            }
+        }
+    }
+
+    /**
+     * Retry or give up on commands that have not been answered.
+     */
+    private void expire(long now) {
+        for (int id = 1; id <= FRAME_IDS; id++) {
+            Command command = inFlight[id];
+            if (command == null || now - command.sent < timeout) {
+                continue;
+            }
+            inFlight[id] = null;
+            Node node = command.node;
+            node.inFlight--;
+            retry(command, commands[command.index] + " was not answered.", now);
+        }
+    }
+
+    private void retry(Command command, String reason, long now) {
+        Node node = command.node;
+        if (command.attempts <= retries) {
+            node.retries++;
+            node.resend.add(command);
+            return;
+        }
+        if (command.index == commands.length - 1 && panChanges) {
+            /* the node may have applied the new PAN ID, and answered on it */
+            finish(node, false, true, "AC not confirmed; check the node on the new PAN.", now);
+        } else {
+            finish(node, false, reason, now);
+        }
+    }
+
+    /**
+     * Check if a PAN ID differs from the coordinator's.  Every node being 
+     * programmed is reached through the coordinator, so is on its PAN.
+     * @return True if it differs, or the coordinator's cannot be read.
+     */
+    private boolean changesPan(int[] id) {
+        try {
+            AtCommandResponse current = (AtCommandResponse) xbee.sendSynchronous(new AtCommand("ID"), timeout);
+            if (current.isOk()) {
+                return value(current.getValue()) != value(id);
+            }
+            log.log(Level.WARN, "Could not read the coordinator's ID (" + current.getStatus() + ").");
+        } catch (XBeeException ex) {
+            log.log(Level.WARN, "Could not read the coordinator's ID: " + ex.getMessage());
+        }
+        return true;
+    }
+
+    private static long value(int[] bytes) {
+        long value = 0;
+        for (int b : bytes) {
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    /**
+     * Match a reply to the command it answers.  Called on xbee-api's receive
+     * thread.
+     */
+    private synchronized void replied(RemoteAtResponse response) {
+        int frameId = response.getFrameId();
+        if (frameId < 1 || frameId > FRAME_IDS) {
+            return;
+        }
+        Command command = inFlight[frameId];
+        if (command == null || command.node.result != null
+                || !command.node.address.equals(new XBeeAddress(response.getRemoteAddress64()))) {
+            /* a late reply to a command that has been sent again */
+            return;
+        }
+        inFlight[frameId] = null;
+        Node node = command.node;
+        node.inFlight--;
+        long now = System.currentTimeMillis();
+        if (response.isOk()) {
+            node.acknowledged++;
+            if (node.acknowledged == commands.length) {
+                finish(node, true, "", now);
+            }
+        } else if (response.getStatus() == AtCommandResponse.Status.NO_RESPONSE) {
+            /* the coordinator could not reach the node */
+            retry(command, commands[command.index] + " could not be delivered.", now);
+        } else {
+            finish(node, false, "Could not set " + commands[command.index]
+                    + " (" + response.getStatus() + ").", now);
+        }
+        notifyAll();
+    }
+
+    private void finish(Node node, boolean success, String message, long now) {
+        finish(node, success, false, message, now);
+    }
+
+    private void finish(Node node, boolean success, boolean unconfirmed, String message, long now) {
+        if (node.result == null) {
+            node.result = new XBeeFleetResult(node.address, success, unconfirmed, message,
+                    now - node.started, node.retries);
+        }
+    }
+
+    /**
+     * Forget any commands still waiting for a reply from a finished node.
+     */
+    private void release(Node node) {
+        for (int id = 1; id <= FRAME_IDS; id++) {
+            if (inFlight[id] != null && inFlight[id].node == node) {
+                inFlight[id] = null;
+            }
+        }
+    }
+
+    /**
+     * Get an unused frame ID.
+     * @return Frame ID, or 0 if all are in use.
+     */
+    private int nextFrameId() {
+        for (int i = 0; i < FRAME_IDS; i++) {
+            int id = nextFrameId;
+            nextFrameId = (nextFrameId % FRAME_IDS) + 1;
+            if (inFlight[id] == null) {
+                return id;
+            }
+        }
+        return 0;
+    }
+}
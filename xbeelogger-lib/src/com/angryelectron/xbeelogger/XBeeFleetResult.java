@@ -0,0 +1,87 @@
+/**
+ * XBeeFleetResult.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * The outcome of programming one node with an {@link XBeeFleetProgrammer}.
+ */
+public class XBeeFleetResult {
+
+    private final XBeeAddress address;
+    private final boolean success;
+    private final boolean unconfirmed;
+    private final String message;
+    private final long elapsedMs;
+    private final int retries;
+
+    XBeeFleetResult(XBeeAddress address, boolean success, boolean unconfirmed,
+            String message, long elapsedMs, int retries) {
+        this.address = address;
+        this.success = success;
+        this.unconfirmed = unconfirmed;
+        this.message = message;
+        this.elapsedMs = elapsedMs;
+        this.retries = retries;
+    }
+
+    /**
+     * Get the node's address.
+     * @return 64-bit address.
+     */
+    public XBeeAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Check if every command was accepted.
+     * @return True if the node was programmed.
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Check if every setting was accepted but AC was never answered after
+     * the node was moved to a new PAN ID.  The node has probably applied the
+     * settings, and dropped off the coordinator's PAN as a result, but should
+     * be checked on the new PAN.  An unconfirmed node is not a success.
+     * @return True if the node's last command is unconfirmed.
+     */
+    public boolean isUnconfirmed() {
+        return unconfirmed;
+    }
+
+    /**
+     * Get the reason the node could not be programmed, or a note about a
+     * node that was.
+     * @return Message, or an empty string.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the time from the first command being sent to the last reply.
+     * @return Time, in milliseconds.
+     */
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+
+    /**
+     * Get the number of commands that were sent again after getting no reply.
+     * @return Retries.
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s in %.1fs, %d retries%s", address,
+                success ? "ok" : unconfirmed ? "UNCONFIRMED" : "FAILED", elapsedMs / 1000.0, retries,
+                message.isEmpty() ? "" : " (" + message + ")");
+    }
+}
@@ -0,0 +1,275 @@
+/**
+ * XBeeFrameDecoder.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes escaped (AP=2) API frames without xbee-api.  Bytes may arrive in
+ * pieces of any size; each complete frame is unescaped into a fixed buffer
+ * and its checksum checked.  I/O sample (0x92) and NI response (0x97) frames
+ * are decoded into primitives and handed to a {@link Handler}.  Every other
+ * frame is handed back still escaped, so xbee-api can parse it as usual.
+ * <p>
+ * Decoding allocates nothing, so the decoder can keep up with thousands of
+ * frames per second on a small CPU without making work for the garbage
+ * collector.  A decoder is used by one thread.
+ */
+final class XBeeFrameDecoder {
+
+    /**
+     * Receives decoded frames.  Called on the decoding thread; the arrays
+     * passed are re-used for the next frame.
+     */
+    interface Handler {
+
+        /**
+         * An I/O sample was received.
+         * @param address 64-bit address of the node.
+         * @param digitalMask Digital channel mask.
+         * @param analogMask Analog channel mask.
+         * @param dio Digital values.
+         * @param analog ADC values, packed as in
+         * {@link XBeeSample#getPackedAnalog()}.
+         */
+        void sample(long address, int digitalMask, int analogMask, int dio, long analog);
+
+        /**
+         * A node's Node Identifier was received.
+         * @param address 64-bit address of the node.
+         * @param name Buffer holding the Node Identifier, in ASCII.
+         * @param offset Start of the Node Identifier.
+         * @param length Length of the Node Identifier.
+         */
+        void identified(long address, byte[] name, int offset, int length);
+
+        /**
+         * Any other frame was received.
+         * @param frame Buffer holding the escaped frame, from its start
+         * delimiter to its checksum.
+         * @param length Length of the frame.
+         */
+        void other(byte[] frame, int length);
+    }
+
+    private static final int START = 0x7e;
+    private static final int ESCAPE = 0x7d;
+    private static final int IO_SAMPLE = 0x92;
+    private static final int REMOTE_AT_RESPONSE = 0x97;
+
+    /*
+     * Channels that exist on a Series 2 radio, and the 10-bit ADC, masked as
+     * xbee-api does so both paths give the same samples.
+     */
+    private static final int DIGITAL_CHANNELS = 0x1cff;
+    private static final int ANALOG_CHANNELS = 0x8f;
+    private static final int ADC_BITS = 0x3ff;
+
+    /**
+     * Longest frame, unescaped, including the checksum.  Longer frames are
+     * discarded.
+     */
+    private static final int MAX_FRAME = 1024;
+
+    private enum State {
+        START, LENGTH_MSB, LENGTH_LSB, DATA
+    }
+
+    private final Handler handler;
+    private final byte[] data = new byte[MAX_FRAME];
+    private final byte[] raw = new byte[2 * MAX_FRAME + 3];
+    private State state = State.START;
+    private boolean escaped = false;
+    private int length;
+    private int position;
+    private int rawLength;
+
+    private long decoded = 0;
+    private long passed = 0;
+    private long errors = 0;
+
+    XBeeFrameDecoder(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Decode all remaining bytes.  A frame that is not yet complete is kept
+     * until the rest arrives.
+     * @param in Received bytes.
+     */
+    void decode(ByteBuffer in) {
+        while (in.hasRemaining()) {
+            int b = in.get() & 0xff;
+            if (b == START) {
+                if (state != State.START) {
+                    /* a start delimiter is always escaped inside a frame, so
+                     * the previous frame was cut short */
+                    errors++;
+                }
+                state = State.LENGTH_MSB;
+                escaped = false;
+                raw[0] = (byte) START;
+                rawLength = 1;
+                continue;
+            }
+            if (state == State.START) {
+                /* noise between frames */
+                continue;
+            }
+            if (rawLength == raw.length) {
+                errors++;
+                state = State.START;
+                continue;
+            }
+            raw[rawLength++] = (byte) b;
+            if (b == ESCAPE) {
+                escaped = true;
+                continue;
+            }
+            if (escaped) {
+                b ^= 0x20;
+                escaped = false;
+            }
+            switch (state) {
+                case LENGTH_MSB:
+                    length = b << 8;
+                    state = State.LENGTH_LSB;
+                    break;
+                case LENGTH_LSB:
+                    /* the checksum is kept with the data */
+                    length = (length | b) + 1;
+                    if (length < 2 || length > MAX_FRAME) {
+                        errors++;
+                        state = State.START;
+                    } else {
+                        position = 0;
+                        state = State.DATA;
+                    }
+                    break;
+                default:
+                    data[position++] = (byte) b;
+                    if (position == length) {
+                        state = State.START;
+                        frame();
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Get the number of frames decoded here.
+     * @return Frames decoded.
+     */
+    long getDecoded() {
+        return decoded;
+    }
+
+    /**
+     * Get the number of frames handed back for xbee-api to parse.
+     * @return Frames passed through.
+     */
+    long getPassed() {
+        return passed;
+    }
+
+    /**
+     * Get the number of frames discarded because they were cut short, too
+     * long, or had a bad checksum.
+     * @return Errors.
+     */
+    long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Handle a complete frame of length bytes, the last being the checksum.
+     */
+    private void frame() {
+        int apiId = data[0] & 0xff;
+        if (apiId == IO_SAMPLE || apiId == REMOTE_AT_RESPONSE) {
+            int sum = 0;
+            for (int i = 0; i < length; i++) {
+                sum += data[i];
+            }
+            if ((sum & 0xff) != 0xff) {
+                errors++;
+                return;
+            }
+            if (apiId == IO_SAMPLE ? sample() : identified()) {
+                decoded++;
+                return;
+            }
+        }
+        passed++;
+        handler.other(raw, rawLength);
+    }
+
+    /**
+     * Decode an I/O sample: API id, 64-bit and 16-bit addresses, options,
+     * sample count, digital mask, analog mask, digital values if any digital
+     * channel is enabled, then an ADC value for each enabled analog channel.
+     * @return False if the frame holds something else, such as more than one
+     * sample.
+     */
+    private boolean sample() {
+        int end = length - 1;
+        if (end < 16 || data[12] != 1) {
+            return false;
+        }
+        long address = getLong(1);
+        int digitalMask = getShort(13) & DIGITAL_CHANNELS;
+        int analogMask = data[15] & ANALOG_CHANNELS;
+        int p = 16;
+        int dio = 0;
+        if (digitalMask != 0) {
+            if (p + 2 > end) {
+                return false;
+            }
+            dio = getShort(p);
+            p += 2;
+        }
+        long analog = 0;
+        for (int i = 0; i < XBeeSample.ANALOG_CHANNELS; i++) {
+            /* the supply voltage is bit 7 of the mask */
+            int bit = (i == XBeeSample.SUPPLY_VOLTAGE) ? 7 : i;
+            if ((analogMask & (1 << bit)) != 0) {
+                if (p + 2 > end) {
+                    return false;
+                }
+                analog |= (long) (getShort(p) & ADC_BITS) << (i * 12);
+                p += 2;
+            }
+        }
+        handler.sample(address, digitalMask, analogMask, dio, analog);
+        return true;
+    }
+
+    /**
+     * Decode a successful reply to a remote NI command: API id, frame id,
+     * 64-bit and 16-bit addresses, command, status, then the Node Identifier.
+     * @return False for any other command, or a failure.
+     */
+    private boolean identified() {
+        int end = length - 1;
+        if (end < 15 || data[12] != 'N' || data[13] != 'I' || data[14] != 0) {
+            return false;
+        }
+        handler.identified(getLong(2), data, 15, end - 15);
+        return true;
+    }
+
+    private long getLong(int p) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[p + i] & 0xff);
+        }
+        return value;
+    }
+
+    private int getShort(int p) {
+        return ((data[p] & 0xff) << 8) | (data[p + 1] & 0xff);
+    }
+}
@@ -6,55 +6,418 @@ package com.angryelectron.xbeelogger;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
 
 /**
- * Read log data from an XBeeLogWriter log file. 
+ * Read log data from an XBeeLogWriter log file.
  */
 public class XBeeLogReader {
 
-    private HashMap<XBeeAddress, XBeeSample> data;
-    
+    /**
+     * How often a watched file is checked for changes when no file system
+     * event has been received, in milliseconds.
+     */
+    private static final long POLL_INTERVAL = 1000;
+
+    private volatile Snapshot snapshot = new Snapshot(
+            new HashMap<XBeeAddress, XBeeSample>(), 0, -1, -1);
+    private volatile XBeeSampleTable table;
+    private volatile XBeeSampleHistory history;
+    private volatile XBeeSegmentStore store;
+    private volatile File journal;
+    private Thread watcher;
+
+    /**
+     * An immutable view of the samples loaded from one version of the file.
+     * Lookups use whichever snapshot is current when they start, so they never
+     * block and never see a partly loaded file.
+     */
+    private static final class Snapshot {
+
+        private final Map<XBeeAddress, XBeeSample> data;
+        private final XBeeNameIndex names;
+        private final long version;
+        private final long modified;
+        private final long size;
+
+        Snapshot(HashMap<XBeeAddress, XBeeSample> data, long version, long modified, long size) {
+            this.data = Collections.unmodifiableMap(data);
+            this.names = XBeeNameIndex.build(data);
+            this.version = version;
+            this.modified = modified;
+            this.size = size;
+        }
+    }
+
     /**
      * Load data from file.  Data is static once loaded, so call this each time
-     * new data is required.
+     * new data is required, or use {@link #watchSampleData(java.io.File)}.
      * @param dataFile The file, created by {@link XBeeLogWriter}, to read.
      * @throws FileNotFoundException if the file cannot be opened.
      */
     public void loadSampleData(File dataFile) throws FileNotFoundException {
-        XBeeSampleStream xml = new XBeeSampleStream(dataFile);
-        data = xml.read();
+        load(dataFile);
+        table = null;
+    }
+
+    /**
+     * Read one node's sample straight from a file, without loading the rest
+     * of it.  Quicker than {@link #loadSampleData(java.io.File)} for a single
+     * lookup, but the file is read again on each call.
+     * @param dataFile The file, created by {@link XBeeLogWriter}, to read.
+     * @param address XBee 64-bit address.
+     * @return The data from the XBee at the given address.
+     * @throws FileNotFoundException if the file cannot be opened.
+     * @throws NoSuchFieldException If the file holds no data from this address.
+     */
+    public static XBeeSample readSample(File dataFile, XBeeAddress address) 
+            throws FileNotFoundException, NoSuchFieldException {
+        XBeeSample sample = new XBeeSampleStream(dataFile).find(address);
+        if (sample == null) {
+            throw new NoSuchFieldException("No samples were found for that address.");
+        }
+        return sample;
+    }
+
+    /**
+     * Read one node's sample straight from a file, without loading the rest
+     * of it.  If more than one XBee uses the same node identifier, the one 
+     * with the most recent sample is returned.
+     * @param dataFile The file, created by {@link XBeeLogWriter}, to read.
+     * @param nodeIdentifier XBee 'NI' string.
+     * @return The data from the XBee with the specified node identifier.
+     * @throws FileNotFoundException if the file cannot be opened.
+     * @throws NoSuchFieldException If the file holds no data from this node
+     * identifier.
+     */
+    public static XBeeSample readSample(File dataFile, String nodeIdentifier) 
+            throws FileNotFoundException, NoSuchFieldException {
+        XBeeSample sample = new XBeeSampleStream(dataFile).find(nodeIdentifier);
+        if (sample == null) {
+            throw new NoSuchFieldException("No samples were found for that address.");
+        }
+        return sample;
+    }
+
+    /**
+     * Load data from file, but only if it has changed since it was last loaded.
+     * A file is considered changed if its modification time or size differ.
+     * @param dataFile The file, created by {@link XBeeLogWriter}, to read.
+     * @return True if new data was loaded.
+     * @throws FileNotFoundException if the file cannot be opened.
+     */
+    public boolean reloadSampleData(File dataFile) throws FileNotFoundException {
+        if (!reload(dataFile)) {
+            return false;
+        }
+        table = null;
+        return true;
+    }
+
+    /**
+     * Load data from file and keep it current.  A background thread watches
+     * the file and re-loads it only when it changes.  New data replaces the old
+     * in a single step, so lookups made while the file is being re-loaded
+     * return the previous data rather than waiting.
+     * @param dataFile The file, created by {@link XBeeLogWriter}, to watch.
+     * @throws FileNotFoundException if the file cannot be opened.
+     */
+    public synchronized void watchSampleData(final File dataFile) throws FileNotFoundException {
+        stopWatching();
+        loadSampleData(dataFile);
+        final WatchService service;
+        final Path directory = dataFile.getAbsoluteFile().getParentFile().toPath();
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            directory.register(service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ex) {
+            throw new FileNotFoundException(ex.getMessage());
+        }
+        watcher = new Thread("XBeeLogReader-" + dataFile.getName()) {
+            @Override
+            public void run() {
+                try {
+                    watch(service, dataFile);
+                } finally {
+                    try {
+                        service.close();
+                    } catch (IOException ex) {
+                        Logger.getLogger(XBeeLogReader.class.getName()).log(Level.ERROR, null, ex);
+                    }
+                }
+            }
+        };
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stop watching the data file, and wait for a load in progress to finish.
+     * The most recently loaded data remains available.
+     */
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.interrupt();
+            try {
+                watcher.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            watcher = null;
+        }
+    }
+
+    /**
+     * Keep recent samples from each node, not just the latest.  Each time the
+     * sample file is loaded, any new samples are added to the history.  Call
+     * before loading or watching the file.
+     * @param history Where to keep the samples, or null to stop keeping them.
+     */
+    public void setHistory(XBeeSampleHistory history) {
+        this.history = history;
     }
     
+    /**
+     * Get the recent samples kept by {@link #setHistory(XBeeSampleHistory)}.
+     * @return The history, or null if none is being kept.
+     */
+    public XBeeSampleHistory getHistory() {
+        return history;
+    }
+
+    /**
+     * Get the version of the loaded data.  The version changes each time new
+     * data is loaded, so long-running callers can tell whether anything has
+     * changed since they last looked.
+     * @return Version number, or 0 if no data has been loaded.
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    /**
+     * Read samples from a memory-mapped sample table instead of an XML file.
+     * The table is updated in place by {@link XBeeLogWriter}, so it only needs
+     * to be opened once; each lookup returns the latest sample without parsing
+     * any other node's data.
+     * @param tableFile The sample table, created by {@link XBeeLogWriter}.
+     * @throws FileNotFoundException if the file cannot be opened.
+     */
+    public void openSampleTable(File tableFile) throws FileNotFoundException {
+        stopWatching();
+        table = XBeeSampleTable.open(tableFile);
+    }
+
+    /**
+     * Read historical samples from a segment store written by 
+     * {@link XBeeLogWriter} with {@link XBeeLogWriter.Format#SEGMENTS}.  This
+     * is independent of where the latest samples are read from.  Replaces any
+     * journal opened with {@link #openJournal(java.io.File)}.
+     * @param directory The store directory.
+     * @throws FileNotFoundException if the directory does not exist.
+     */
+    public void openSegmentStore(File directory) throws FileNotFoundException {
+        if (!directory.isDirectory()) {
+            throw new FileNotFoundException(directory + " is not a segment store.");
+        }
+        journal = null;
+        store = new XBeeSegmentStore(directory);
+    }
+
+    /**
+     * Read historical samples from a journal written by {@link XBeeLogWriter}
+     * with {@link XBeeLogWriter.Format#JOURNAL}.  The journal has no index, so
+     * each query reads every segment; use a segment store for long histories.
+     * Replaces any segment store opened with
+     * {@link #openSegmentStore(java.io.File)}.
+     * @param directory The journal directory.
+     * @throws FileNotFoundException if the directory does not exist.
+     */
+    public void openJournal(File directory) throws FileNotFoundException {
+        if (!directory.isDirectory()) {
+            throw new FileNotFoundException(directory + " is not a journal.");
+        }
+        store = null;
+        journal = directory;
+    }
+    
+    /**
+     * Get a node's samples from a period of time, from the segment store or
+     * journal.
+     * @param address XBee 64-bit address.
+     * @param from Start of the period, inclusive.
+     * @param to End of the period, inclusive.
+     * @return Samples, oldest first.  Empty if there are none in the period.
+     * @throws NoSuchFieldException If neither a segment store nor a journal
+     * has been opened.
+     * @throws FileNotFoundException If the segment store or journal cannot be
+     * read.
+     */
+    public List<XBeeSample> getStoredSamples(XBeeAddress address, Date from, Date to) 
+            throws NoSuchFieldException, FileNotFoundException {
+        XBeeSegmentStore s = store;
+        if (s != null) {
+            return s.read(address, from.getTime(), to.getTime());
+        }
+        File j = journal;
+        if (j != null) {
+            return XBeeSampleJournal.read(j, address, from.getTime(), to.getTime());
+        }
+        throw new NoSuchFieldException("No segment store or journal has been opened.");
+    }
+
     /**
      * Get XBee IO sample data.
      * @param address XBee 64-bit address.
      * @return The data from the XBee at the given address.
-     * @throws NoSuchFieldException If no data has been received from an XBee with 
+     * @throws NoSuchFieldException If no data has been received from an XBee with
      * this address, or if the data has not been loaded.
      */
     public XBeeSample getSampleByAddress(XBeeAddress address) throws NoSuchFieldException {
-        if (!data.containsKey(address)) {
+        XBeeSampleTable t = table;
+        if (t != null) {
+            return t.getSampleByAddress(address);
+        }
+        XBeeSample sample = snapshot.data.get(address);
+        if (sample == null) {
             throw new NoSuchFieldException("No samples were found for that address.");
         }
-        return data.get(address);
+        return sample;
     }
-    
+
     /**
-     * Get XBee IO sample data.
+     * Get XBee IO sample data.  If more than one XBee uses the same node 
+     * identifier, the one with the most recent sample is returned.
      * @param nodeIdentifier XBee 'NI' string.
      * @return The data from the XBee with the specified node identifier.
      * @throws NoSuchFieldException If no data has been received from an XBee with
      * this node identifier, or if the data has not been loaded.
      */
     public XBeeSample getSampleByName(String nodeIdentifier) throws NoSuchFieldException {
-        for (Map.Entry<XBeeAddress, XBeeSample> entry: data.entrySet()) {
-            XBeeSample sample = entry.getValue();
-            if (sample.getNodeIdentifier().equals(nodeIdentifier)) {
-                return sample;
+        XBeeSampleTable t = table;
+        if (t != null) {
+            return t.getSampleByName(nodeIdentifier);
+        }
+        Snapshot current = snapshot;
+        XBeeAddress address = current.names.get(nodeIdentifier);
+        if (address == null) {
+            throw new NoSuchFieldException("No samples were found for that address.");
+        }
+        return current.data.get(address);
+    }
+    
+    /**
+     * Get XBee IO sample data for several nodes at once.  All samples come from
+     * the same version of the data.
+     * @param nodeIdentifiers XBee 'NI' strings.
+     * @return The data from each XBee, indexed by node identifier, in the order
+     * requested.  Names for which no data has been received are left out.
+     */
+    public Map<String, XBeeSample> getSamplesByName(Collection<String> nodeIdentifiers) {
+        LinkedHashMap<String, XBeeSample> samples = new LinkedHashMap<>();
+        XBeeSampleTable t = table;
+        Snapshot current = snapshot;
+        for (String name : nodeIdentifiers) {
+            try {
+                if (t != null) {
+                    samples.put(name, t.getSampleByName(name));
+                } else {
+                    XBeeAddress address = current.names.get(name);
+                    if (address != null) {
+                        samples.put(name, current.data.get(address));
+                    }
+                }
+            } catch (NoSuchFieldException ex) {
+                /* leave it out */
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Parse a file and make it the current snapshot.
+     */
+    private void load(File dataFile) throws FileNotFoundException {
+        /* read the file attributes first, so a change made while parsing is
+         * picked up by the next check */
+        long modified = dataFile.lastModified();
+        long size = dataFile.length();
+        XBeeSampleStream xml = new XBeeSampleStream(dataFile);
+        HashMap<XBeeAddress, XBeeSample> data = xml.read();
+        XBeeSampleHistory h = history;
+        if (h != null) {
+            for (XBeeSample sample : data.values()) {
+                h.add(sample);
+            }
+        }
+        snapshot = new Snapshot(data, snapshot.version + 1, modified, size);
+    }
+
+    /**
+     * Load data from file if it has changed since it was last loaded.
+     * @return True if new data was loaded.
+     */
+    private boolean reload(File dataFile) throws FileNotFoundException {
+        Snapshot current = snapshot;
+        if (dataFile.lastModified() == current.modified && dataFile.length() == current.size) {
+            return false;
+        }
+        load(dataFile);
+        return true;
+    }
+
+    /**
+     * Wait for changes to a file and re-load it.  Events are used when the
+     * platform provides them, and an event naming the file always re-loads
+     * it, since a rewrite within the same second and of the same size leaves
+     * the modification time and size unchanged on many file systems.  The
+     * modification time and size are also polled in case an event is missed.
+     * Never touches the table, which only the caller's thread opens or drops.
+     */
+    private void watch(WatchService service, File dataFile) {
+        Path name = dataFile.toPath().getFileName();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                WatchKey key = service.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (name.equals(event.context())) {
+                            changed = true;
+                        }
+                    }
+                    key.reset();
+                    if (changed) {
+                        load(dataFile);
+                    }
+                    continue;
+                }
+                reload(dataFile);
+            } catch (InterruptedException ex) {
+                return;
+            } catch (FileNotFoundException ex) {
+                /* the writer may be part-way through re-writing the file; keep
+                 * the current data and try again on the next change */
+                Logger.getLogger(XBeeLogReader.class.getName()).log(Level.DEBUG, ex.getMessage());
             }
         }
-        throw new NoSuchFieldException("No samples were found for that address.");
     }
 }
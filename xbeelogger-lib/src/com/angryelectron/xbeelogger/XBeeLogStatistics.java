@@ -0,0 +1,116 @@
+/**
+ * XBeeLogStatistics.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * A snapshot of {@link XBeeLogWriter} activity.
+ */
+public class XBeeLogStatistics {
+
+    private final int queueDepth;
+    private final long received;
+    private final long written;
+    private final long coalesced;
+    private final long dropped;
+    private final long flushes;
+    private final double lastFlushMs;
+    private final double maxFlushMs;
+    private final double meanFlushMs;
+
+    XBeeLogStatistics(int queueDepth, long received, long written, long coalesced,
+            long dropped, long flushes, double lastFlushMs, double maxFlushMs,
+            double meanFlushMs) {
+        this.queueDepth = queueDepth;
+        this.received = received;
+        this.written = written;
+        this.coalesced = coalesced;
+        this.dropped = dropped;
+        this.flushes = flushes;
+        this.lastFlushMs = lastFlushMs;
+        this.maxFlushMs = maxFlushMs;
+        this.meanFlushMs = meanFlushMs;
+    }
+
+    /**
+     * Get the number of samples waiting to be written.
+     * @return Queue depth.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * Get the number of samples received from the network.
+     * @return Samples received.
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * Get the number of samples written.
+     * @return Samples written.
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Get the number of samples replaced by a newer sample from the same node
+     * before they were written.
+     * @return Coalesced samples.
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    /**
+     * Get the number of samples dropped because the queue was full.
+     * @return Dropped samples.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Get the number of times queued samples were written.
+     * @return Flushes.
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Get the time taken by the most recent flush.
+     * @return Latency, in milliseconds.
+     */
+    public double getLastFlushMs() {
+        return lastFlushMs;
+    }
+
+    /**
+     * Get the time taken by the slowest flush.
+     * @return Latency, in milliseconds.
+     */
+    public double getMaxFlushMs() {
+        return maxFlushMs;
+    }
+
+    /**
+     * Get the average time taken by a flush.
+     * @return Latency, in milliseconds.
+     */
+    public double getMeanFlushMs() {
+        return meanFlushMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queue=%d received=%d written=%d coalesced=%d dropped=%d "
+                + "flushes=%d flush(last/mean/max)=%.2f/%.2f/%.2fms",
+                queueDepth, received, written, coalesced, dropped, flushes,
+                lastFlushMs, meanFlushMs, maxFlushMs);
+    }
+}
@@ -5,28 +5,132 @@
 
 package com.angryelectron.xbeelogger;
 
+import com.rapplogic.xbee.XBeeConnection;
 import com.rapplogic.xbee.api.XBeeException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 
 /**
  * Continuously write I/O Sample data received from an XBee Series 2 mesh network to an 
- * XML file.
+ * XML file, or to an append-only binary journal.
+ * <p>
+ * Samples are not written on the thread that receives them from the radio.
+ * The writer is one consumer on the {@link XBeeEventBus}, which hands samples
+ * to a bounded queue, and a separate writer thread writes them in batches, so
+ * a slow disk never delays packet processing.  Other consumers may subscribe
+ * to the same bus without slowing the writer.
  */
-public class XBeeLogWriter implements Observer {
+public class XBeeLogWriter {
+    
+        /**
+         * Log file formats.
+         */
+        public enum Format {
+            
+            /**
+             * A single XML file holding the latest sample from each node.  The
+             * whole file is rewritten each time queued samples are written.
+             */
+            XML,
+            
+            /**
+             * A directory of binary journal segments.  Each sample is appended
+             * as a small record, so history is kept and the cost of each write
+             * does not depend on the number of nodes.
+             */
+            JOURNAL,
+            
+            /**
+             * A directory of compressed archive files, one per node.  Samples
+             * are written in blocks, so the smallest format for long-term 
+             * history.  Samples not yet in a full block are kept in a small
+             * journal, and put back in their blocks if the writer is killed.
+             * See {@link XBeeSampleArchive}.
+             */
+            ARCHIVE,
+            
+            /**
+             * A directory of segments, partitioned by day and indexed by node,
+             * so history can be queried with 
+             * {@link XBeeLogReader#getStoredSamples(XBeeAddress, java.util.Date, java.util.Date)}.
+             * See {@link XBeeSegmentStore}.
+             */
+            SEGMENTS
+        }
+        
+        /**
+         * When written data is forced to the storage device.
+         */
+        public enum Sync {
+            
+            /**
+             * Never.  The operating system decides when to write data.
+             */
+            NONE,
+            
+            /**
+             * After every batch of samples.
+             */
+            BATCH,
+            
+            /**
+             * At most once per sync interval.
+             */
+            PERIODIC
+        }
+        
+        private static final Logger log = Logger.getLogger(XBeeLogWriter.class.getName());
             
         private final File logFile;
-        private final String port;
-        private final Integer baud;
+        private final LinkedHashMap<String, Integer> ports = new LinkedHashMap<>();
+        private final Format format;
         
         private final XBeeSampleListener listener = new XBeeSampleListener();  
+        private XBeeEventConsumer<XBeeEvent.SampleReceived> consumer;
         private XBeeSampleStream xml;
+        private XBeeSampleJournal journal;
+        private XBeeSampleArchive archive;
+        private XBeeSegmentStore store;
+        private int retention = 0;
+        private Long segmentSize;
+        private File tableFile;
+        private int tableCapacity = 1024;
+        private XBeeSampleTable table;
+        private XBeeOperatorGraph operators;
+        private File operatorFile;
+        private XBeeRollup rollup;
+        private volatile XBeeSampleHistory history;
+        private final XBeeSampleFeed feed = new XBeeSampleFeed();
+        private File rollupFile;
+        
+        private long flushInterval = 1000;
+        private int batchSize = 256;
+        private int queueCapacity = 4096;
+        private Sync sync = Sync.NONE;
+        private long syncInterval = 10000;
+        private long reportInterval = 60000;
+        
+        private volatile XBeeSampleQueue queue;
+        private Thread writerThread;
+        private volatile boolean running;
+        private final AtomicLong received = new AtomicLong();
+        private long written;
+        private long flushes;
+        private long lastFlushNanos;
+        private long maxFlushNanos;
+        private long totalFlushNanos;
         
         /**
          * Constructor.
@@ -35,20 +139,447 @@ public class XBeeLogWriter implements Observer {
          * @param baud Typically 9600.  Depends on XBee configuration.
          */
         public XBeeLogWriter(File logfile, String port, Integer baud) {
+            this(logfile, port, baud, Format.XML);
+        }
+        
+        /**
+         * Constructor.
+         * @param logfile Full path of XML file to write, or of the journal,
+         * archive or store directory when using {@link Format#JOURNAL}, 
+         * {@link Format#ARCHIVE} or {@link Format#SEGMENTS}.
+         * @param port XBee Serial Port.  eg. /dev/ttyUSB0, COM6.
+         * @param baud Typically 9600.  Depends on XBee configuration.
+         * @param format Log file format.
+         */
+        public XBeeLogWriter(File logfile, String port, Integer baud, Format format) {
             this.logFile = logfile;
-            this.port = port;
-            this.baud = baud;
+            if (port != null) {
+                ports.put(port, baud);
+            }
+            this.format = format;
+        }
+        
+        /**
+         * Also log samples received by another XBee, such as the coordinator
+         * of a second PAN.  Each port has its own receive thread, and samples
+         * from every port are logged together.  Must be called before 
+         * {@link #start()}.
+         * @param port XBee Serial Port.  eg. /dev/ttyUSB1, COM7.
+         * @param baud Typically 9600.  Depends on XBee configuration.
+         */
+        public void addPort(String port, Integer baud) {
+            ports.put(port, baud);
+        }
+        
+        /**
+         * Set how long a port may receive nothing before it is closed and
+         * reopened.  Ports that fail are always reopened.  Must be called 
+         * before {@link #start()}.
+         * @param ms Interval, in milliseconds (default 1 minute).  0 to only
+         * reopen ports that fail.
+         */
+        public void setReconnectAfter(long ms) {
+            listener.setReconnectAfter(ms);
+        }
+        
+        /**
+         * Decode I/O samples and Node Identifiers directly from the received
+         * bytes, instead of through xbee-api.  Each port gets a decoding
+         * thread that creates no garbage per frame, which lets a small
+         * gateway handle many more samples per second.  Other frames are
+         * still parsed by xbee-api.  Must be called before {@link #start()}.
+         * @param enabled True to use the fast path (default false).
+         */
+        public void setFastPath(boolean enabled) {
+            listener.setFastPath(enabled);
+        }
+        
+        /**
+         * Keep the Node Identifiers of known nodes in a file, so that after a
+         * restart they are named at once instead of being asked again over
+         * the air.  Must be called before {@link #start()}.
+         * @param file Cache file.  Created if it does not exist.
+         */
+        public void setNodeCache(File file) {
+            listener.setNodeCache(file);
+        }
+        
+        /**
+         * Limit the rate of NI requests sent to remote nodes, so a gateway 
+         * starting next to many new nodes does not flood the mesh.  Must be
+         * called before {@link #start()}.
+         * @param perSecond Requests per second (default 2).
+         * @param burst Requests that may be sent at once (default 10).
+         */
+        public void setLookupRate(double perSecond, int burst) {
+            listener.setLookupRate(perSecond, burst);
+        }
+        
+        /**
+         * Set how often a known node's Node Identifier is requested again, to
+         * notice nodes that have been renamed.  Must be called before 
+         * {@link #start()}.
+         * @param ms Interval, in milliseconds (default 24 hours).  0 to never
+         * request it again.
+         */
+        public void setRevalidateAfter(long ms) {
+            listener.setRevalidateAfter(ms);
+        }
+        
+        /**
+         * Get the progress of Node Identifier lookups.
+         * @return Statistics.
+         */
+        public XBeeResolverStatistics getResolverStatistics() {
+            return listener.getResolverStatistics();
+        }
+        
+        /**
+         * Get the activity of each port.
+         * @return Statistics, in the order ports were added.
+         */
+        public List<XBeePortStatistics> getPortStatistics() {
+            return listener.getPortStatistics();
+        }
+        
+        /**
+         * Set the size at which a new journal segment is started.  Only used 
+         * with {@link Format#JOURNAL}.  Must be called before {@link #start()}.
+         * @param bytes Segment size, in bytes.
+         */
+        public void setSegmentSize(long bytes) {
+            this.segmentSize = bytes;
+        }
+        
+        /**
+         * Set how many days of samples are kept.  Only used with 
+         * {@link Format#SEGMENTS}.  Must be called before {@link #start()}.
+         * @param days Number of days, including today, or 0 to keep samples 
+         * forever.
+         */
+        public void setRetention(int days) {
+            this.retention = days;
+        }
+                                
+        /**
+         * Also keep the latest sample from each node in a memory-mapped sample
+         * table, which readers can open with 
+         * {@link XBeeLogReader#openSampleTable(java.io.File)}.  Must be called 
+         * before {@link #start()}.
+         * @param file The sample table file.
+         * @param capacity The maximum number of nodes.
+         */
+        public void setSampleTable(File file, int capacity) {
+            this.tableFile = file;
+            this.tableCapacity = capacity;
+        }
+                                
+        /**
+         * Update a set of operators with every sample as it is received.  The 
+         * operators' state is restored from a file when logging starts, and
+         * saved to it every sync interval and when logging stops.  Must be called
+         * before {@link #start()}.
+         * @param graph The operators.
+         * @param stateFile File holding the operators' state, or null to start
+         * from zero every time.
+         */
+        public void setOperators(XBeeOperatorGraph graph, File stateFile) {
+            this.operators = graph;
+            this.operatorFile = stateFile;
+        }
+        
+        /**
+         * Get the operators updated with every sample.
+         * @return The operators, or null if none were set.
+         */
+        public XBeeOperatorGraph getOperators() {
+            return operators;
+        }
+        
+        /**
+         * Add every sample to a set of time buckets as it is received.  The 
+         * buckets are restored from a file when logging starts, and saved to it
+         * every sync interval and when logging stops.  Must be called before
+         * {@link #start()}.
+         * @param rollup The buckets.
+         * @param rollupFile File holding the buckets, or null to start empty 
+         * every time.
+         */
+        public void setRollup(XBeeRollup rollup, File rollupFile) {
+            this.rollup = rollup;
+            this.rollupFile = rollupFile;
+        }
+        
+        /**
+         * Get the buckets updated with every sample.
+         * @return The buckets, or null if none were set.
+         */
+        public XBeeRollup getRollup() {
+            return rollup;
+        }
+                                
+        /**
+         * Keep recent samples from each node as they are received, so they can
+         * be queried while logging.  May be called at any time.
+         * @param history Where to keep the samples, or null to stop keeping 
+         * them.
+         */
+        public void setHistory(XBeeSampleHistory history) {
+            this.history = history;
+        }
+        
+        /**
+         * Get the recent samples kept by 
+         * {@link #setHistory(XBeeSampleHistory)}.
+         * @return The history, or null if none is being kept.
+         */
+        public XBeeSampleHistory getHistory() {
+            return history;
+        }
+        
+        /**
+         * Get the latest sample from every node, as received.  Unlike 
+         * {@link XBeeLogReader}, this does not read the log file.
+         * @return A read-only snapshot of the samples, indexed by address.  The 
+         * same snapshot is returned until a sample or Node Identifier changes.
+         */
+        public Map<XBeeAddress, XBeeSample> getSamples() {
+            return Collections.unmodifiableMap(listener.getSamples());
+        }
+        
+        /**
+         * Get the latest sample from a node, as received.
+         * @param address XBee 64-bit address.
+         * @return The latest sample.
+         * @throws NoSuchFieldException If no sample has been received from this
+         * node.
+         */
+        public XBeeSample getSampleByAddress(XBeeAddress address) throws NoSuchFieldException {
+            XBeeSample sample = listener.getSampleByAddress(address);
+            if (sample == null) {
+                throw new NoSuchFieldException("No samples were found for that address.");
+            }
+            return sample;
+        }
+        
+        /**
+         * Get the latest sample from a node, as received.
+         * @param nodeIdentifier XBee 'NI' string.
+         * @return The latest sample.
+         * @throws NoSuchFieldException If no node has this Node Identifier.
+         */
+        public XBeeSample getSampleByName(String nodeIdentifier) throws NoSuchFieldException {
+            XBeeSample sample = listener.getSampleByName(nodeIdentifier);
+            if (sample == null) {
+                throw new NoSuchFieldException("No samples were found for that Node Identifier.");
+            }
+            return sample;
+        }
+        
+        /**
+         * Get the feed that pushes each sample to subscribers as it is 
+         * received.  Subscriptions end when the writer is stopped.
+         * @return The feed.
+         */
+        public XBeeSampleFeed getFeed() {
+            return feed;
+        }
+        
+        /**
+         * Get the bus on which received samples, Node Identifiers and stale 
+         * nodes are published.  Consumers may be added at any time.
+         * @return Event bus.
+         */
+        public XBeeEventBus getEventBus() {
+            return listener.getEventBus();
+        }
+        
+        /**
+         * Set how long a node may go without reporting before a 
+         * {@link XBeeEvent.NodeStale} event is published.  Must be called 
+         * before {@link #start()}.
+         * @param ms Interval, in milliseconds (default 5 minutes).  0 to never
+         * publish stale events.
+         */
+        public void setStaleAfter(long ms) {
+            listener.setStaleAfter(ms);
+        }
+        
+        /**
+         * Get the version of the received samples.  Changes whenever a sample
+         * or Node Identifier is updated, so callers can cache anything derived
+         * from the samples until it changes.
+         * @return Version number.
+         */
+        public long getVersion() {
+            return listener.getVersion();
+        }
+                                
+        /**
+         * Set how often queued samples are written.  Must be called before 
+         * {@link #start()}.
+         * @param ms Maximum time a sample waits before being written, in 
+         * milliseconds.
+         */
+        public void setFlushInterval(long ms) {
+            this.flushInterval = ms;
+        }
+        
+        /**
+         * Set how many queued samples cause an early write.  Must be called 
+         * before {@link #start()}.
+         * @param samples Batch size.
+         */
+        public void setBatchSize(int samples) {
+            this.batchSize = samples;
+        }
+        
+        /**
+         * Set the maximum number of samples waiting to be written.  When the 
+         * queue is full, new samples are dropped rather than delaying the 
+         * radio.  With {@link Format#XML} only the latest sample from each node
+         * is queued, so this is the maximum number of nodes.  Must be called 
+         * before {@link #start()}.
+         * @param samples Queue capacity.
+         */
+        public void setQueueCapacity(int samples) {
+            this.queueCapacity = samples;
+        }
+        
+        /**
+         * Set when written data is forced to the storage device.  Applies to 
+         * every format, and to the sample table.  Must be called before 
+         * {@link #start()}.
+         * @param sync Sync policy.
+         * @param intervalMs Minimum time between syncs for {@link Sync#PERIODIC},
+         * in milliseconds.
+         */
+        public void setSync(Sync sync, long intervalMs) {
+            this.sync = sync;
+            this.syncInterval = intervalMs;
+        }
+        
+        /**
+         * Set how often statistics are logged.  Must be called before 
+         * {@link #start()}.
+         * @param ms Report interval, in milliseconds, or 0 to disable.
+         */
+        public void setReportInterval(long ms) {
+            this.reportInterval = ms;
+        }
+        
+        /**
+         * Get the current queue, write and flush latency figures.
+         * @return Statistics.
+         */
+        public XBeeLogStatistics getStatistics() {
+            XBeeSampleQueue q = queue;
+            synchronized (this) {
+                double ms = TimeUnit.MILLISECONDS.toNanos(1);
+                return new XBeeLogStatistics(
+                        (q == null) ? 0 : q.size(),
+                        received.get(),
+                        written,
+                        (q == null) ? 0 : q.getCoalesced(),
+                        (q == null) ? 0 : q.getDropped(),
+                        flushes,
+                        lastFlushNanos / ms,
+                        maxFlushNanos / ms,
+                        (flushes == 0) ? 0 : totalFlushNanos / ms / flushes);
+            }
         }
                                 
         /**
          * Start logging I/O samples.  All other XBee packet types are ignored.
-         * @throws XBeeException if XBee cannot be opened.
+         * If there is more than one port, those that cannot be opened are
+         * retried in the background.
+         * @throws XBeeException if no XBee can be opened.
          * @throws FileNotFoundException if log file cannot be written.
          */
         public void start() throws XBeeException, FileNotFoundException {
-            xml = new XBeeSampleStream(logFile);
-            listener.register(this);
-            listener.start(port, baud);            
+            open();
+            for (Map.Entry<String, Integer> entry : ports.entrySet()) {
+                listener.addPort(entry.getKey(), entry.getValue());
+            }
+            listen();
+        }
+        
+        /**
+         * Start logging I/O samples received on connections other than
+         * serial ports, such as streams of synthetic API frames.
+         * @param connections Sources of API frames, each with its own receive
+         * thread.
+         * @throws XBeeException if the connections cannot be used.
+         * @throws FileNotFoundException if log file cannot be written.
+         */
+        void start(XBeeConnection... connections) throws XBeeException, FileNotFoundException {
+            open();
+            for (XBeeConnection connection : connections) {
+                listener.addConnection(connection);
+            }
+            listen();
+        }
+        
+        /**
+         * Start the listener, or clean up if it fails.
+         */
+        private void listen() throws XBeeException {
+            try {
+                listener.start();
+            } catch (XBeeException ex) {
+                stop();
+                throw ex;
+            }
+        }
+        
+        /**
+         * Open the log and start the writer thread.
+         */
+        private void open() throws FileNotFoundException {
+            if (format == Format.JOURNAL) {
+                journal = new XBeeSampleJournal(logFile);
+                if (segmentSize != null) {
+                    journal.setSegmentSize(segmentSize);
+                }
+                journal.open();
+            } else if (format == Format.ARCHIVE) {
+                archive = new XBeeSampleArchive(logFile);
+                archive.open();
+            } else if (format == Format.SEGMENTS) {
+                store = new XBeeSegmentStore(logFile);
+                store.setRetention(retention);
+                store.open();
+            } else {
+                xml = new XBeeSampleStream(logFile);
+            }
+            if (tableFile != null) {
+                table = XBeeSampleTable.create(tableFile, tableCapacity);
+            }
+            if (operators != null && operatorFile != null && operatorFile.exists()) {
+                operators.load(operatorFile);
+            }
+            if (rollup != null && rollupFile != null && rollupFile.exists()) {
+                rollup.load(rollupFile);
+            }
+            /* the journal, archive and store keep every sample; XML only needs
+             * the latest from each node */
+            queue = new XBeeSampleQueue(queueCapacity, format == Format.XML);
+            running = true;
+            writerThread = new Thread("XBeeLogWriter") {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            };
+            writerThread.start();
+            consumer = listener.getEventBus().subscribe("XBeeLogWriter",
+                    XBeeEvent.SampleReceived.class,
+                    new XBeeEventHandler<XBeeEvent.SampleReceived>() {
+                        @Override
+                        public void handle(XBeeEvent.SampleReceived event) {
+                            update(event.getSample());
+                        }
+                    }, queueCapacity);
         }
         
         /**
@@ -56,22 +587,205 @@ public class XBeeLogWriter implements Observer {
          */
         public void stop() {
             listener.stop();
-            listener.unregister(this);            
+            if (consumer != null) {
+                /* waits for received samples to reach the queue */
+                listener.getEventBus().unsubscribe(consumer);
+                consumer = null;
+            }
+            feed.complete();
+            running = false;
+            if (writerThread != null) {
+                LockSupport.unpark(writerThread);
+                try {
+                    writerThread.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                writerThread = null;
+            }
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException ex) {
+                    log.log(Level.ERROR, null, ex);
+                }
+            }
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (IOException ex) {
+                    log.log(Level.ERROR, null, ex);
+                }
+            }
+            if (archive != null) {
+                try {
+                    archive.close();
+                } catch (IOException ex) {
+                    log.log(Level.ERROR, null, ex);
+                }
+            }
+            if (table != null) {
+                table.close();
+                table = null;
+            }
+            saveState();
         }
                                 
         /**
-         * Internal.  Write data to file when new I/O samples are received from
-         * the network.
-         * @param o 
-         * @param arg 
+         * Queue a new I/O sample for writing, and update everything derived
+         * from it.  Called by the writer's event bus consumer.  Never blocks.
+         * @param sample The sample that was received.
          */
-        @Override
-        public void update(Observable o, Object arg) {            
+        private void update(XBeeSample sample) {            
+            received.incrementAndGet();
+            if (operators != null) {
+                operators.update(sample);
+            }
+            if (rollup != null) {
+                rollup.update(sample);
+            }
+            XBeeSampleHistory h = history;
+            if (h != null) {
+                h.add(sample);
+            }
+            feed.publish(sample);
+            if (queue.offer(sample) && queue.size() >= batchSize) {
+                LockSupport.unpark(writerThread);
+            }
+        }
+        
+        /**
+         * Write queued samples until stopped.
+         */
+        private void writeLoop() {
+            ArrayList<XBeeSample> batch = new ArrayList<>(batchSize);
+            long lastSync = System.nanoTime();
+            long lastSave = System.nanoTime();
+            long lastReport = System.nanoTime();
+            long interval = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+            /* the XML file holds every node whatever is queued, so it is 
+             * written once with everything queued, not once per batch */
+            int limit = (xml != null) ? Integer.MAX_VALUE : batchSize;
+            while (true) {
+                boolean stopping = !running;
+                while (queue.drainTo(batch, limit) > 0) {
+                    flush(batch);
+                    batch.clear();
+                    if (sync == Sync.BATCH) {
+                        sync();
+                    }
+                }
+                long now = System.nanoTime();
+                if (sync == Sync.PERIODIC 
+                        && now - lastSync >= TimeUnit.MILLISECONDS.toNanos(syncInterval)) {
+                    sync();
+                    lastSync = now;
+                }
+                if (now - lastSave >= TimeUnit.MILLISECONDS.toNanos(syncInterval)) {
+                    saveState();
+                    lastSave = now;
+                }
+                if (reportInterval > 0
+                        && now - lastReport >= TimeUnit.MILLISECONDS.toNanos(reportInterval)) {
+                    log.log(Level.INFO, getStatistics());
+                    for (XBeeEventStatistics consumers : listener.getEventBus().getStatistics()) {
+                        log.log(Level.INFO, consumers);
+                    }
+                    for (XBeePortStatistics port : listener.getPortStatistics()) {
+                        log.log(Level.INFO, port);
+                    }
+                    log.log(Level.INFO, listener.getResolverStatistics());
+                    lastReport = now;
+                }
+                if (stopping) {
+                    sync();
+                    return;
+                }
+                LockSupport.parkNanos(this, interval);
+            }
+        }
+        
+        /**
+         * Write a batch of samples.
+         */
+        private void flush(ArrayList<XBeeSample> batch) {
+            long start = System.nanoTime();
             try {
-
-                xml.write(listener.getSamples());                
+                if (journal != null) {
+                    for (XBeeSample sample : batch) {
+                        journal.append(sample);
+                    }
+                    journal.flush();
+                } else if (store != null) {
+                    for (XBeeSample sample : batch) {
+                        store.append(sample);
+                    }
+                    store.flush();
+                } else if (archive != null) {
+                    for (XBeeSample sample : batch) {
+                        archive.append(sample);
+                    }
+                    archive.flush();
+                } else {
+                    xml.write(listener.getSamples());                
+                }
+                if (table != null) {
+                    for (XBeeSample sample : batch) {
+                        table.update(sample);
+                    }
+                }
+            } catch (IOException ex) {
+                log.log(Level.ERROR, null, ex);
+            }
+            long elapsed = System.nanoTime() - start;
+            synchronized (this) {
+                written += batch.size();
+                flushes++;
+                lastFlushNanos = elapsed;
+                maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+                totalFlushNanos += elapsed;
+            }
+        }
+        
+        /**
+         * Save the operators' state and the rollup buckets, if there is 
+         * somewhere to save them.
+         */
+        private void saveState() {
+            try {
+                if (operators != null && operatorFile != null) {
+                    operators.save(operatorFile);
+                }
+                if (rollup != null && rollupFile != null) {
+                    rollup.save(rollupFile);
+                }
+            } catch (IOException ex) {
+                log.log(Level.ERROR, null, ex);
+            }
+        }
+        
+        /**
+         * Force written data to the storage device.
+         */
+        private void sync() {
+            try {
+                if (journal != null) {
+                    journal.sync();
+                }
+                if (store != null) {
+                    store.sync();
+                }
+                if (archive != null) {
+                    archive.sync();
+                }
+                if (xml != null) {
+                    xml.sync();
+                }
+                if (table != null) {
+                    table.sync();
+                }
             } catch (IOException ex) {
-                Logger.getLogger(XBeeLogWriter.class.getName()).log(Level.ERROR, null, ex);
+                log.log(Level.ERROR, null, ex);
             }
         }
 }
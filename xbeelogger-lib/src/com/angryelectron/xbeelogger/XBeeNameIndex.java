@@ -0,0 +1,103 @@
+/**
+ * XBeeNameIndex.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps Node Identifiers to XBee addresses, so nodes can be found by name
+ * without searching every sample.
+ * <p>
+ * Node Identifiers are not guaranteed to be unique.  When more than one node
+ * uses the same name, the name refers to the node that was most recently
+ * identified with it.  If that node is renamed or removed, the name refers to
+ * the previous node that used it, if any.
+ * <p>
+ * This class is not thread-safe.
+ */
+class XBeeNameIndex {
+
+    private final HashMap<String, ArrayList<XBeeAddress>> addresses = new HashMap<>();
+    private final HashMap<XBeeAddress, String> names = new HashMap<>();
+
+    /**
+     * Build an index from a set of samples.  Samples are indexed in timestamp
+     * order, so a name shared by several nodes refers to the one with the
+     * newest sample.
+     * @param samples Samples, indexed by address.
+     * @return Index.
+     */
+    static XBeeNameIndex build(Map<XBeeAddress, XBeeSample> samples) {
+        ArrayList<XBeeSample> sorted = new ArrayList<>(samples.values());
+        Collections.sort(sorted, new Comparator<XBeeSample>() {
+            @Override
+            public int compare(XBeeSample a, XBeeSample b) {
+                return Long.compare(a.getTimestampNanos(), b.getTimestampNanos());
+            }
+        });
+        XBeeNameIndex index = new XBeeNameIndex();
+        for (XBeeSample sample : sorted) {
+            index.identify(sample.getAddress(), sample.getNodeIdentifier());
+        }
+        return index;
+    }
+
+    /**
+     * Record the name of a node.  Any previous name is forgotten.
+     * @param address Node address.
+     * @param name Node Identifier.
+     */
+    void identify(XBeeAddress address, String name) {
+        String previous = names.put(address, name);
+        if (previous != null) {
+            unlink(previous, address);
+        }
+        ArrayList<XBeeAddress> list = addresses.get(name);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            addresses.put(name, list);
+        }
+        list.add(address);
+    }
+
+    /**
+     * Forget a node.
+     * @param address Node address.
+     */
+    void remove(XBeeAddress address) {
+        String previous = names.remove(address);
+        if (previous != null) {
+            unlink(previous, address);
+        }
+    }
+
+    /**
+     * Find a node by name.
+     * @param name Node Identifier.
+     * @return Address of the node most recently identified with this name, or
+     * null if no node has this name.
+     */
+    XBeeAddress get(String name) {
+        ArrayList<XBeeAddress> list = addresses.get(name);
+        if (list == null) {
+            return null;
+        }
+        return list.get(list.size() - 1);
+    }
+
+    private void unlink(String name, XBeeAddress address) {
+        ArrayList<XBeeAddress> list = addresses.get(name);
+        if (list != null) {
+            list.remove(address);
+            if (list.isEmpty()) {
+                addresses.remove(name);
+            }
+        }
+    }
+}
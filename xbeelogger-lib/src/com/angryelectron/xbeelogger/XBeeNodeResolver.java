@@ -0,0 +1,424 @@
+/**
+ * XBeeNodeResolver.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Decides when to ask a node for its Node Identifier.
+ * <p>
+ * Each node has at most one request in flight, matched to its reply by frame
+ * ID.  A request that is not answered in time is retried with an exponential,
+ * jittered backoff, and a node without a name is retried until it answers.
+ * Every request takes a token from a bucket, so a gateway that starts next to
+ * hundreds of nodes asks for their names a few at a time instead of flooding
+ * the mesh.  Names are kept in a cache file, so after a restart known nodes
+ * are named at once and only checked again in the background, spread over the
+ * revalidation interval.
+ * <p>
+ * The resolver only keeps track; the listener sends the requests returned by
+ * {@link #poll()} and reports replies.  All methods may be called from any
+ * thread.
+ */
+final class XBeeNodeResolver {
+
+    /**
+     * Something that can send an NI request to a node, such as the local
+     * XBee that received its samples.
+     */
+    interface Sender {
+
+        /**
+         * Send a remote NI command.
+         * @param address Node address.
+         * @param frameId Frame ID for the reply, 1-255.
+         */
+        void sendNIRequest(XBeeAddress address, int frameId);
+    }
+
+    /**
+     * A request to be sent.
+     */
+    static final class Request {
+
+        private final XBeeAddress address;
+        private final int frameId;
+        private final Sender sender;
+
+        private Request(XBeeAddress address, int frameId, Sender sender) {
+            this.address = address;
+            this.frameId = frameId;
+            this.sender = sender;
+        }
+
+        void send() {
+            sender.sendNIRequest(address, frameId);
+        }
+    }
+
+    private static final Logger log = Logger.getLogger(XBeeNodeResolver.class.getName());
+    private static final int MAGIC = 0x58424e49; /* XBNI */
+    private static final int FRAME_IDS = 255;
+
+    /**
+     * Everything known about one node.
+     */
+    private static final class Node {
+
+        private final XBeeAddress address;
+        private Sender sender;
+        private String name;
+        private int failures = 0;
+        private int frameId = 0;
+        private long sent;
+        private long due = Long.MAX_VALUE;
+
+        Node(XBeeAddress address) {
+            this.address = address;
+        }
+    }
+
+    /**
+     * A place in the queue.  Nodes are re-queued instead of moved, so an entry
+     * whose time no longer matches its node's is skipped.
+     */
+    private static final class Due implements Comparable<Due> {
+
+        private final Node node;
+        private final long time;
+
+        Due(Node node, long time) {
+            this.node = node;
+            this.time = time;
+        }
+
+        @Override
+        public int compareTo(Due other) {
+            return Long.compare(time, other.time);
+        }
+    }
+
+    /* guarded by this */
+    private final HashMap<XBeeAddress, Node> nodes = new HashMap<>();
+    private final PriorityQueue<Due> queue = new PriorityQueue<>();
+    private final Node[] inFlight = new Node[FRAME_IDS + 1];
+    private int nextFrameId = 1;
+    private double tokens;
+    private long refilled = System.currentTimeMillis();
+    private boolean dirty = false;
+    private long requests = 0;
+    private long replies = 0;
+    private long unanswered = 0;
+
+    private final Random random = new Random();
+    private double rate = 2;
+    private int burst = 10;
+    private long timeout = TimeUnit.SECONDS.toMillis(10);
+    private long maxBackoff = TimeUnit.MINUTES.toMillis(10);
+    private int maxRevalidateAttempts = 3;
+    private long revalidateAfter = TimeUnit.HOURS.toMillis(24);
+
+    XBeeNodeResolver() {
+        tokens = burst;
+    }
+
+    /**
+     * Limit the rate of requests.
+     * @param perSecond Requests per second, on average.
+     * @param burst Requests that may be sent at once after a quiet period.
+     */
+    synchronized void setRate(double perSecond, int burst) {
+        this.rate = perSecond;
+        this.burst = burst;
+        this.tokens = Math.min(tokens, burst);
+    }
+
+    /**
+     * Set how long to wait for a reply before trying again.
+     * @param ms Time, in milliseconds.
+     */
+    synchronized void setTimeout(long ms) {
+        this.timeout = ms;
+    }
+
+    /**
+     * Set how often a node's name is checked again after it is known.
+     * @param ms Interval, in milliseconds.  0 to never check again.
+     */
+    synchronized void setRevalidateAfter(long ms) {
+        this.revalidateAfter = ms;
+    }
+
+    /**
+     * A sample has been received from a node for the first time.
+     * @param address Node address.
+     * @param sender Where to send requests to this node.
+     * @return The node's name, if it is in the cache, or null.
+     */
+    synchronized String seen(XBeeAddress address, Sender sender) {
+        Node node = nodes.get(address);
+        if (node == null) {
+            node = new Node(address);
+            nodes.put(address, node);
+        }
+        node.sender = sender;
+        long now = System.currentTimeMillis();
+        if (node.name == null) {
+            schedule(node, now);
+        } else if (revalidateAfter > 0) {
+            /* spread the cached nodes out, so they are not all checked at once */
+            schedule(node, now + (long) (random.nextDouble() * revalidateAfter));
+        }
+        return node.name;
+    }
+
+    /**
+     * A node has replied with its name.  Accepted whether or not it answers
+     * the request in flight.
+     * @param address Node address.
+     * @param name Node Identifier.
+     */
+    synchronized void replied(XBeeAddress address, String name) {
+        Node node = nodes.get(address);
+        if (node == null) {
+            node = new Node(address);
+            nodes.put(address, node);
+        }
+        replies++;
+        /* a late reply to an earlier attempt answers the current one too */
+        release(node);
+        node.failures = 0;
+        if (!name.equals(node.name)) {
+            node.name = name;
+            dirty = true;
+        }
+        if (node.sender != null && revalidateAfter > 0) {
+            schedule(node, System.currentTimeMillis() + jitter(revalidateAfter));
+        } else {
+            node.due = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * A node could not be asked, or would not answer.  Handled as if the
+     * request had timed out.
+     * @param frameId Frame ID of the reply.
+     * @param address Node address.
+     */
+    synchronized void failed(int frameId, XBeeAddress address) {
+        Node node = nodes.get(address);
+        if (node != null && frameId > 0 && frameId <= FRAME_IDS && inFlight[frameId] == node) {
+            retry(node, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Expire requests that have not been answered, and take the requests that
+     * are due and allowed by the rate limit.
+     * @return Requests to send now.
+     */
+    synchronized List<Request> poll() {
+        long now = System.currentTimeMillis();
+        for (int id = 1; id <= FRAME_IDS; id++) {
+            Node node = inFlight[id];
+            if (node != null && now - node.sent >= timeout) {
+                retry(node, now);
+            }
+        }
+        tokens = Math.min(burst, tokens + (now - refilled) * rate / 1000);
+        refilled = now;
+        ArrayList<Request> due = new ArrayList<>();
+        while (tokens >= 1 && !queue.isEmpty() && queue.peek().time <= now) {
+            Due next = queue.poll();
+            Node node = next.node;
+            if (node.due != next.time || node.frameId != 0) {
+                continue;
+            }
+            int frameId = nextFrameId();
+            if (frameId == 0) {
+                /* every frame ID is waiting for a reply */
+                queue.add(next);
+                break;
+            }
+            node.frameId = frameId;
+            node.sent = now;
+            node.due = Long.MAX_VALUE;
+            inFlight[frameId] = node;
+            tokens--;
+            requests++;
+            due.add(new Request(node.address, frameId, node.sender));
+        }
+        return due;
+    }
+
+    /**
+     * Get a snapshot of the resolver's progress.
+     * @return Statistics.
+     */
+    synchronized XBeeResolverStatistics getStatistics() {
+        int named = 0;
+        int unnamed = 0;
+        for (Node node : nodes.values()) {
+            if (node.name != null) {
+                named++;
+            } else if (node.sender != null) {
+                unnamed++;
+            }
+        }
+        int waiting = 0;
+        for (int id = 1; id <= FRAME_IDS; id++) {
+            if (inFlight[id] != null) {
+                waiting++;
+            }
+        }
+        return new XBeeResolverStatistics(named, unnamed, waiting, requests, replies, unanswered);
+    }
+
+    /**
+     * Save every known name, if any have changed since the last save.  The
+     * file is replaced in one step, so a reader never sees a partly written
+     * file.
+     * @param file Cache file.
+     * @throws IOException If the file cannot be written.
+     */
+    void save(File file) throws IOException {
+        HashMap<XBeeAddress, String> names = new HashMap<>();
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            for (Node node : nodes.values()) {
+                if (node.name != null) {
+                    names.put(node.address, node.name);
+                }
+            }
+            dirty = false;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(names.size());
+            for (Map.Entry<XBeeAddress, String> entry : names.entrySet()) {
+                out.writeLong(entry.getKey().toLong());
+                out.writeUTF(entry.getValue());
+            }
+        } catch (IOException ex) {
+            markDirty();
+            throw ex;
+        }
+        if (!temp.renameTo(file)) {
+            /* some platforms will not rename over an existing file */
+            if (!file.delete() || !temp.renameTo(file)) {
+                markDirty();
+                throw new IOException("Cannot replace " + file + ".");
+            }
+        }
+    }
+
+    /**
+     * Load names saved by {@link #save(java.io.File)}.  Must be called before
+     * any node is seen.
+     * @param file Cache file.
+     * @throws FileNotFoundException If the file cannot be read.
+     */
+    synchronized void load(File file) throws FileNotFoundException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new FileNotFoundException(file + " is not a node name cache.");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Node node = new Node(new XBeeAddress(in.readLong()));
+                node.name = in.readUTF();
+                nodes.put(node.address, node);
+            }
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            log.log(Level.ERROR, null, ex);
+            throw new FileNotFoundException(ex.getMessage());
+        }
+    }
+
+    private synchronized void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * Give up on a request and decide when to try again.  A node without a
+     * name is tried until it answers; a node being checked again keeps its
+     * name after a few attempts, and is next checked after the usual interval.
+     */
+    private void retry(Node node, long now) {
+        release(node);
+        unanswered++;
+        node.failures++;
+        if (node.name != null && node.failures >= maxRevalidateAttempts) {
+            node.failures = 0;
+            if (revalidateAfter > 0) {
+                schedule(node, now + jitter(revalidateAfter));
+            } else {
+                node.due = Long.MAX_VALUE;
+            }
+            return;
+        }
+        long backoff = timeout << Math.min(node.failures - 1, 20);
+        schedule(node, now + jitter(Math.min(backoff, maxBackoff)));
+    }
+
+    private void release(Node node) {
+        if (node.frameId != 0) {
+            inFlight[node.frameId] = null;
+            node.frameId = 0;
+        }
+    }
+
+    private void schedule(Node node, long time) {
+        node.due = time;
+        queue.add(new Due(node, time));
+    }
+
+    /**
+     * Get a time between half and all of an interval, so nodes that failed or
+     * were named together do not stay together.
+     */
+    private long jitter(long interval) {
+        return interval / 2 + (long) (random.nextDouble() * (interval / 2));
+    }
+
+    /**
+     * Get an unused frame ID.
+     * @return Frame ID, or 0 if all are in use.
+     */
+    private int nextFrameId() {
+        for (int i = 0; i < FRAME_IDS; i++) {
+            int id = nextFrameId;
+            nextFrameId = (nextFrameId % FRAME_IDS) + 1;
+            if (inFlight[id] == null) {
+                return id;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * XBeeOperatorGraph.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * A set of {@link XBeeSampleOperator}s, applied in order to every sample, with
+ * the state of each operator for each node.
+ * <p>
+ * The state can be saved to a file and restored, so running totals survive a
+ * restart.  Updates and queries may be made from different threads.
+ */
+public class XBeeOperatorGraph {
+
+    private static final int MAGIC = 0x58504d31; /* "XPM1" */
+
+    private final ArrayList<XBeeSampleOperator> operators = new ArrayList<>();
+    private int[] offsets = new int[0];
+    private int stateSize = 0;
+
+    /**
+     * Each node's state for all operators, one after the other.  Each array
+     * is locked while it is updated or read.
+     */
+    private final ConcurrentHashMap<XBeeAddress, double[]> state = new ConcurrentHashMap<>();
+
+    /**
+     * Add an operator.  Operators must be added before any samples.
+     * @param operator The operator.
+     * @return This graph.
+     */
+    public XBeeOperatorGraph add(XBeeSampleOperator operator) {
+        if (!state.isEmpty()) {
+            throw new IllegalStateException("Operators must be added before samples.");
+        }
+        if (indexOf(operator.getName()) >= 0) {
+            throw new IllegalArgumentException("Duplicate operator " + operator.getName() + ".");
+        }
+        operators.add(operator);
+        offsets = Arrays.copyOf(offsets, operators.size());
+        offsets[operators.size() - 1] = stateSize;
+        stateSize += operator.getStateSize();
+        return this;
+    }
+
+    /**
+     * Update every operator with a new sample.
+     * @param sample The new sample.
+     */
+    public void update(XBeeSample sample) {
+        double[] node = state.get(sample.getAddress());
+        if (node == null) {
+            double[] empty = new double[stateSize];
+            node = state.putIfAbsent(sample.getAddress(), empty);
+            if (node == null) {
+                node = empty;
+            }
+        }
+        synchronized (node) {
+            for (int i = 0; i < operators.size(); i++) {
+                operators.get(i).update(node, offsets[i], sample);
+            }
+        }
+    }
+
+    /**
+     * Get the current value of one operator for a node.
+     * @param address Node address.
+     * @param name Operator name.
+     * @return Value.
+     * @throws NoSuchFieldException If there is no such operator or no samples
+     * have been received from this node.
+     */
+    public double getValue(XBeeAddress address, String name) throws NoSuchFieldException {
+        int index = indexOf(name);
+        if (index < 0) {
+            throw new NoSuchFieldException("No operator named " + name + ".");
+        }
+        double[] node = state.get(address);
+        if (node == null) {
+            throw new NoSuchFieldException("No samples were found for that address.");
+        }
+        synchronized (node) {
+            return operators.get(index).getValue(node, offsets[index]);
+        }
+    }
+
+    /**
+     * Get the current value of every operator for a node.
+     * @param address Node address.
+     * @return Values, indexed by operator name, in the order operators were
+     * added.
+     * @throws NoSuchFieldException If no samples have been received from this
+     * node.
+     */
+    public Map<String, Double> getValues(XBeeAddress address) throws NoSuchFieldException {
+        double[] node = state.get(address);
+        if (node == null) {
+            throw new NoSuchFieldException("No samples were found for that address.");
+        }
+        LinkedHashMap<String, Double> values = new LinkedHashMap<>();
+        synchronized (node) {
+            for (int i = 0; i < operators.size(); i++) {
+                XBeeSampleOperator operator = operators.get(i);
+                values.put(operator.getName(), operator.getValue(node, offsets[i]));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Save the state of every operator.  The file is replaced in one step, so
+     * a reader never sees a partly written file.
+     * @param file State file.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(operators.size());
+            for (XBeeSampleOperator operator : operators) {
+                out.writeUTF(operator.getName());
+                out.writeInt(operator.getStateSize());
+            }
+            ArrayList<Map.Entry<XBeeAddress, double[]>> nodes = new ArrayList<>(state.entrySet());
+            out.writeInt(nodes.size());
+            for (Map.Entry<XBeeAddress, double[]> entry : nodes) {
+                out.writeLong(entry.getKey().toLong());
+                double[] node = entry.getValue();
+                synchronized (node) {
+                    for (double d : node) {
+                        out.writeDouble(d);
+                    }
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            /* some platforms will not rename over an existing file */
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file + ".");
+            }
+        }
+    }
+
+    /**
+     * Restore state saved by {@link #save(java.io.File)}.  State belonging to
+     * operators that are not in this graph is ignored, and operators that were
+     * not in the saved graph start from zero.
+     * @param file State file.
+     * @throws FileNotFoundException If the file cannot be read.
+     */
+    public void load(File file) throws FileNotFoundException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new FileNotFoundException(file + " is not an operator state file.");
+            }
+            int count = in.readInt();
+            int[] map = new int[count];
+            int[] sizes = new int[count];
+            for (int i = 0; i < count; i++) {
+                int index = indexOf(in.readUTF());
+                sizes[i] = in.readInt();
+                if (index >= 0 && operators.get(index).getStateSize() != sizes[i]) {
+                    index = -1;
+                }
+                map[i] = index;
+            }
+            int nodes = in.readInt();
+            for (int n = 0; n < nodes; n++) {
+                XBeeAddress address = new XBeeAddress(in.readLong());
+                double[] node = new double[stateSize];
+                for (int i = 0; i < count; i++) {
+                    for (int j = 0; j < sizes[i]; j++) {
+                        double d = in.readDouble();
+                        if (map[i] >= 0) {
+                            node[offsets[map[i]] + j] = d;
+                        }
+                    }
+                }
+                state.put(address, node);
+            }
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            Logger.getLogger(XBeeOperatorGraph.class.getName()).log(Level.ERROR, null, ex);
+            throw new FileNotFoundException(ex.getMessage());
+        }
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < operators.size(); i++) {
+            if (operators.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * XBeePortStatistics.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * A snapshot of the activity on one port of an {@link XBeeLogWriter}.
+ */
+public class XBeePortStatistics {
+
+    private final String port;
+    private final boolean connected;
+    private final long frames;
+    private final long samples;
+    private final long reconnects;
+    private final long silenceMs;
+
+    XBeePortStatistics(String port, boolean connected, long frames, long samples,
+            long reconnects, long silenceMs) {
+        this.port = port;
+        this.connected = connected;
+        this.frames = frames;
+        this.samples = samples;
+        this.reconnects = reconnects;
+        this.silenceMs = silenceMs;
+    }
+
+    /**
+     * Get the serial port.
+     * @return Port name, eg. /dev/ttyUSB0.
+     */
+    public String getPort() {
+        return port;
+    }
+
+    /**
+     * Check if the port is open.
+     * @return False while the port is being reopened.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Get the number of API frames received.
+     * @return Frames received.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Get the number of I/O samples received.
+     * @return Samples received.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Get the number of times the port was reopened.
+     * @return Reconnects.
+     */
+    public long getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * Get the time since the last frame was received, or since the port was
+     * opened.
+     * @return Time, in milliseconds.
+     */
+    public long getSilenceMs() {
+        return silenceMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: connected=%b frames=%d samples=%d reconnects=%d silence=%dms",
+                port, connected, frames, samples, reconnects, silenceMs);
+    }
+}
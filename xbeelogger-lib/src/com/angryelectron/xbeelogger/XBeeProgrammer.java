@@ -5,72 +5,253 @@
 
 package com.angryelectron.xbeelogger;
 
+import com.rapplogic.xbee.XBeeConnection;
+import com.rapplogic.xbee.api.ApiId;
 import com.rapplogic.xbee.api.AtCommand;
+import com.rapplogic.xbee.api.AtCommandQueue;
 import com.rapplogic.xbee.api.AtCommandResponse;
-import com.rapplogic.xbee.api.AtCommandResponse.Status;
+import com.rapplogic.xbee.api.PacketListener;
 import com.rapplogic.xbee.api.XBee;
+import com.rapplogic.xbee.api.XBeeConfiguration;
 import com.rapplogic.xbee.api.XBeeException;
+import com.rapplogic.xbee.api.XBeeResponse;
+import com.rapplogic.xbee.api.XBeeTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Program a locally attached XBee.
+ * <p>
+ * Commands are sent in batches without waiting for each reply, and replies
+ * are matched to commands by frame ID.  Settings are queued (API frame 0x09)
+ * so the radio does not apply each one as it arrives.  Queries and execution
+ * commands such as WR are sent as ordinary AT commands (0x08), which apply
+ * anything queued before them.  If settings are still queued at the end of a
+ * batch, an AC is sent to apply them.
+ */
 public class XBeeProgrammer {
 
-    private final XBee xbee = new XBee();
+    private static final int FRAME_IDS = 255;
+
+    private XBee xbee;
     private Integer TIMEOUT = 5000;
-    
+    private int depth = 8;
+
+    /* guarded by this */
+    private final boolean[] waiting = new boolean[FRAME_IDS + 1];
+    private final AtCommandResponse[] replies = new AtCommandResponse[FRAME_IDS + 1];
+    private int nextFrameId = 1;
+
+    private final PacketListener listener = new PacketListener() {
+        @Override
+        public void processResponse(XBeeResponse response) {
+            if (response.getApiId() == ApiId.AT_RESPONSE) {
+                replied((AtCommandResponse) response);
+            }
+        }
+    };
+
     public void open(String port, Integer baud) throws XBeeException {
-       xbee.open(port, baud); 
+       xbee = new XBee();
+       xbee.open(port, baud);
+       xbee.addPacketListener(listener);
     }
-    
+
+    /**
+     * Open a radio on a connection other than a serial port, such as a
+     * simulated radio.  The usual startup checks are skipped.
+     * @param connection Source of API frames.  Must notify itself when new
+     * data is available, as xbee-api expects.
+     * @throws XBeeException If the connection cannot be used.
+     */
+    void open(XBeeConnection connection) throws XBeeException {
+        xbee = new XBee(new XBeeConfiguration().withStartupChecks(false));
+        xbee.initProviderConnection(connection);
+        xbee.addPacketListener(listener);
+    }
+
     public void close() {
         xbee.close();
     }
-    
+
     public void setTimeout(Integer timeout) {
         this.TIMEOUT = timeout;
     }
-    
+
+    /**
+     * Set how many commands may be sent before the first is answered.  The
+     * radio's serial buffer is small, so keep this low unless hardware flow
+     * control is used.
+     * @param commands Number of commands (default 8).
+     */
+    public void setPipelineDepth(int commands) {
+        this.depth = Math.max(1, commands);
+    }
+
     public int[] command(String command) throws XBeeException {
-        AtCommand atcmd = new AtCommand(command);
-        AtCommandResponse response = (AtCommandResponse) xbee.sendSynchronous(atcmd, TIMEOUT);
-        if (response.isError()) {
-            throw new XBeeException("Could not set " + command + ".");
-        }
-        return response.getValue();        
+        return single(new XBeeCommandBatch().add(command));
     }
-                
+
     public int[] command(String command, int value) throws XBeeException {
-        AtCommand atcmd = new AtCommand(command, value);
-        AtCommandResponse response = (AtCommandResponse) xbee.sendSynchronous(atcmd, TIMEOUT);
-        if (response.isError()) {
-            throw new XBeeException("Could not set " + command + ".");
-        }
-        return response.getValue();
+        return single(new XBeeCommandBatch().add(command, value));
     }
-    
+
     public int[] command(String command, int[] values) throws XBeeException {
-        AtCommand atcmd = new AtCommand(command, values);
-        AtCommandResponse response = (AtCommandResponse) xbee.sendSynchronous(atcmd, TIMEOUT);
-        if (response.isError()) {
-            throw new XBeeException("Could not set " + command + ".");
-            
+        return single(new XBeeCommandBatch().add(command, values));
+    }
+
+    public int[] command(String command, String value) throws XBeeException {
+        return single(new XBeeCommandBatch().add(command, value));
+    }
+
+    /**
+     * Send a batch of commands.  Stops sending at the first command that
+     * fails or is not answered in time; settings that were already queued
+     * are then left unapplied.
+     * @param batch Commands.
+     * @return One result per command sent, in order, followed by the result
+     * of the AC that applied the queued settings, if one was needed.  If the
+     * batch stopped early, the failed command's result is not OK.
+     * @throws XBeeException If the radio cannot be written to.
+     */
+    public synchronized List<XBeeCommandResult> command(XBeeCommandBatch batch) throws XBeeException {
+        /* one extra for the final AC */
+        int count = batch.size() + 1;
+        int[] frameIds = new int[count];
+        long[] times = new long[count];
+        String[] commands = new String[count];
+        ArrayList<XBeeCommandResult> results = new ArrayList<>();
+        boolean queued = false;
+        int next = 0;
+        int answered = 0;
+        int inFlight = 0;
+        boolean failed = false;
+        try {
+            while (answered < next || (!failed && next < count)) {
+                /* send */
+                while (!failed && next < count && inFlight < depth) {
+                    AtCommand atcmd;
+                    int frameId = nextFrameId();
+                    if (frameId == 0) {
+                        /* every frame ID is waiting for a reply */
+                        break;
+                    }
+                    if (next < batch.size()) {
+                        commands[next] = batch.getCommand(next);
+                        int[] value = batch.getValue(next);
+                        if (value != null) {
+                            atcmd = new AtCommandQueue(commands[next], value, frameId);
+                            queued = true;
+                        } else {
+                            atcmd = new AtCommand(commands[next]);
+                            atcmd.setFrameId(frameId);
+                            queued = false;
+                        }
+                    } else if (queued) {
+                        commands[next] = "AC";
+                        atcmd = new AtCommand("AC");
+                        atcmd.setFrameId(frameId);
+                    } else {
+                        /* nothing left to apply */
+                        count--;
+                        break;
+                    }
+                    waiting[frameId] = true;
+                    frameIds[next] = frameId;
+                    times[next] = System.currentTimeMillis();
+                    next++;
+                    inFlight++;
+                    xbee.sendAsynchronous(atcmd);
+                }
+
+                /* collect replies in order */
+                while (answered < next) {
+                    int frameId = frameIds[answered];
+                    AtCommandResponse response = replies[frameId];
+                    if (response == null) {
+                        if (System.currentTimeMillis() - times[answered] < TIMEOUT) {
+                            break;
+                        }
+                        results.add(new XBeeCommandResult(commands[answered], null, new int[0]));
+                        failed = true;
+                    } else {
+                        results.add(new XBeeCommandResult(commands[answered],
+                                response.getStatus(), response.getValue()));
+                        failed |= !response.isOk();
+                    }
+                    replies[frameId] = null;
+                    waiting[frameId] = false;
+                    answered++;
+                    inFlight--;
+                    if (failed) {
+                        return results;
+                    }
+                }
+                if (answered < next) {
+                    long wait = TIMEOUT - (System.currentTimeMillis() - times[answered]);
+                    if (wait > 0) {
+                        /* woken by each reply */
+                        wait(wait);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new XBeeException("Interrupted.");
+        } finally {
+            /* a batch that ended early must not leave frame IDs in use; any
+             * late replies are ignored */
+            for (int i = answered; i < next; i++) {
+                replies[frameIds[i]] = null;
+                waiting[frameIds[i]] = false;
+            }
         }
-        return response.getValue();
+        return results;
     }
-    
-    public int[] command(String command, String value) throws XBeeException {        
-        AtCommand atcmd;
-        if (command.equals("NI")) {
-            atcmd = new AtCommand(command, stringToIntArrayASCII(value));
-        } else {
-            atcmd = new AtCommand(command, stringtoIntArray(value));
+
+    /**
+     * Send a single command, as the original synchronous overloads did.
+     */
+    private int[] single(XBeeCommandBatch batch) throws XBeeException {
+        List<XBeeCommandResult> results = command(batch);
+        for (XBeeCommandResult result : results) {
+            if (result.getStatus() == null) {
+                throw new XBeeTimeoutException();
+            }
+            if (!result.isOk()) {
+                throw new XBeeException("Could not set " + result.getCommand()
+                        + " (" + result.getStatus() + ").");
+            }
+        }
+        return results.get(0).getValue();
+    }
+
+    private synchronized void replied(AtCommandResponse response) {
+        int frameId = response.getFrameId();
+        if (frameId < 1 || frameId > FRAME_IDS || !waiting[frameId]) {
+            /* not ours, or too late */
+            return;
         }
-        AtCommandResponse response = (AtCommandResponse) xbee.sendSynchronous(atcmd, TIMEOUT);
-        if (response.isError() || response.getStatus() != Status.OK) {
-            throw new XBeeException("Could not set " + command + "(" + response.getStatus() + ".");          
+        replies[frameId] = response;
+        notifyAll();
+    }
+
+    /**
+     * Get an unused frame ID.
+     * @return Frame ID, or 0 if all are in use.
+     */
+    private int nextFrameId() {
+        for (int i = 0; i < FRAME_IDS; i++) {
+            int id = nextFrameId;
+            nextFrameId = (nextFrameId % FRAME_IDS) + 1;
+            if (!waiting[id]) {
+                return id;
+            }
         }
-        return response.getValue();    
+        return 0;
     }
             
-    private int[] stringToIntArrayASCII(String s) {
+    static int[] stringToIntArrayASCII(String s) {
         int[] array = new int[s.length()];
         for (int i=0; i< s.length(); i++) {
             array[i] = (int)s.charAt(i);
@@ -78,7 +259,7 @@ public class XBeeProgrammer {
         return array;
     }             
     
-    private int[] stringtoIntArray(String value) {        
+    static int[] stringtoIntArray(String value) {        
         if (value.length() % 2 == 1) {
             value = "0" + value;
         }
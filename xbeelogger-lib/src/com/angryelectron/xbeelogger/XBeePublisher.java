@@ -0,0 +1,22 @@
+/**
+ * XBeePublisher.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * A source of items, such as samples, that are pushed to subscribers as they
+ * arrive.  Follows the same contract as java.util.concurrent.Flow.Publisher,
+ * so a subscriber only receives as many items as it has requested.
+ * @param <T> The type of item published.
+ */
+public interface XBeePublisher<T> {
+
+    /**
+     * Add a subscriber.  {@link XBeeSubscriber#onSubscribe(XBeeSubscription)}
+     * is called before this returns, and no items are delivered until the
+     * subscriber requests them.
+     * @param subscriber The subscriber.
+     */
+    void subscribe(XBeeSubscriber<? super T> subscriber);
+}
@@ -0,0 +1,84 @@
+/**
+ * XBeeResolverStatistics.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * A snapshot of the Node Identifier lookups made by an {@link XBeeLogWriter}.
+ */
+public class XBeeResolverStatistics {
+
+    private final int named;
+    private final int unnamed;
+    private final int inFlight;
+    private final long requests;
+    private final long replies;
+    private final long unanswered;
+
+    XBeeResolverStatistics(int named, int unnamed, int inFlight, long requests,
+            long replies, long unanswered) {
+        this.named = named;
+        this.unnamed = unnamed;
+        this.inFlight = inFlight;
+        this.requests = requests;
+        this.replies = replies;
+        this.unanswered = unanswered;
+    }
+
+    /**
+     * Get the number of nodes with a known name, including names loaded from
+     * the cache for nodes not heard from yet.
+     * @return Named nodes.
+     */
+    public int getNamed() {
+        return named;
+    }
+
+    /**
+     * Get the number of nodes heard from whose name is not known yet.
+     * @return Unnamed nodes.
+     */
+    public int getUnnamed() {
+        return unnamed;
+    }
+
+    /**
+     * Get the number of NI requests waiting for a reply.
+     * @return Requests in flight.
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Get the number of NI requests sent.
+     * @return Requests sent.
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * Get the number of replies to NI requests.
+     * @return Replies received.
+     */
+    public long getReplies() {
+        return replies;
+    }
+
+    /**
+     * Get the number of NI requests that timed out or failed, and will be
+     * retried.
+     * @return Requests not answered.
+     */
+    public long getUnanswered() {
+        return unanswered;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("names: named=%d unnamed=%d inFlight=%d requests=%d replies=%d unanswered=%d",
+                named, unnamed, inFlight, requests, replies, unanswered);
+    }
+}
@@ -0,0 +1,524 @@
+/**
+ * XBeeRollup.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Minimum, maximum, mean, count and last value of each analog input, for each
+ * node, in fixed time buckets at one or more resolutions (eg. 1 minute, 1
+ * hour, 1 day).  Buckets are updated as samples are received, so long-range
+ * views read a few pre-aggregated buckets instead of every sample.
+ * <p>
+ * Buckets follow the sample timestamps, not the clock.  A bucket stays open
+ * until a sample newer than its end plus a grace period is received, so
+ * samples that arrive a little out of order are still counted.  Samples for
+ * closed buckets are dropped.  Each resolution keeps a fixed number of
+ * buckets per node, so memory use is bounded.
+ * <p>
+ * The buckets can be saved to a file and restored.  The first save writes
+ * every bucket; later saves only append the buckets changed since the last
+ * save to a log beside the file, until the log is larger than the file and
+ * every bucket is written again.  Updates and queries may be made from 
+ * different threads.
+ */
+public class XBeeRollup {
+
+    private static final int MAGIC = 0x58505231; /* "XPR1" */
+    private static final int MAGIC_GENERATION = 0x58505232; /* "XPR2" */
+    private static final int LOG_MAGIC = 0x5850524c; /* "XPRL" */
+    private static final String LOG_SUFFIX = ".log";
+
+    /**
+     * Analog inputs AD0-AD3.
+     */
+    private static final int PINS = 4;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final long grace;
+    private final ArrayList<Long> widths = new ArrayList<>();
+    private final ArrayList<Integer> sizes = new ArrayList<>();
+    private final ConcurrentHashMap<XBeeAddress, Node> nodes = new ConcurrentHashMap<>();
+    private final AtomicLong late = new AtomicLong();
+
+    /* the last full save, which the log belongs to */
+    private File saved;
+    private long generation;
+    private long savedLength;
+    private long logLength;
+
+    /**
+     * One node's buckets at every resolution.
+     */
+    private static final class Node {
+
+        private long latest = EMPTY;
+        private boolean dirty;
+        private final Buckets[] levels;
+
+        Node(List<Integer> sizes) {
+            levels = new Buckets[sizes.size()];
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new Buckets(sizes.get(i));
+            }
+        }
+    }
+
+    /**
+     * A ring of buckets at one resolution.  Bucket number n is kept in slot
+     * n % length, and the per-input values for slot s start at s * PINS.
+     */
+    private static final class Buckets {
+
+        private final long[] key;
+        private final long[] lastTime;
+        private final int[] count;
+        private final short[] min;
+        private final short[] max;
+        private final long[] sum;
+        private final short[] last;
+        private final boolean[] dirty;
+
+        Buckets(int size) {
+            key = new long[size];
+            lastTime = new long[size];
+            count = new int[size * PINS];
+            min = new short[size * PINS];
+            max = new short[size * PINS];
+            sum = new long[size * PINS];
+            last = new short[size * PINS];
+            dirty = new boolean[size];
+            Arrays.fill(key, EMPTY);
+        }
+
+        int slot(long bucket) {
+            return (int) (bucket % key.length);
+        }
+
+        void reset(int slot, long bucket) {
+            key[slot] = bucket;
+            lastTime[slot] = EMPTY;
+            for (int p = slot * PINS; p < (slot + 1) * PINS; p++) {
+                count[p] = 0;
+                sum[p] = 0;
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param graceMs How long a bucket stays open after its end, in
+     * milliseconds of sample time.
+     */
+    public XBeeRollup(long graceMs) {
+        this.grace = graceMs;
+    }
+
+    /**
+     * Add a resolution.  Resolutions must be added before any samples.
+     * @param widthMs Bucket width, in milliseconds.
+     * @param buckets Number of buckets kept for each node.
+     * @return This rollup.
+     */
+    public XBeeRollup add(long widthMs, int buckets) {
+        if (!nodes.isEmpty()) {
+            throw new IllegalStateException("Resolutions must be added before samples.");
+        }
+        if (widthMs < 1 || buckets < 1) {
+            throw new IllegalArgumentException("Width and number of buckets must be at least 1.");
+        }
+        if (widths.contains(widthMs)) {
+            throw new IllegalArgumentException("Duplicate resolution " + widthMs + ".");
+        }
+        widths.add(widthMs);
+        sizes.add(buckets);
+        return this;
+    }
+
+    /**
+     * Add a sample to the buckets covering its timestamp.
+     * @param sample The new sample.
+     */
+    public void update(XBeeSample sample) {
+        Node node = node(sample.getAddress());
+        long t = sample.getTimestampMillis();
+        boolean dropped = false;
+        synchronized (node) {
+            if (t > node.latest) {
+                node.latest = t;
+            }
+            for (int i = 0; i < widths.size(); i++) {
+                long width = widths.get(i);
+                Buckets level = node.levels[i];
+                long bucket = t / width;
+                if (isClosed(node, bucket, width)
+                        || bucket <= node.latest / width - level.key.length) {
+                    dropped = true;
+                    continue;
+                }
+                int slot = level.slot(bucket);
+                if (level.key[slot] != bucket) {
+                    level.reset(slot, bucket);
+                }
+                level.dirty[slot] = true;
+                node.dirty = true;
+                boolean newest = t >= level.lastTime[slot];
+                if (newest) {
+                    level.lastTime[slot] = t;
+                }
+                for (int pin = 0; pin < PINS; pin++) {
+                    if (!sample.isAnalogEnabled(pin)) {
+                        continue;
+                    }
+                    int value = sample.getAnalog(pin);
+                    int p = slot * PINS + pin;
+                    if (level.count[p] == 0 || value < level.min[p]) {
+                        level.min[p] = (short) value;
+                    }
+                    if (level.count[p] == 0 || value > level.max[p]) {
+                        level.max[p] = (short) value;
+                    }
+                    if (level.count[p] == 0 || newest) {
+                        level.last[p] = (short) value;
+                    }
+                    level.sum[p] += value;
+                    level.count[p]++;
+                }
+            }
+        }
+        if (dropped) {
+            late.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get a node's buckets for one analog input over a period of time.
+     * Buckets in which the input was never enabled are skipped.
+     * @param address Node address.
+     * @param widthMs Resolution, as given to {@link #add(long, int)}.
+     * @param pin Analog input, 0-3 for AD0-AD3.
+     * @param fromMs Start of the period, in ms since the epoch.  The bucket
+     * containing this time is included.
+     * @param toMs End of the period, in ms since the epoch, inclusive.
+     * @return Buckets, oldest first.  Empty if there are none in the period.
+     * @throws NoSuchFieldException If there is no such resolution or no
+     * samples have been received from this node.
+     * @throws IllegalArgumentException If the pin is not 0-3.
+     */
+    public List<XBeeRollupBucket> getBuckets(XBeeAddress address, long widthMs, int pin,
+            long fromMs, long toMs) throws NoSuchFieldException {
+        XBeeSample.checkPin(pin);
+        int index = widths.indexOf(widthMs);
+        if (index < 0) {
+            throw new NoSuchFieldException("No resolution of " + widthMs + " ms.");
+        }
+        Node node = nodes.get(address);
+        if (node == null) {
+            throw new NoSuchFieldException("No samples were found for that address.");
+        }
+        ArrayList<XBeeRollupBucket> buckets = new ArrayList<>();
+        synchronized (node) {
+            Buckets level = node.levels[index];
+            long newest = node.latest / widthMs;
+            long first = Math.max(fromMs / widthMs, newest - level.key.length + 1);
+            long end = Math.min(toMs / widthMs, newest);
+            for (long bucket = first; bucket <= end; bucket++) {
+                int slot = level.slot(bucket);
+                int p = slot * PINS + pin;
+                if (level.key[slot] != bucket || level.count[p] == 0) {
+                    continue;
+                }
+                buckets.add(new XBeeRollupBucket(bucket * widthMs, widthMs, level.count[p],
+                        level.min[p], level.max[p], (double) level.sum[p] / level.count[p],
+                        level.last[p], isClosed(node, bucket, widthMs)));
+            }
+        }
+        return buckets;
+    }
+
+    /**
+     * Get the number of samples that arrived too late for at least one of
+     * their buckets.
+     * @return Number of late samples since this rollup was created.
+     */
+    public long getLate() {
+        return late.get();
+    }
+
+    /**
+     * Save the buckets.  The first save to a file, and any save once the log
+     * has grown larger than the file, replaces the file with every bucket in
+     * one step, so a reader never sees a partly written file.  Other saves
+     * append the buckets changed since the last save to the log.
+     * @param file Rollup file.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void save(File file) throws IOException {
+        File log = new File(file.getPath() + LOG_SUFFIX);
+        if (!file.equals(saved) || logLength > savedLength) {
+            saveAll(file, log);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Map.Entry<XBeeAddress, Node> entry : nodes.entrySet()) {
+            Node node = entry.getValue();
+            synchronized (node) {
+                if (!node.dirty) {
+                    continue;
+                }
+                node.dirty = false;
+                for (int i = 0; i < node.levels.length; i++) {
+                    Buckets level = node.levels[i];
+                    for (int slot = 0; slot < level.key.length; slot++) {
+                        if (level.dirty[slot]) {
+                            level.dirty[slot] = false;
+                            out.writeLong(entry.getKey().toLong());
+                            out.writeLong(node.latest);
+                            out.writeLong(widths.get(i));
+                            writeBucket(out, level, slot);
+                        }
+                    }
+                }
+            }
+        }
+        if (bytes.size() == 0) {
+            return;
+        }
+        try (FileOutputStream append = new FileOutputStream(log, true)) {
+            bytes.writeTo(append);
+        } catch (IOException ex) {
+            /* the changes are no longer marked, so save everything next time */
+            saved = null;
+            throw ex;
+        }
+        logLength += bytes.size();
+    }
+
+    /**
+     * Replace the file with every bucket, and start a new log.  The log is
+     * stamped with the file's generation, so a log left from an older file
+     * is never applied to a newer one.
+     */
+    private void saveAll(File file, File log) throws IOException {
+        saved = null;
+        generation = Math.max(generation + 1, System.currentTimeMillis());
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC_GENERATION);
+            out.writeLong(generation);
+            out.writeInt(widths.size());
+            for (long width : widths) {
+                out.writeLong(width);
+            }
+            ArrayList<Map.Entry<XBeeAddress, Node>> entries = new ArrayList<>(nodes.entrySet());
+            out.writeInt(entries.size());
+            for (Map.Entry<XBeeAddress, Node> entry : entries) {
+                out.writeLong(entry.getKey().toLong());
+                Node node = entry.getValue();
+                synchronized (node) {
+                    node.dirty = false;
+                    out.writeLong(node.latest);
+                    for (Buckets level : node.levels) {
+                        writeBuckets(out, level);
+                        Arrays.fill(level.dirty, false);
+                    }
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            /* some platforms will not rename over an existing file */
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file + ".");
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(log))) {
+            out.writeInt(LOG_MAGIC);
+            out.writeLong(generation);
+        }
+        saved = file;
+        savedLength = file.length();
+        logLength = log.length();
+    }
+
+    /**
+     * Restore buckets saved by {@link #save(java.io.File)}, including any
+     * changes in its log.  Resolutions that are not in this rollup are 
+     * ignored, and resolutions that were not in the saved rollup start empty.
+     * @param file Rollup file.
+     * @throws FileNotFoundException If the file cannot be read.
+     */
+    public void load(File file) throws FileNotFoundException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_GENERATION) {
+                throw new FileNotFoundException(file + " is not a rollup file.");
+            }
+            /* files from before the log have no generation, and no log */
+            long fileGeneration = (magic == MAGIC_GENERATION) ? in.readLong() : EMPTY;
+            long[] savedWidths = new long[in.readInt()];
+            for (int i = 0; i < savedWidths.length; i++) {
+                savedWidths[i] = in.readLong();
+            }
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                Node node = new Node(sizes);
+                XBeeAddress address = new XBeeAddress(in.readLong());
+                node.latest = in.readLong();
+                for (long width : savedWidths) {
+                    int index = widths.indexOf(width);
+                    readBuckets(in, (index < 0) ? null : node.levels[index],
+                            node.latest / width);
+                }
+                nodes.put(address, node);
+            }
+            if (fileGeneration != EMPTY) {
+                replay(new File(file.getPath() + LOG_SUFFIX), fileGeneration);
+            }
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            Logger.getLogger(XBeeRollup.class.getName()).log(Level.ERROR, null, ex);
+            throw new FileNotFoundException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Apply the changes in a log, if it belongs to the loaded file.  A
+     * change cut short when the writer was killed ends the log.
+     */
+    private void replay(File log, long fileGeneration) throws IOException {
+        if (!log.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(log)))) {
+            if (in.readInt() != LOG_MAGIC || in.readLong() != fileGeneration) {
+                return;
+            }
+            while (true) {
+                XBeeAddress address = new XBeeAddress(in.readLong());
+                long latest = in.readLong();
+                long width = in.readLong();
+                Node node = node(address);
+                synchronized (node) {
+                    node.latest = Math.max(node.latest, latest);
+                    int index = widths.indexOf(width);
+                    readBucket(in, (index < 0) ? null : node.levels[index], latest / width);
+                }
+            }
+        } catch (EOFException ex) {
+            /* the end of the log */
+        }
+    }
+
+    private Node node(XBeeAddress address) {
+        Node node = nodes.get(address);
+        if (node == null) {
+            Node empty = new Node(sizes);
+            node = nodes.putIfAbsent(address, empty);
+            if (node == null) {
+                node = empty;
+            }
+        }
+        return node;
+    }
+
+    private boolean isClosed(Node node, long bucket, long width) {
+        return (bucket + 1) * width + grace <= node.latest;
+    }
+
+    private static void writeBuckets(DataOutputStream out, Buckets level) throws IOException {
+        int used = 0;
+        for (long key : level.key) {
+            if (key != EMPTY) {
+                used++;
+            }
+        }
+        out.writeInt(used);
+        for (int slot = 0; slot < level.key.length; slot++) {
+            if (level.key[slot] != EMPTY) {
+                writeBucket(out, level, slot);
+            }
+        }
+    }
+
+    private static void writeBucket(DataOutputStream out, Buckets level, int slot)
+            throws IOException {
+        out.writeLong(level.key[slot]);
+        out.writeLong(level.lastTime[slot]);
+        for (int p = slot * PINS; p < (slot + 1) * PINS; p++) {
+            out.writeInt(level.count[p]);
+            out.writeShort(level.min[p]);
+            out.writeShort(level.max[p]);
+            out.writeLong(level.sum[p]);
+            out.writeShort(level.last[p]);
+        }
+    }
+
+    /**
+     * Read one resolution's buckets, keeping those that fit in the given
+     * ring, which may be a different size than when they were saved.
+     * @param level Destination, or null to skip the buckets.
+     */
+    private static void readBuckets(DataInputStream in, Buckets level, long newest)
+            throws IOException {
+        int used = in.readInt();
+        for (int i = 0; i < used; i++) {
+            readBucket(in, level, newest);
+        }
+    }
+
+    /**
+     * Read one bucket, keeping it if it fits in the given ring.
+     * @param level Destination, or null to skip the bucket.
+     */
+    private static void readBucket(DataInputStream in, Buckets level, long newest)
+            throws IOException {
+        long bucket = in.readLong();
+        long lastTime = in.readLong();
+        boolean keep = level != null && bucket > newest - level.key.length;
+        int slot = keep ? level.slot(bucket) : 0;
+        if (keep) {
+            level.key[slot] = bucket;
+            level.lastTime[slot] = lastTime;
+        }
+        for (int p = slot * PINS; p < slot * PINS + PINS; p++) {
+            int count = in.readInt();
+            short min = in.readShort();
+            short max = in.readShort();
+            long sum = in.readLong();
+            short last = in.readShort();
+            if (keep) {
+                level.count[p] = count;
+                level.min[p] = min;
+                level.max[p] = max;
+                level.sum[p] = sum;
+                level.last[p] = last;
+            }
+        }
+    }
+}
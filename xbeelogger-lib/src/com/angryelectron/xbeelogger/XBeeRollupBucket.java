@@ -0,0 +1,101 @@
+/**
+ * XBeeRollupBucket.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.Date;
+
+/**
+ * The minimum, maximum, mean and last value of one analog input over one
+ * fixed period of time, as kept by {@link XBeeRollup}.  Values are raw ADC
+ * readings.
+ */
+public class XBeeRollupBucket {
+
+    private final long start;
+    private final long width;
+    private final int count;
+    private final int min;
+    private final int max;
+    private final double mean;
+    private final int last;
+    private final boolean closed;
+
+    XBeeRollupBucket(long start, long width, int count, int min, int max,
+            double mean, int last, boolean closed) {
+        this.start = start;
+        this.width = width;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.last = last;
+        this.closed = closed;
+    }
+
+    /**
+     * Get the start of the period.
+     * @return Start time, inclusive.
+     */
+    public Date getStart() {
+        return new Date(start);
+    }
+
+    /**
+     * Get the length of the period.
+     * @return Bucket width, in milliseconds.
+     */
+    public long getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the number of samples.
+     * @return Samples in which the input was enabled.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the lowest reading.
+     * @return ADC value.
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * Get the highest reading.
+     * @return ADC value.
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Get the average reading.
+     * @return ADC value.
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * Get the reading from the newest sample in the period.
+     * @return ADC value.
+     */
+    public int getLast() {
+        return last;
+    }
+
+    /**
+     * Check if the bucket can still change.  A bucket is closed once samples
+     * newer than its end plus the grace period have been received.
+     * @return True if no more samples will be added.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+}
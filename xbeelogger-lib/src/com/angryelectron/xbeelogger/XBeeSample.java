@@ -4,39 +4,181 @@
  */
 package com.angryelectron.xbeelogger;
 
+import com.rapplogic.xbee.api.ApiId;
+import com.rapplogic.xbee.api.XBeeAddress64;
 import com.rapplogic.xbee.api.zigbee.ZNetRxIoSampleResponse;
+import com.rapplogic.xbee.util.IIntArrayInputStream;
+import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
- * An object representing XBee IO sample data.  This is an enhanced version of
- * com.rapplogic.xbee.api.zigbee.ZNetRxIoSampleResponse, containing an easier
- * to use address format, timestamp, and node identifier in addition to all the
- * I/O sample data.
+ * An object representing XBee IO sample data.  Holds the same I/O sample data 
+ * as com.rapplogic.xbee.api.zigbee.ZNetRxIoSampleResponse in a compact, 
+ * immutable form, along with an easier to use address format, timestamp, and 
+ * node identifier.
  */
 public class XBeeSample {
     
-    private final ZNetRxIoSampleResponse ioSample;
-    private final Date timestamp;
-    private String nodeIdentifier = "Unknown"; 
+    /**
+     * Number of analog values in a sample: AD0-AD3 and the supply voltage.
+     */
+    static final int ANALOG_CHANNELS = 5;
+    
+    /**
+     * Index of the supply voltage in {@link #getAnalogValue(int)}.
+     */
+    static final int SUPPLY_VOLTAGE = 4;
+    
+    /**
+     * Bits used by each ADC value in {@link #analog}.  The XBee ADC is 10 
+     * bits; the spare bits keep out-of-range values from spilling into the 
+     * next channel.
+     */
+    private static final int ANALOG_BITS = 12;
+    private static final int ANALOG_MASK = (1 << ANALOG_BITS) - 1;
+    
     private final XBeeAddress address;
+    /* ns since the epoch, the unit every constructor takes */
+    private final long timestamp;
+    private final String nodeIdentifier;
+    private final short digitalMask;
+    private final byte analogMask;
+    private final short dio;
+    
+    /**
+     * ADC values, packed {@link #ANALOG_BITS} bits apiece and indexed as in 
+     * {@link #getAnalogValue(int)}.
+     */
+    private final long analog;
 
     /**
      * Constructor.
      * @param xbeeIOSample Initial IOSample data.
      */
     protected XBeeSample(ZNetRxIoSampleResponse xbeeIOSample) {
-        this.ioSample = xbeeIOSample;
-        timestamp = new Date();
-        address = new XBeeAddress(xbeeIOSample.getRemoteAddress64());
+        this(xbeeIOSample, TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()), "Unknown");
+    }
+    
+    /**
+     * Constructor.  Copy the data out of an xbee-api IO sample.
+     * @param xbeeIOSample IOSample data.
+     * @param timestamp Time the sample was recorded, in ns since the epoch.
+     * @param nodeIdentifier Node Identifier.
+     */
+    XBeeSample(ZNetRxIoSampleResponse xbeeIOSample, long timestamp, String nodeIdentifier) {
+        this.address = new XBeeAddress(xbeeIOSample.getRemoteAddress64());
+        this.timestamp = timestamp;
+        this.nodeIdentifier = nodeIdentifier;
+        this.digitalMask = (short) ((xbeeIOSample.getDigitalChannelMaskMsb() << 8) 
+                | xbeeIOSample.getDigitalChannelMaskLsb());
+        this.analogMask = (byte) xbeeIOSample.getAnalogChannelMask();
+        this.dio = xbeeIOSample.containsDigital() ? 
+                (short) ((xbeeIOSample.getDioMsb() << 8) | xbeeIOSample.getDioLsb()) : 0;
+        long packed = 0;
+        for (int i = 0; i < ANALOG_CHANNELS; i++) {
+            Integer value = (i == SUPPLY_VOLTAGE) ? 
+                    xbeeIOSample.getSupplyVoltage() : xbeeIOSample.getAnalog(i);
+            if (value != null) {
+                packed |= (long) (value & ANALOG_MASK) << (i * ANALOG_BITS);
+            }
+        }
+        this.analog = packed;
+    }
+    
+    /**
+     * Constructor.  Copy a sample, giving it a new Node Identifier.
+     * @param sample The sample to copy.
+     * @param nodeIdentifier Node Identifier.
+     */
+    XBeeSample(XBeeSample sample, String nodeIdentifier) {
+        this.address = sample.address;
+        this.timestamp = sample.timestamp;
+        this.nodeIdentifier = nodeIdentifier;
+        this.digitalMask = sample.digitalMask;
+        this.analogMask = sample.analogMask;
+        this.dio = sample.dio;
+        this.analog = sample.analog;
+    }
+    
+    /**
+     * Constructor.  Rebuild a sample that was stored in binary form.
+     * @param address 64-bit address.
+     * @param timestamp Time the sample was recorded, in ns since the epoch.
+     * Stores that keep ms must convert, eg. with TimeUnit.MILLISECONDS.toNanos.
+     * @param digitalMask Digital channel mask.
+     * @param analogMask Analog channel mask.
+     * @param dio Digital values.
+     * @param analog ADC values, indexed as in {@link #getAnalogValue(int)}.
+     * @param nodeIdentifier Node Identifier.
+     */
+    XBeeSample(long address, long timestamp, int digitalMask, int analogMask,
+            int dio, int[] analog, String nodeIdentifier) {
+        this(new XBeeAddress(address), timestamp, digitalMask, analogMask, dio, analog,
+                nodeIdentifier);
+    }
+    
+    /**
+     * Constructor.
+     * @param address Node address.
+     * @param timestamp Time the sample was recorded, in ns since the epoch.
+     * @param digitalMask Digital channel mask.
+     * @param analogMask Analog channel mask.
+     * @param dio Digital values.
+     * @param analog ADC values, indexed as in {@link #getAnalogValue(int)}.
+     * @param nodeIdentifier Node Identifier.
+     */
+    XBeeSample(XBeeAddress address, long timestamp, int digitalMask, int analogMask,
+            int dio, int[] analog, String nodeIdentifier) {
+        this.address = address;
+        this.timestamp = timestamp;
+        this.nodeIdentifier = nodeIdentifier;
+        this.digitalMask = (short) digitalMask;
+        this.analogMask = (byte) analogMask;
+        this.dio = (short) dio;
+        long packed = 0;
+        for (int i = 0; i < ANALOG_CHANNELS; i++) {
+            packed |= (long) (analog[i] & ANALOG_MASK) << (i * ANALOG_BITS);
+        }
+        this.analog = packed;
+    }
+
+    /**
+     * Constructor.
+     * @param address Node address.
+     * @param timestamp Time the sample was recorded, in ns since the epoch.
+     * @param digitalMask Digital channel mask.
+     * @param analogMask Analog channel mask.
+     * @param dio Digital values.
+     * @param analog ADC values, packed as returned by {@link #getPackedAnalog()}.
+     * @param nodeIdentifier Node Identifier.
+     */
+    XBeeSample(XBeeAddress address, long timestamp, int digitalMask, int analogMask,
+            int dio, long analog, String nodeIdentifier) {
+        this.address = address;
+        this.timestamp = timestamp;
+        this.nodeIdentifier = nodeIdentifier;
+        this.digitalMask = (short) digitalMask;
+        this.analogMask = (byte) analogMask;
+        this.dio = (short) dio;
+        this.analog = analog;
     }
 
     /**
      * Get IO Sample Data.  
      * @return  Analog and digital sample data, which can be further examined
      * using com.rapplogic.xbee.api.
+     * @deprecated A new object is built on each call.  Use 
+     * {@link #isAnalogEnabled(int)} and {@link #getAnalog(int)} instead.
      */
+    @Deprecated
     public ZNetRxIoSampleResponse getIoSample() {
-        return ioSample;
+        int[] values = new int[ANALOG_CHANNELS];
+        for (int i = 0; i < ANALOG_CHANNELS; i++) {
+            values[i] = getAnalogValue(i);
+        }
+        return toIoSample(address.toLong(), getDigitalChannelMask(),
+                getAnalogChannelMask(), getDigitalValues(), values);
     }
     
     /**
@@ -44,9 +186,25 @@ public class XBeeSample {
      * @return Timestamp.
      */
     public Date getTimestamp() {
+        return new Date(getTimestampMillis());
+    }
+    
+    /**
+     * Get the time at which this sample was recorded.
+     * @return Timestamp, in nanoseconds since the epoch.
+     */
+    public long getTimestampNanos() {
         return timestamp;
     }
     
+    /**
+     * Get the time at which this sample was recorded.
+     * @return Timestamp, in milliseconds since the epoch.
+     */
+    long getTimestampMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timestamp);
+    }
+    
     /**
      * Get the Node Identifier of the XBee that produced this sample.  
      * Node Identifiers are human-readable strings that may be easier to work with
@@ -56,9 +214,135 @@ public class XBeeSample {
     public String getNodeIdentifier() {
         return nodeIdentifier;
     }
+    
+    /**
+     * Check if an analog input was sampled.
+     * @param pin Analog input, 0-3 for AD0-AD3.
+     * @return True if the pin is configured as an analog input.
+     * @throws IllegalArgumentException If the pin is not 0-3.
+     */
+    public boolean isAnalogEnabled(int pin) {
+        checkPin(pin);
+        return (analogMask & (1 << pin)) != 0;
+    }
+    
+    /**
+     * Get an analog input value.
+     * @param pin Analog input, 0-3 for AD0-AD3.
+     * @return The 10-bit ADC value, or 0 if the pin is not configured as an
+     * analog input.
+     * @throws IllegalArgumentException If the pin is not 0-3.
+     */
+    public int getAnalog(int pin) {
+        checkPin(pin);
+        return getAnalogValue(pin);
+    }
+    
+    /**
+     * Get the digital channel mask.
+     * @return Mask, with the MSB in the upper byte.
+     */
+    int getDigitalChannelMask() {
+        return digitalMask & 0xffff;
+    }
+    
+    /**
+     * Get the analog channel mask.
+     * @return Mask.  Bits 0-3 are AD0-AD3, bit 7 is the supply voltage.
+     */
+    int getAnalogChannelMask() {
+        return analogMask & 0xff;
+    }
+    
+    /**
+     * Get the digital values.
+     * @return Digital values, with the MSB in the upper byte, or 0 if this 
+     * sample contains no digital data.
+     */
+    int getDigitalValues() {
+        return dio & 0xffff;
+    }
+    
+    /**
+     * Get a raw ADC value.
+     * @param index 0-3 for AD0-AD3, or {@link #SUPPLY_VOLTAGE}.
+     * @return The 10-bit ADC value, or 0 if the channel is not enabled.
+     */
+    int getAnalogValue(int index) {
+        return unpackAnalog(analog, index);
+    }
+    
+    /**
+     * Get all ADC values in one long.
+     * @return ADC values, packed 12 bits apiece, AD0 in the lowest bits.
+     */
+    long getPackedAnalog() {
+        return analog;
+    }
+    
+    /**
+     * Get a raw ADC value from packed values.
+     * @param analog ADC values, as returned by {@link #getPackedAnalog()}.
+     * @param index 0-3 for AD0-AD3, or {@link #SUPPLY_VOLTAGE}.
+     * @return The ADC value.
+     */
+    static int unpackAnalog(long analog, int index) {
+        return (int) (analog >>> (index * ANALOG_BITS)) & ANALOG_MASK;
+    }
+    
+    static void checkPin(int pin) {
+        if (pin < 0 || pin > 3) {
+            throw new IllegalArgumentException("Unsupported pin: " + pin);
+        }
+    }
+    
+    /**
+     * Build an xbee-api IO sample from its binary form.
+     */
+    private static ZNetRxIoSampleResponse toIoSample(long address, int digitalMask, 
+            int analogMask, int dio, int[] analog) {
+        int[] addr = new int[8];
+        for (int i = 0; i < addr.length; i++) {
+            addr[i] = (int) (address >>> (56 - 8 * i)) & 0xff;
+        }
+        final int[] data = new int[6 + 2 * ANALOG_CHANNELS];
+        int n = 0;
+        data[n++] = 1; /* number of samples */
+        data[n++] = (digitalMask >> 8) & 0xff;
+        data[n++] = digitalMask & 0xff;
+        data[n++] = analogMask & 0xff;
+        if ((digitalMask & 0x1cff) != 0) {
+            data[n++] = (dio >> 8) & 0xff;
+            data[n++] = dio & 0xff;
+        }
+        for (int i = 0; i < ANALOG_CHANNELS; i++) {
+            int bit = (i == SUPPLY_VOLTAGE) ? 7 : i;
+            if ((analogMask & (1 << bit)) != 0) {
+                data[n++] = (analog[i] >> 8) & 0xff;
+                data[n++] = analog[i] & 0xff;
+            }
+        }
+        ZNetRxIoSampleResponse response = new ZNetRxIoSampleResponse();
+        response.setApiId(ApiId.ZNET_IO_SAMPLE_RESPONSE);
+        response.setRemoteAddress64(new XBeeAddress64(addr));
+        try {
+            response.parse(new IIntArrayInputStream() {
+                private int position = 0;
 
-    protected void setNodeIdentifier(String nodeIdentifier) {
-        this.nodeIdentifier = nodeIdentifier;
+                @Override
+                public int read() {
+                    return data[position++];
+                }
+
+                @Override
+                public int read(String s) {
+                    return read();
+                }
+            });
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Invalid sample data.", ex);
+        }
+        return response;
     }
     
     /**
@@ -0,0 +1,773 @@
+/**
+ * XBeeSampleArchive.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Compressed long-term storage of XBee I/O samples.  Each node's samples are
+ * kept in their own file as a series of blocks, and each block stores a
+ * column per field so that slowly changing values compress well:
+ * <ul>
+ * <li>timestamps (ms) as delta-of-deltas, using 1 bit when samples are evenly
+ * spaced;</li>
+ * <li>each ADC channel as deltas from the previous sample, bit-packed at the
+ * smallest width that holds every delta in the block;</li>
+ * <li>channel masks and digital values as a 1 bit "unchanged" flag.</li>
+ * </ul>
+ * A block looks like this:
+ * <pre>
+ *   int    magic
+ *   long   64-bit address
+ *   int    number of samples
+ *   long   first, lowest and highest timestamp (ms since epoch)
+ *   short  lowest and highest value of each ADC channel
+ *   short  digital channel mask, byte analog channel mask, short digital
+ *          values, and short value of each ADC channel, of the first sample
+ *   byte   bit width of each ADC channel's deltas
+ *   byte   node identifier length, followed by the node identifier (UTF-8)
+ *   int    body length, followed by the body
+ *   int    CRC32 of the header and body
+ * </pre>
+ * Readers use the header to skip blocks outside the requested period without
+ * decoding them.
+ * <p>
+ * Samples are held in memory until a node has a full block, which is then
+ * sealed and appended to the node's file.  {@link #close()} seals partly
+ * filled blocks.  An archive opened for writing with {@link #open()} also
+ * appends each sample to a tail file, using {@link XBeeSampleJournal}'s
+ * records, so that blocks that were not sealed when the process was killed 
+ * are rebuilt the next time the archive is opened.  The tail is rewritten
+ * with only the unsealed samples once it is about twice their number.
+ */
+public class XBeeSampleArchive {
+
+    static final int MAGIC = 0x58504131; /* "XPA1" */
+    static final String SUFFIX = ".archive";
+    static final String TAIL = "tail.journal";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int DEFAULT_BLOCK_SIZE = 3600;
+    private static final int ANALOG_CHANNELS = XBeeSample.ANALOG_CHANNELS;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Returned by {@link #readBlock} for a corrupt block.
+     */
+    private static final long CORRUPT = Long.MIN_VALUE;
+
+    /**
+     * Most bits any sample after the first can take in a block's body: the
+     * longest delta-of-delta, both flags with new masks and digital values,
+     * and a 32-bit delta for each ADC channel.
+     */
+    private static final int MAX_SAMPLE_BITS = (4 + 64) + (1 + 16 + 8) + (1 + 16)
+            + ANALOG_CHANNELS * 32;
+
+    private final File directory;
+    private final HashMap<XBeeAddress, Block> open = new HashMap<>();
+    private final HashSet<XBeeAddress> unsynced = new HashSet<>();
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private long samplesWritten;
+    private long bytesWritten;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private FileChannel tail;
+    private long tailRecords;
+    private long unsealed;
+
+    /**
+     * One node's samples that have not been written yet.
+     */
+    private static final class Block {
+
+        private final long[] time;
+        private final short[] digitalMask;
+        private final byte[] analogMask;
+        private final short[] dio;
+        private final long[] analog;
+        private int count = 0;
+        private String nodeIdentifier;
+
+        Block(int size) {
+            time = new long[size];
+            digitalMask = new short[size];
+            analogMask = new byte[size];
+            dio = new short[size];
+            analog = new long[size];
+        }
+
+        XBeeSample sample(XBeeAddress address, int i) {
+            return new XBeeSample(address, TimeUnit.MILLISECONDS.toNanos(time[i]),
+                    digitalMask[i] & 0xffff, analogMask[i] & 0xff, dio[i] & 0xffff,
+                    analog[i], nodeIdentifier);
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param directory The directory holding the archive files.  It is created
+     * when the first block is written.
+     */
+    public XBeeSampleArchive(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Set the number of samples in each block.  Larger blocks compress
+     * slightly better, but more samples are held in memory.
+     * @param samples Block size.
+     */
+    void setBlockSize(int samples) {
+        if (samples < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1.");
+        }
+        this.blockSize = samples;
+    }
+
+    /**
+     * Open the archive for writing.  Samples left in the tail by a writer 
+     * that was killed are put back in their nodes' blocks, except those 
+     * already in a sealed block.
+     * @throws FileNotFoundException If the archive cannot be written.
+     */
+    void open() throws FileNotFoundException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileNotFoundException("Cannot create archive directory " + directory + ".");
+        }
+        try {
+            replay(new File(directory, TAIL));
+            rewriteTail();
+        } catch (IOException ex) {
+            throw new FileNotFoundException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Add a sample.  The node's block is written once it is full.  If the
+     * archive is open, the sample is also buffered for the tail until 
+     * {@link #flush()}.
+     * @param sample The sample.
+     * @throws IOException If the archive cannot be written.
+     */
+    void append(XBeeSample sample) throws IOException {
+        if (tail != null) {
+            if (buffer.remaining() < XBeeSampleJournal.MAX_RECORD_SIZE) {
+                writeTail();
+            }
+            XBeeSampleJournal.encode(buffer, crc, sample);
+            tailRecords++;
+        }
+        add(sample);
+    }
+
+    /**
+     * Write buffered samples to the tail, and rewrite the tail if it holds
+     * many samples that have since been sealed.
+     * @throws IOException If the tail cannot be written.
+     */
+    void flush() throws IOException {
+        if (tail == null) {
+            return;
+        }
+        writeTail();
+        if (tailRecords > 2 * unsealed + blockSize) {
+            rewriteTail();
+        }
+    }
+
+    /**
+     * Add a sample to its node's block, sealing the block if it is full.
+     */
+    private void add(XBeeSample sample) throws IOException {
+        Block block = open.get(sample.getAddress());
+        if (block == null) {
+            block = new Block(blockSize);
+            open.put(sample.getAddress(), block);
+        }
+        int i = block.count++;
+        block.time[i] = sample.getTimestampMillis();
+        block.digitalMask[i] = (short) sample.getDigitalChannelMask();
+        block.analogMask[i] = (byte) sample.getAnalogChannelMask();
+        block.dio[i] = (short) sample.getDigitalValues();
+        block.analog[i] = sample.getPackedAnalog();
+        block.nodeIdentifier = sample.getNodeIdentifier();
+        unsealed++;
+        if (block.count == block.time.length) {
+            seal(sample.getAddress(), block);
+        }
+    }
+
+    /**
+     * Write every partly filled block, and remove the tail.
+     * @throws IOException If the archive cannot be written.
+     */
+    void close() throws IOException {
+        for (XBeeAddress address : open.keySet()) {
+            Block block = open.get(address);
+            if (block.count > 0) {
+                seal(address, block);
+            }
+        }
+        open.clear();
+        if (tail != null) {
+            /* the blocks must be on the device before the tail is removed */
+            sync();
+            tail.close();
+            tail = null;
+            new File(directory, TAIL).delete();
+        }
+    }
+
+    /**
+     * Write buffered samples to the tail, and force the tail and blocks 
+     * sealed since the last sync to the storage device.
+     * @throws IOException If the archive cannot be synced.
+     */
+    void sync() throws IOException {
+        if (tail != null) {
+            writeTail();
+            tail.force(false);
+        }
+        for (XBeeAddress address : unsynced) {
+            try (RandomAccessFile file = new RandomAccessFile(file(address), "rw")) {
+                file.getFD().sync();
+            }
+        }
+        unsynced.clear();
+    }
+
+    /**
+     * Get the number of samples written to the archive files.
+     * @return Samples in sealed blocks.
+     */
+    long getSamplesWritten() {
+        return samplesWritten;
+    }
+
+    /**
+     * Get the number of bytes written to the archive files.
+     * @return Size of sealed blocks.
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Get the addresses of all nodes in the archive.
+     * @return Addresses.
+     */
+    public List<XBeeAddress> getAddresses() {
+        ArrayList<XBeeAddress> addresses = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return addresses;
+        }
+        for (String name : names) {
+            if (name.endsWith(SUFFIX)) {
+                try {
+                    addresses.add(new XBeeAddress(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (IllegalArgumentException ex) {
+                    /* not an archive file */
+                }
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Read a node's samples from a period of time.
+     * @param address Node address.
+     * @param fromMs Start of the period, in ms since the epoch, inclusive.
+     * @param toMs End of the period, in ms since the epoch, inclusive.
+     * @return Samples, in the order they were received.
+     * @throws NoSuchFieldException If the archive has no samples from this
+     * node.
+     * @throws FileNotFoundException If the archive file cannot be read.
+     */
+    public List<XBeeSample> read(XBeeAddress address, long fromMs, long toMs)
+            throws NoSuchFieldException, FileNotFoundException {
+        File file = file(address);
+        if (!file.exists()) {
+            throw new NoSuchFieldException("No samples were found for that address.");
+        }
+        ArrayList<XBeeSample> samples = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), crc))) {
+            while (true) {
+                crc.reset();
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (magic != MAGIC) {
+                    throw new FileNotFoundException(file + " is not an archive file.");
+                }
+                if (readBlock(in, crc, address, fromMs, toMs, samples) == CORRUPT) {
+                    Logger.getLogger(XBeeSampleArchive.class.getName()).log(Level.WARN,
+                            "Corrupt block in " + file + ".");
+                    break;
+                }
+            }
+        } catch (EOFException ex) {
+            Logger.getLogger(XBeeSampleArchive.class.getName()).log(Level.WARN,
+                    "Incomplete block at end of " + file + ".");
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            Logger.getLogger(XBeeSampleArchive.class.getName()).log(Level.ERROR, null, ex);
+            throw new FileNotFoundException(ex.getMessage());
+        }
+        return samples;
+    }
+
+    private File file(XBeeAddress address) {
+        return new File(directory, address.toString() + SUFFIX);
+    }
+
+    /**
+     * Encode a block and append it to the node's file.
+     */
+    private void seal(XBeeAddress address, Block block) throws IOException {
+        int n = block.count;
+        long minTime = block.time[0];
+        long maxTime = block.time[0];
+        int[] min = new int[ANALOG_CHANNELS];
+        int[] max = new int[ANALOG_CHANNELS];
+        int[] width = new int[ANALOG_CHANNELS];
+        Arrays.fill(min, Integer.MAX_VALUE);
+        for (int i = 0; i < n; i++) {
+            minTime = Math.min(minTime, block.time[i]);
+            maxTime = Math.max(maxTime, block.time[i]);
+            for (int c = 0; c < ANALOG_CHANNELS; c++) {
+                int value = XBeeSample.unpackAnalog(block.analog[i], c);
+                min[c] = Math.min(min[c], value);
+                max[c] = Math.max(max[c], value);
+                if (i > 0) {
+                    int delta = value - XBeeSample.unpackAnalog(block.analog[i - 1], c);
+                    width[c] = Math.max(width[c], bits(zigzag(delta)));
+                }
+            }
+        }
+
+        BitWriter body = new BitWriter(n * 4);
+        long previousDelta = 0;
+        for (int i = 1; i < n; i++) {
+            long delta = block.time[i] - block.time[i - 1];
+            writeTime(body, delta - previousDelta);
+            previousDelta = delta;
+            boolean masksSame = block.digitalMask[i] == block.digitalMask[i - 1]
+                    && block.analogMask[i] == block.analogMask[i - 1];
+            body.write(masksSame ? 1 : 0, 1);
+            if (!masksSame) {
+                body.write(block.digitalMask[i] & 0xffff, 16);
+                body.write(block.analogMask[i] & 0xff, 8);
+            }
+            boolean dioSame = block.dio[i] == block.dio[i - 1];
+            body.write(dioSame ? 1 : 0, 1);
+            if (!dioSame) {
+                body.write(block.dio[i] & 0xffff, 16);
+            }
+            for (int c = 0; c < ANALOG_CHANNELS; c++) {
+                if (width[c] > 0) {
+                    int delta2 = XBeeSample.unpackAnalog(block.analog[i], c)
+                            - XBeeSample.unpackAnalog(block.analog[i - 1], c);
+                    body.write(zigzag(delta2), width[c]);
+                }
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + body.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(address.toLong());
+        out.writeInt(n);
+        out.writeLong(block.time[0]);
+        out.writeLong(minTime);
+        out.writeLong(maxTime);
+        for (int c = 0; c < ANALOG_CHANNELS; c++) {
+            out.writeShort(min[c]);
+            out.writeShort(max[c]);
+        }
+        out.writeShort(block.digitalMask[0]);
+        out.writeByte(block.analogMask[0]);
+        out.writeShort(block.dio[0]);
+        for (int c = 0; c < ANALOG_CHANNELS; c++) {
+            out.writeShort(XBeeSample.unpackAnalog(block.analog[0], c));
+        }
+        for (int c = 0; c < ANALOG_CHANNELS; c++) {
+            out.writeByte(width[c]);
+        }
+        byte[] ni = block.nodeIdentifier.getBytes(UTF8);
+        int niLength = Math.min(ni.length, 255);
+        out.writeByte(niLength);
+        out.write(ni, 0, niLength);
+        out.writeInt(body.length());
+        out.write(body.bytes(), 0, body.length());
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        out.flush();
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileNotFoundException("Cannot create archive directory " + directory + ".");
+        }
+        try (FileOutputStream file = new FileOutputStream(file(address), true)) {
+            bytes.writeTo(file);
+        }
+        unsynced.add(address);
+        samplesWritten += n;
+        bytesWritten += bytes.size();
+        unsealed -= n;
+        block.count = 0;
+    }
+
+    private void writeTail() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            tail.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Replace the tail with the samples in unsealed blocks.  The new tail is
+     * written to a temporary file and forced before it replaces the old one,
+     * so a crash leaves one tail or the other.
+     */
+    private void rewriteTail() throws IOException {
+        File file = new File(directory, TAIL);
+        File temp = new File(directory, TAIL + ".tmp");
+        if (tail != null) {
+            tail.close();
+            tail = null;
+        }
+        buffer.clear();
+        try (FileChannel out = new RandomAccessFile(temp, "rw").getChannel()) {
+            out.truncate(0);
+            for (Map.Entry<XBeeAddress, Block> entry : open.entrySet()) {
+                Block block = entry.getValue();
+                for (int i = 0; i < block.count; i++) {
+                    if (buffer.remaining() < XBeeSampleJournal.MAX_RECORD_SIZE) {
+                        write(out);
+                    }
+                    XBeeSampleJournal.encode(buffer, crc, block.sample(entry.getKey(), i));
+                }
+            }
+            write(out);
+            out.force(false);
+        }
+        if (!temp.renameTo(file)) {
+            /* some platforms will not rename over an existing file */
+            if (!file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file + ".");
+            }
+        }
+        tail = new RandomAccessFile(file, "rw").getChannel();
+        tail.position(tail.size());
+        tailRecords = unsealed;
+    }
+
+    private void write(FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Put the samples in a tail back in their blocks.  Samples no newer than
+     * a node's last sealed block were sealed after they were written to the
+     * tail, and are skipped.
+     */
+    private void replay(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        HashMap<XBeeAddress, Long> sealed = new HashMap<>();
+        long replayed = 0;
+        try (FileChannel in = new RandomAccessFile(file, "r").getChannel()) {
+            buffer.clear();
+            buffer.flip();
+            boolean eof = false;
+            while (true) {
+                XBeeSample sample = XBeeSampleJournal.decode(buffer, crc);
+                if (sample == null) {
+                    if (eof || buffer.remaining() >= XBeeSampleJournal.MAX_RECORD_SIZE) {
+                        /* the end, or a record cut short when the writer was killed */
+                        break;
+                    }
+                    buffer.compact();
+                    eof = in.read(buffer) < 0;
+                    buffer.flip();
+                    continue;
+                }
+                Long newest = sealed.get(sample.getAddress());
+                if (newest == null) {
+                    newest = lastSealed(sample.getAddress());
+                    sealed.put(sample.getAddress(), newest);
+                }
+                if (sample.getTimestampMillis() > newest) {
+                    add(sample);
+                    replayed++;
+                }
+            }
+        } finally {
+            buffer.clear();
+        }
+        if (replayed > 0) {
+            Logger.getLogger(XBeeSampleArchive.class.getName()).log(Level.INFO,
+                    "Recovered " + replayed + " unsealed samples from " + file + ".");
+        }
+    }
+
+    /**
+     * Get the newest timestamp in a node's sealed blocks.
+     * @return Timestamp, in ms since the epoch, or Long.MIN_VALUE if there are
+     * none.
+     */
+    private long lastSealed(XBeeAddress address) throws IOException {
+        long newest = Long.MIN_VALUE;
+        File file = file(address);
+        if (!file.exists()) {
+            return newest;
+        }
+        CRC32 blockCrc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), blockCrc))) {
+            while (true) {
+                blockCrc.reset();
+                if (in.readInt() != MAGIC) {
+                    break;
+                }
+                long maxTime = readBlock(in, blockCrc, address,
+                        Long.MAX_VALUE, Long.MIN_VALUE, null);
+                if (maxTime == CORRUPT) {
+                    break;
+                }
+                newest = Math.max(newest, maxTime);
+            }
+        } catch (EOFException ex) {
+            /* the end, or an incomplete block */
+        }
+        return newest;
+    }
+
+    /**
+     * Decode one block, after its magic number, adding samples in the period.
+     * @return The newest timestamp in the block, or {@link #CORRUPT}.
+     */
+    private static long readBlock(DataInputStream in, CRC32 crc, XBeeAddress address,
+            long fromMs, long toMs, List<XBeeSample> samples) throws IOException {
+        in.readLong();
+        int n = in.readInt();
+        long time = in.readLong();
+        long minTime = in.readLong();
+        long maxTime = in.readLong();
+        for (int c = 0; c < ANALOG_CHANNELS; c++) {
+            in.readShort();
+            in.readShort();
+        }
+        int digitalMask = in.readShort() & 0xffff;
+        int analogMask = in.readByte() & 0xff;
+        int dio = in.readShort() & 0xffff;
+        int[] analog = new int[ANALOG_CHANNELS];
+        for (int c = 0; c < ANALOG_CHANNELS; c++) {
+            analog[c] = in.readShort();
+        }
+        int[] width = new int[ANALOG_CHANNELS];
+        for (int c = 0; c < ANALOG_CHANNELS; c++) {
+            width[c] = in.readByte();
+        }
+        byte[] ni = new byte[in.readByte() & 0xff];
+        in.readFully(ni);
+        String nodeIdentifier = new String(ni, UTF8);
+        /* not covered by the CRC until the body is read, so check it first */
+        int length = in.readInt();
+        if (n < 0 || length < 0 || length > ((long) n * MAX_SAMPLE_BITS + 7) / 8) {
+            return CORRUPT;
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        long expected = crc.getValue();
+        if ((int) expected != in.readInt()) {
+            return CORRUPT;
+        }
+        if (maxTime < fromMs || minTime > toMs) {
+            return maxTime;
+        }
+
+        BitReader bits = new BitReader(body);
+        long delta = 0;
+        for (int i = 0; i < n; i++) {
+            if (i > 0) {
+                delta += readTime(bits);
+                time += delta;
+                if (bits.read(1) == 0) {
+                    digitalMask = (int) bits.read(16);
+                    analogMask = (int) bits.read(8);
+                }
+                if (bits.read(1) == 0) {
+                    dio = (int) bits.read(16);
+                }
+                for (int c = 0; c < ANALOG_CHANNELS; c++) {
+                    if (width[c] > 0) {
+                        analog[c] += unzigzag((int) bits.read(width[c]));
+                    }
+                }
+            }
+            if (time >= fromMs && time <= toMs) {
+                samples.add(new XBeeSample(address, TimeUnit.MILLISECONDS.toNanos(time),
+                        digitalMask, analogMask, dio, analog, nodeIdentifier));
+            }
+        }
+        return maxTime;
+    }
+
+    /**
+     * Write a delta-of-delta: '0' for none, otherwise a prefix selecting 7,
+     * 9, 12 or 64 bits.
+     */
+    private static void writeTime(BitWriter out, long dod) {
+        long z = (dod << 1) ^ (dod >> 63);
+        if (z == 0) {
+            out.write(0, 1);
+        } else if ((z >>> 7) == 0) {
+            out.write(0x2, 2);
+            out.write(z, 7);
+        } else if ((z >>> 9) == 0) {
+            out.write(0x6, 3);
+            out.write(z, 9);
+        } else if ((z >>> 12) == 0) {
+            out.write(0xe, 4);
+            out.write(z, 12);
+        } else {
+            out.write(0xf, 4);
+            out.write(z, 64);
+        }
+    }
+
+    private static long readTime(BitReader in) {
+        long z;
+        if (in.read(1) == 0) {
+            return 0;
+        } else if (in.read(1) == 0) {
+            z = in.read(7);
+        } else if (in.read(1) == 0) {
+            z = in.read(9);
+        } else if (in.read(1) == 0) {
+            z = in.read(12);
+        } else {
+            z = in.read(64);
+        }
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int z) {
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    /**
+     * Number of bits needed to hold a non-negative value.
+     */
+    private static int bits(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Packs values of any width into bytes, most significant bit first.
+     */
+    private static final class BitWriter {
+
+        private byte[] bytes;
+        private long position = 0;
+
+        BitWriter(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+
+        void write(long value, int n) {
+            while (n > 0) {
+                int index = (int) (position >>> 3);
+                if (index >= bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int free = 8 - (int) (position & 7);
+                int take = Math.min(free, n);
+                int chunk = (int) (value >>> (n - take)) & ((1 << take) - 1);
+                bytes[index] |= chunk << (free - take);
+                position += take;
+                n -= take;
+            }
+        }
+
+        int length() {
+            return (int) ((position + 7) >>> 3);
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Reads values written by {@link BitWriter}.
+     */
+    private static final class BitReader {
+
+        private final byte[] bytes;
+        private long position = 0;
+
+        BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long read(int n) {
+            long value = 0;
+            while (n > 0) {
+                int available = 8 - (int) (position & 7);
+                int take = Math.min(available, n);
+                int b = bytes[(int) (position >>> 3)] & 0xff;
+                value = (value << take) | ((b >>> (available - take)) & ((1 << take) - 1));
+                position += take;
+                n -= take;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * XBeeSampleConverter.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.api.zigbee.ZNetRxIoSampleResponse;
+import com.thoughtworks.xstream.converters.ConversionException;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write an {@link XBeeSample} to XML as a few short elements, rather than as
+ * the xbee-api object graph.  Files written before the change, which hold an
+ * ioSample element, can still be read.
+ */
+class XBeeSampleConverter implements Converter {
+
+    /* XStream 1.4 declares this with a raw Class, so Class<?> would not override it */
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean canConvert(Class type) {
+        return type == XBeeSample.class;
+    }
+
+    @Override
+    public void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+        XBeeSample sample = (XBeeSample) source;
+        writer.startNode("address");
+        context.convertAnother(sample.getAddress());
+        writer.endNode();
+        write(writer, "time", Long.toString(sample.getTimestampNanos()));
+        write(writer, "nodeIdentifier", sample.getNodeIdentifier());
+        write(writer, "digitalMask", Integer.toString(sample.getDigitalChannelMask()));
+        write(writer, "analogMask", Integer.toString(sample.getAnalogChannelMask()));
+        write(writer, "dio", Integer.toString(sample.getDigitalValues()));
+        StringBuilder analog = new StringBuilder();
+        for (int i = 0; i < XBeeSample.ANALOG_CHANNELS; i++) {
+            if (i > 0) {
+                analog.append(' ');
+            }
+            analog.append(sample.getAnalogValue(i));
+        }
+        write(writer, "analog", analog.toString());
+    }
+
+    @Override
+    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
+        XBeeAddress address = null;
+        ZNetRxIoSampleResponse ioSample = null;
+        long time = 0;
+        String nodeIdentifier = "Unknown";
+        int digitalMask = 0;
+        int analogMask = 0;
+        int dio = 0;
+        int[] analog = new int[XBeeSample.ANALOG_CHANNELS];
+        try {
+            while (reader.hasMoreChildren()) {
+                reader.moveDown();
+                switch (reader.getNodeName()) {
+                    case "address":
+                        address = (XBeeAddress) context.convertAnother(null, XBeeAddress.class);
+                        break;
+                    case "time":
+                        time = Long.parseLong(reader.getValue());
+                        break;
+                    case "timestamp":
+                        /* older files */
+                        Date date = (Date) context.convertAnother(null, Date.class);
+                        time = TimeUnit.MILLISECONDS.toNanos(date.getTime());
+                        break;
+                    case "ioSample":
+                        /* older files */
+                        ioSample = (ZNetRxIoSampleResponse) context.convertAnother(
+                                null, ZNetRxIoSampleResponse.class);
+                        break;
+                    case "nodeIdentifier":
+                        nodeIdentifier = reader.getValue();
+                        break;
+                    case "digitalMask":
+                        digitalMask = Integer.parseInt(reader.getValue());
+                        break;
+                    case "analogMask":
+                        analogMask = Integer.parseInt(reader.getValue());
+                        break;
+                    case "dio":
+                        dio = Integer.parseInt(reader.getValue());
+                        break;
+                    case "analog":
+                        String[] values = reader.getValue().trim().split("\\s+");
+                        for (int i = 0; i < values.length && i < analog.length; i++) {
+                            analog[i] = Integer.parseInt(values[i]);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                reader.moveUp();
+            }
+        } catch (NumberFormatException ex) {
+            throw new ConversionException("Invalid sample.", ex);
+        }
+        if (ioSample != null) {
+            return new XBeeSample(ioSample, time, nodeIdentifier);
+        }
+        if (address == null) {
+            throw new ConversionException("Sample has no address.");
+        }
+        return new XBeeSample(address, time, digitalMask, analogMask, dio, analog, nodeIdentifier);
+    }
+
+    private static void write(HierarchicalStreamWriter writer, String name, String value) {
+        writer.startNode(name);
+        writer.setValue(value);
+        writer.endNode();
+    }
+}
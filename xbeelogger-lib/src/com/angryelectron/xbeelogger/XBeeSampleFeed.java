@@ -0,0 +1,322 @@
+/**
+ * XBeeSampleFeed.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Pushes samples to subscribers as they are received.  Get the feed from
+ * {@link XBeeLogWriter#getFeed()}, then create a publisher with the filter and
+ * backpressure policy each subscriber needs.
+ * <p>
+ * Publishing never blocks the thread receiving samples.  Each subscription has
+ * its own bounded queue, and samples are delivered from a pool of daemon
+ * threads, so a slow subscriber only affects itself.
+ */
+public class XBeeSampleFeed {
+
+    /**
+     * What happens to new samples when a subscriber has not requested them.
+     */
+    public enum Backpressure {
+
+        /**
+         * Queue samples until the buffer is full, then fail the subscription
+         * with an IllegalStateException.  No sample is ever skipped.
+         */
+        BUFFER,
+
+        /**
+         * Queue samples, discarding the oldest when the buffer is full.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Keep only the newest waiting sample from each node.  The buffer
+         * size limits the number of nodes.
+         */
+        LATEST
+    }
+
+    private static final Logger log = Logger.getLogger(XBeeSampleFeed.class.getName());
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "XBeeSampleFeed-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Create a publisher.  Each subscriber gets its own queue.
+     * @param filter Samples delivered, or null for all samples.
+     * @param policy How samples are queued for a subscriber.
+     * @param bufferSize Maximum number of samples queued for a subscriber.
+     * @return A publisher of this feed's samples.
+     * @throws IllegalArgumentException If bufferSize is less than 1.
+     */
+    public XBeePublisher<XBeeSample> publisher(final XBeeSampleFilter filter,
+            final Backpressure policy, final int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least 1.");
+        }
+        return new XBeePublisher<XBeeSample>() {
+            @Override
+            public void subscribe(XBeeSubscriber<? super XBeeSample> subscriber) {
+                Subscription subscription = new Subscription(subscriber, filter, policy, bufferSize);
+                /* before onSubscribe, which may cancel at once */
+                subscriptions.add(subscription);
+                subscriber.onSubscribe(subscription);
+            }
+        };
+    }
+
+    /**
+     * Get the number of current subscriptions.
+     * @return Number of subscriptions.
+     */
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Get the number of samples discarded, across all subscriptions, because
+     * a subscriber had not requested them in time.
+     * @return Number of samples dropped.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Offer a sample to every subscriber.  Never blocks.
+     * @param sample The new sample.
+     */
+    void publish(XBeeSample sample) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(sample);
+        }
+    }
+
+    /**
+     * End every current subscription.  Queued samples are still delivered
+     * if they are requested.
+     */
+    void complete() {
+        for (Subscription subscription : subscriptions) {
+            subscriptions.remove(subscription);
+            subscription.complete();
+        }
+    }
+
+    /**
+     * One subscriber's queue and demand.  Samples are queued by the receiving
+     * thread and delivered by at most one pool thread at a time.
+     */
+    private final class Subscription implements XBeeSubscription, Runnable {
+
+        private final XBeeSubscriber<? super XBeeSample> subscriber;
+        private final XBeeSampleFilter filter;
+        private final Backpressure policy;
+        private final int bufferSize;
+
+        /* guarded by this */
+        private final ArrayDeque<XBeeSample> queue;
+        private final LinkedHashMap<XBeeAddress, XBeeSample> latest;
+        private long demand = 0;
+        private boolean cancelled = false;
+        private boolean completed = false;
+        private Throwable error;
+
+        /**
+         * Number of times delivery has been scheduled since the last run
+         * finished, so only one thread delivers at a time.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        Subscription(XBeeSubscriber<? super XBeeSample> subscriber, XBeeSampleFilter filter,
+                Backpressure policy, int bufferSize) {
+            this.subscriber = subscriber;
+            this.filter = filter;
+            this.policy = policy;
+            this.bufferSize = bufferSize;
+            if (policy == Backpressure.LATEST) {
+                queue = null;
+                latest = new LinkedHashMap<>();
+            } else {
+                queue = new ArrayDeque<>(Math.min(bufferSize, 1024));
+                latest = null;
+            }
+        }
+
+        void offer(XBeeSample sample) {
+            if (filter != null && !filter.accept(sample)) {
+                return;
+            }
+            synchronized (this) {
+                if (cancelled || completed || error != null) {
+                    return;
+                }
+                if (policy == Backpressure.LATEST) {
+                    /* re-insert, so the node moves to the back of the line */
+                    if (latest.remove(sample.getAddress()) != null) {
+                        dropped.incrementAndGet();
+                    } else if (latest.size() >= bufferSize) {
+                        Iterator<XBeeSample> oldest = latest.values().iterator();
+                        oldest.next();
+                        oldest.remove();
+                        dropped.incrementAndGet();
+                    }
+                    latest.put(sample.getAddress(), sample);
+                } else if (queue.size() < bufferSize) {
+                    queue.add(sample);
+                } else if (policy == Backpressure.DROP_OLDEST) {
+                    queue.poll();
+                    queue.add(sample);
+                    dropped.incrementAndGet();
+                } else {
+                    queue.clear();
+                    error = new IllegalStateException("Subscriber fell more than "
+                            + bufferSize + " samples behind.");
+                }
+                if (demand == 0 && error == null) {
+                    return;
+                }
+            }
+            schedule();
+        }
+
+        void complete() {
+            synchronized (this) {
+                completed = true;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    if (error == null) {
+                        error = new IllegalArgumentException("Requested " + n + " samples.");
+                    }
+                } else {
+                    demand += n;
+                    if (demand < 0) {
+                        /* overflow: treat as unbounded */
+                        demand = Long.MAX_VALUE;
+                    }
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                if (queue != null) {
+                    queue.clear();
+                } else {
+                    latest.clear();
+                }
+            }
+            subscriptions.remove(this);
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        /**
+         * Deliver queued samples, as far as demand allows.
+         */
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                deliver();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void deliver() {
+            while (true) {
+                XBeeSample next;
+                synchronized (this) {
+                    if (cancelled) {
+                        return;
+                    }
+                    if (error == null) {
+                        if (isEmpty() && completed) {
+                            cancelled = true;
+                        } else if (isEmpty() || demand == 0) {
+                            return;
+                        }
+                    } else {
+                        cancelled = true;
+                    }
+                    next = cancelled ? null : poll();
+                    if (next != null && demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                }
+                if (next != null) {
+                    try {
+                        subscriber.onNext(next);
+                    } catch (RuntimeException ex) {
+                        log.log(Level.ERROR, "Subscriber failed; cancelling.", ex);
+                        cancel();
+                        return;
+                    }
+                    continue;
+                }
+                subscriptions.remove(this);
+                try {
+                    if (error != null) {
+                        subscriber.onError(error);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                } catch (RuntimeException ex) {
+                    log.log(Level.ERROR, null, ex);
+                }
+                return;
+            }
+        }
+
+        private boolean isEmpty() {
+            return (queue != null) ? queue.isEmpty() : latest.isEmpty();
+        }
+
+        private XBeeSample poll() {
+            if (queue != null) {
+                return queue.poll();
+            }
+            Iterator<XBeeSample> oldest = latest.values().iterator();
+            XBeeSample sample = oldest.next();
+            oldest.remove();
+            return sample;
+        }
+    }
+}
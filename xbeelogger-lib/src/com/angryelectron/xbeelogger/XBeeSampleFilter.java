@@ -0,0 +1,74 @@
+/**
+ * XBeeSampleFilter.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.HashSet;
+
+/**
+ * Selects the samples delivered to a subscriber.  An empty filter accepts 
+ * every sample.  Nodes may be selected by address and by Node Identifier, and
+ * a sample from any selected node is accepted.  If analog inputs are selected,
+ * only samples in which all of them are enabled are accepted.
+ * <p>
+ * A filter must not be changed once it has been used to subscribe.
+ */
+public class XBeeSampleFilter {
+
+    private final HashSet<XBeeAddress> addresses = new HashSet<>();
+    private final HashSet<String> names = new HashSet<>();
+    private int analogMask = 0;
+
+    /**
+     * Accept samples from a node.
+     * @param address XBee 64-bit address.
+     * @return This filter.
+     */
+    public XBeeSampleFilter address(XBeeAddress address) {
+        addresses.add(address);
+        return this;
+    }
+
+    /**
+     * Accept samples from a node.  Samples are matched by the Node 
+     * Identifier they carry, so the first samples from a new node, received 
+     * before it has been identified, are not accepted.
+     * @param nodeIdentifier XBee 'NI' string.
+     * @return This filter.
+     */
+    public XBeeSampleFilter name(String nodeIdentifier) {
+        names.add(nodeIdentifier);
+        return this;
+    }
+
+    /**
+     * Accept only samples in which an analog input is enabled.
+     * @param pin Analog input, 0-3 for AD0-AD3.
+     * @return This filter.
+     * @throws IllegalArgumentException If the pin is not 0-3.
+     */
+    public XBeeSampleFilter analog(int pin) {
+        if (pin < 0 || pin > 3) {
+            throw new IllegalArgumentException("Invalid analog pin.");
+        }
+        analogMask |= 1 << pin;
+        return this;
+    }
+
+    /**
+     * Check if a sample is accepted.
+     * @param sample The sample.
+     * @return True if it should be delivered.
+     */
+    public boolean accept(XBeeSample sample) {
+        if ((sample.getAnalogChannelMask() & analogMask) != analogMask) {
+            return false;
+        }
+        if (addresses.isEmpty() && names.isEmpty()) {
+            return true;
+        }
+        return addresses.contains(sample.getAddress())
+                || names.contains(sample.getNodeIdentifier());
+    }
+}
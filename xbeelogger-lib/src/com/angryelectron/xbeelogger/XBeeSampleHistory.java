@@ -0,0 +1,232 @@
+/**
+ * XBeeSampleHistory.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recent samples from each node, for charts and short-term statistics.
+ * <p>
+ * Each node has a fixed-size ring buffer of primitive arrays, so memory use is
+ * bounded and adding a sample does not allocate.  Samples older than the
+ * maximum age are also dropped.  Samples may be added and queried from
+ * different threads.
+ */
+public class XBeeSampleHistory {
+
+    private final int capacity;
+    private final long maxAge;
+    private final ConcurrentHashMap<XBeeAddress, Ring> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * One node's samples, oldest first, starting at head.
+     */
+    private static final class Ring {
+
+        private final long[] time;
+        private final short[] digitalMask;
+        private final byte[] analogMask;
+        private final short[] dio;
+        private final long[] analog;
+        private int head = 0;
+        private int count = 0;
+        private String nodeIdentifier;
+
+        Ring(int capacity) {
+            time = new long[capacity];
+            digitalMask = new short[capacity];
+            analogMask = new byte[capacity];
+            dio = new short[capacity];
+            analog = new long[capacity];
+        }
+
+        int index(int i) {
+            return (head + i) % time.length;
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param capacity Maximum number of samples kept for each node.
+     * @param maxAgeMs Samples older than this, relative to the node's newest
+     * sample, are dropped.  0 to keep samples until the buffer is full.
+     */
+    public XBeeSampleHistory(int capacity, long maxAgeMs) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+        this.capacity = capacity;
+        this.maxAge = TimeUnit.MILLISECONDS.toNanos(maxAgeMs);
+    }
+
+    /**
+     * Add a sample.  Samples that are not newer than the node's newest sample
+     * are ignored, so the same data can safely be added more than once.
+     * @param sample The sample.
+     * @return True if the sample was added.
+     */
+    public boolean add(XBeeSample sample) {
+        Ring ring = nodes.get(sample.getAddress());
+        if (ring == null) {
+            Ring empty = new Ring(capacity);
+            ring = nodes.putIfAbsent(sample.getAddress(), empty);
+            if (ring == null) {
+                ring = empty;
+            }
+        }
+        long t = sample.getTimestampNanos();
+        synchronized (ring) {
+            ring.nodeIdentifier = sample.getNodeIdentifier();
+            if (ring.count > 0 && t <= ring.time[ring.index(ring.count - 1)]) {
+                return false;
+            }
+            int i;
+            if (ring.count == capacity) {
+                i = ring.head;
+                ring.head = ring.index(1);
+            } else {
+                i = ring.index(ring.count);
+                ring.count++;
+            }
+            ring.time[i] = t;
+            ring.digitalMask[i] = (short) sample.getDigitalChannelMask();
+            ring.analogMask[i] = (byte) sample.getAnalogChannelMask();
+            ring.dio[i] = (short) sample.getDigitalValues();
+            ring.analog[i] = sample.getPackedAnalog();
+            if (maxAge > 0) {
+                while (ring.count > 0 && ring.time[ring.head] < t - maxAge) {
+                    ring.head = ring.index(1);
+                    ring.count--;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a node's samples from a period of time.
+     * @param address Node address.
+     * @param fromMs Start of the period, in ms since the epoch, inclusive.
+     * @param toMs End of the period, in ms since the epoch, inclusive.
+     * @return Samples, oldest first.  Empty if there are none in the period.
+     * @throws NoSuchFieldException If no samples have been received from this
+     * node.
+     */
+    public List<XBeeSample> getSamples(XBeeAddress address, long fromMs, long toMs)
+            throws NoSuchFieldException {
+        Ring ring = ring(address);
+        long from = TimeUnit.MILLISECONDS.toNanos(fromMs);
+        long to = end(toMs);
+        ArrayList<XBeeSample> samples = new ArrayList<>();
+        synchronized (ring) {
+            for (int n = first(ring, from); n < ring.count; n++) {
+                int i = ring.index(n);
+                if (ring.time[i] >= to) {
+                    break;
+                }
+                samples.add(new XBeeSample(address, ring.time[i], ring.digitalMask[i],
+                        ring.analogMask[i], ring.dio[i], ring.analog[i], ring.nodeIdentifier));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Get the minimum, maximum and mean of an analog input over a period of
+     * time.  Samples in which the input was not enabled are skipped.
+     * @param address Node address.
+     * @param pin Analog input, 0-3 for AD0-AD3.
+     * @param fromMs Start of the period, in ms since the epoch, inclusive.
+     * @param toMs End of the period, in ms since the epoch, inclusive.
+     * @return Statistics.  The count is 0 if there are no readings in the
+     * period.
+     * @throws NoSuchFieldException If no samples have been received from this
+     * node.
+     * @throws IllegalArgumentException If the pin is not 0-3.
+     */
+    public XBeeChannelStatistics getStatistics(XBeeAddress address, int pin, long fromMs, long toMs)
+            throws NoSuchFieldException {
+        XBeeSample.checkPin(pin);
+        Ring ring = ring(address);
+        long from = TimeUnit.MILLISECONDS.toNanos(fromMs);
+        long to = end(toMs);
+        int count = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        long sum = 0;
+        synchronized (ring) {
+            for (int n = first(ring, from); n < ring.count; n++) {
+                int i = ring.index(n);
+                if (ring.time[i] >= to) {
+                    break;
+                }
+                if ((ring.analogMask[i] & (1 << pin)) == 0) {
+                    continue;
+                }
+                int value = XBeeSample.unpackAnalog(ring.analog[i], pin);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return new XBeeChannelStatistics(0, 0, 0, 0);
+        }
+        return new XBeeChannelStatistics(count, min, max, (double) sum / count);
+    }
+
+    /**
+     * Get the number of samples held for a node.
+     * @param address Node address.
+     * @return Number of samples, or 0 if none have been received.
+     */
+    public int size(XBeeAddress address) {
+        Ring ring = nodes.get(address);
+        if (ring == null) {
+            return 0;
+        }
+        synchronized (ring) {
+            return ring.count;
+        }
+    }
+
+    /**
+     * Convert an inclusive end in ms to an exclusive end in ns.  toNanos
+     * saturates, but toMs + 1 would overflow for Long.MAX_VALUE.
+     */
+    private static long end(long toMs) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.min(toMs, Long.MAX_VALUE - 1) + 1);
+    }
+
+    private Ring ring(XBeeAddress address) throws NoSuchFieldException {
+        Ring ring = nodes.get(address);
+        if (ring == null) {
+            throw new NoSuchFieldException("No samples were found for that address.");
+        }
+        return ring;
+    }
+
+    /**
+     * Find the oldest sample at or after a time.  Samples are in time order,
+     * so this is a binary search.
+     */
+    private static int first(Ring ring, long from) {
+        int low = 0;
+        int high = ring.count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ring.time[ring.index(mid)] < from) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
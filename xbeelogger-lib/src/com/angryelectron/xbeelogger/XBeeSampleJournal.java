@@ -0,0 +1,384 @@
+/**
+ * XBeeSampleJournal.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append XBee I/O samples to a directory of binary journal segments.  Unlike
+ * {@link XBeeSampleStream}, which rewrites the latest value of every node each
+ * time, the journal writes one small record per sample, so the cost of each
+ * write does not depend on the number of nodes and the full history is kept.
+ * <p>
+ * Each segment starts with a header (magic, version) followed by records:
+ * <pre>
+ *   int    payload length
+ *   long   64-bit address
+ *   long   timestamp (ms since epoch)
+ *   short  digital channel mask
+ *   byte   analog channel mask (bits 0-3 = AD0-AD3, bit 7 = supply voltage)
+ *   short  digital values
+ *   short  10-bit ADC value for each enabled analog channel
+ *   byte   node identifier length, followed by the node identifier (UTF-8)
+ *   int    CRC32 of the payload
+ * </pre>
+ * When a segment grows past the segment size a new one is started.  A record
+ * that was cut short or damaged when the writer was killed ends its segment;
+ * the writer never appends to an existing segment, so the records after it
+ * are in the next one.
+ */
+class XBeeSampleJournal {
+
+    static final int MAGIC = 0x58504a31; /* "XPJ1" */
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 6;
+    static final String SUFFIX = ".journal";
+
+    /**
+     * Largest possible record: length, address, timestamp, masks, digital
+     * values, 5 analog values, NI (max 255 bytes), CRC.
+     */
+    static final int MAX_RECORD_SIZE = 4 + 8 + 8 + 2 + 1 + 2 + 10 + 1 + 255 + 4;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private final File directory;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long lastFlush;
+
+    private FileChannel channel;
+    private long segment;
+    private long position;
+
+    /**
+     * Create a new journal.
+     * @param directory The directory holding the journal segments.  It is
+     * created if it does not exist.
+     */
+    XBeeSampleJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Set the size at which a new segment is started.
+     * @param bytes Segment size, in bytes.
+     */
+    void setSegmentSize(long bytes) {
+        if (bytes < HEADER_SIZE + MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Segment size too small.");
+        }
+        this.segmentSize = bytes;
+    }
+
+    /**
+     * Set how long appended records may stay buffered before they are written.
+     * @param ms Flush interval, in milliseconds.  0 writes every record as soon
+     * as it is appended.
+     */
+    void setFlushInterval(long ms) {
+        this.flushInterval = ms;
+    }
+
+    /**
+     * Open the journal for writing.  Existing segments are never modified; a new
+     * segment is started after the last one found in the directory.
+     * @throws FileNotFoundException if the journal directory cannot be written.
+     */
+    void open() throws FileNotFoundException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileNotFoundException("Cannot create journal directory " + directory + ".");
+        }
+        segment = lastSegment(directory);
+        try {
+            roll();
+        } catch (IOException ex) {
+            throw new FileNotFoundException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Append a sample to the journal.  The record is buffered, and written
+     * once the buffer fills or the flush interval has elapsed.
+     * @param sample The sample to append.
+     * @throws IOException If the journal cannot be written.
+     */
+    void append(XBeeSample sample) throws IOException {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            flush();
+        }
+        if (position + buffer.position() + MAX_RECORD_SIZE > segmentSize) {
+            flush();
+            roll();
+        }
+        encode(buffer, crc, sample);
+        long now = System.currentTimeMillis();
+        if (now - lastFlush >= flushInterval) {
+            flush();
+        }
+    }
+
+    /**
+     * Write any buffered records to the current segment.
+     * @throws IOException If the journal cannot be written.
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+        buffer.clear();
+        lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Flush buffered records and force them to the storage device.
+     * @throws IOException If the journal cannot be written.
+     */
+    void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    /**
+     * Flush and close the journal.
+     * @throws IOException If the journal cannot be written.
+     */
+    void close() throws IOException {
+        if (channel != null) {
+            flush();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Read one node's samples from a journal.  Segments are read in order, and
+     * each is read up to its first record that is incomplete or corrupt.
+     * @param directory Journal directory.
+     * @param address Node address.
+     * @param fromMs Start of the period, in ms since the epoch, inclusive.
+     * @param toMs End of the period, in ms since the epoch, inclusive.
+     * @return Samples, oldest first.  Empty if there are none in the period.
+     * @throws FileNotFoundException If the journal cannot be read.
+     */
+    static List<XBeeSample> read(File directory, XBeeAddress address, long fromMs, long toMs)
+            throws FileNotFoundException {
+        if (!directory.isDirectory()) {
+            throw new FileNotFoundException(directory + " is not a journal.");
+        }
+        ArrayList<XBeeSample> samples = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        CRC32 crc = new CRC32();
+        for (long segment : segments(directory)) {
+            try (FileChannel channel = new FileInputStream(segmentFile(directory, segment)).getChannel()) {
+                readSegment(channel, buffer, crc, address.toLong(), fromMs, toMs, samples);
+            } catch (IOException ex) {
+                throw new FileNotFoundException(ex.getMessage());
+            }
+        }
+        /* stable, so samples with the same time stay in the order received */
+        Collections.sort(samples, new Comparator<XBeeSample>() {
+            @Override
+            public int compare(XBeeSample a, XBeeSample b) {
+                return Long.compare(a.getTimestampMillis(), b.getTimestampMillis());
+            }
+        });
+        return samples;
+    }
+
+    /**
+     * Add one node's samples from a segment, stopping at the end of the
+     * segment or at a record that is incomplete or corrupt.
+     */
+    private static void readSegment(FileChannel channel, ByteBuffer buffer, CRC32 crc,
+            long address, long fromMs, long toMs, List<XBeeSample> samples) throws IOException {
+        buffer.clear();
+        boolean eof = false;
+        while (buffer.position() < HEADER_SIZE && !eof) {
+            eof = channel.read(buffer) < 0;
+        }
+        buffer.flip();
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+                || buffer.getShort() != VERSION) {
+            /* empty, or not written by this version */
+            return;
+        }
+        while (true) {
+            XBeeSample sample = decode(buffer, crc);
+            if (sample != null) {
+                long t = sample.getTimestampMillis();
+                if (sample.getAddress().toLong() == address && t >= fromMs && t <= toMs) {
+                    samples.add(sample);
+                }
+                continue;
+            }
+            if (eof || buffer.remaining() >= MAX_RECORD_SIZE) {
+                /* the end of the segment, or a record cut short or damaged */
+                return;
+            }
+            buffer.compact();
+            eof = channel.read(buffer) < 0;
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Encode a sample as a record.
+     * @param buffer Destination, with at least {@link #MAX_RECORD_SIZE} bytes
+     * remaining.
+     * @param crc Scratch checksum.
+     * @param sample The sample.
+     */
+    static void encode(ByteBuffer buffer, CRC32 crc, XBeeSample sample) {
+        int start = buffer.position();
+        buffer.putInt(0);
+        buffer.putLong(sample.getAddress().toLong());
+        buffer.putLong(sample.getTimestampMillis());
+        buffer.putShort((short) sample.getDigitalChannelMask());
+        int analogMask = sample.getAnalogChannelMask();
+        buffer.put((byte) analogMask);
+        buffer.putShort((short) sample.getDigitalValues());
+        for (int i = 0; i < XBeeSample.ANALOG_CHANNELS; i++) {
+            int bit = (i == XBeeSample.SUPPLY_VOLTAGE) ? 7 : i;
+            if ((analogMask & (1 << bit)) != 0) {
+                buffer.putShort((short) sample.getAnalogValue(i));
+            }
+        }
+        byte[] ni = sample.getNodeIdentifier().getBytes(UTF8);
+        int niLength = Math.min(ni.length, 255);
+        buffer.put((byte) niLength);
+        buffer.put(ni, 0, niLength);
+
+        int payload = buffer.position() - start - 4;
+        buffer.putInt(start, payload);
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start + 4, payload);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Decode the record at the buffer's position, and move past it.
+     * @param buffer Source, backed by an array.
+     * @param crc Scratch checksum.
+     * @return The sample, or null if the buffer does not hold a whole record
+     * or the record is corrupt, in which case the position is not changed.
+     * A null with at least {@link #MAX_RECORD_SIZE} bytes remaining means the 
+     * record is corrupt.
+     */
+    static XBeeSample decode(ByteBuffer buffer, CRC32 crc) {
+        int start = buffer.position();
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int payload = buffer.getInt(start);
+        if (payload <= 0 || payload > MAX_RECORD_SIZE - 8) {
+            return null;
+        }
+        if (buffer.remaining() < payload + 8) {
+            return null;
+        }
+        crc.reset();
+        crc.update(buffer.array(), buffer.arrayOffset() + start + 4, payload);
+        if ((int) crc.getValue() != buffer.getInt(start + 4 + payload)) {
+            return null;
+        }
+        buffer.position(start + 4);
+        long address = buffer.getLong();
+        long timestamp = buffer.getLong();
+        int digitalMask = buffer.getShort() & 0xffff;
+        int analogMask = buffer.get() & 0xff;
+        int dio = buffer.getShort() & 0xffff;
+        int[] analog = new int[XBeeSample.ANALOG_CHANNELS];
+        for (int i = 0; i < XBeeSample.ANALOG_CHANNELS; i++) {
+            int bit = (i == XBeeSample.SUPPLY_VOLTAGE) ? 7 : i;
+            if ((analogMask & (1 << bit)) != 0) {
+                analog[i] = buffer.getShort() & 0xffff;
+            }
+        }
+        byte[] ni = new byte[buffer.get() & 0xff];
+        buffer.get(ni);
+        buffer.position(start + 4 + payload + 4);
+        return new XBeeSample(address, TimeUnit.MILLISECONDS.toNanos(timestamp),
+                digitalMask, analogMask, dio, analog, new String(ni, UTF8));
+    }
+
+    private void roll() throws IOException {
+        if (channel != null) {
+            flush();
+            channel.close();
+        }
+        segment++;
+        File file = segmentFile(directory, segment);
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Get the file name of a segment.
+     * @param directory Journal directory.
+     * @param segment Segment number.
+     * @return Segment file.
+     */
+    static File segmentFile(File directory, long segment) {
+        return new File(directory, String.format("%016d", segment) + SUFFIX);
+    }
+
+    /**
+     * Find the highest numbered segment in a directory.
+     * @param directory Journal directory.
+     * @return Segment number, or 0 if the directory contains no segments.
+     */
+    static long lastSegment(File directory) {
+        List<Long> segments = segments(directory);
+        return segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Get the numbers of the segments in a directory, in order.
+     */
+    private static List<Long> segments(File directory) {
+        ArrayList<Long> segments = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return segments;
+        }
+        for (String name : names) {
+            if (name.endsWith(SUFFIX)) {
+                try {
+                    segments.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException ex) {
+                    /* not a segment */
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+}
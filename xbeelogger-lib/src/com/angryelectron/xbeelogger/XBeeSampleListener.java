@@ -5,87 +5,331 @@
 
 package com.angryelectron.xbeelogger;
 
+import com.rapplogic.xbee.RxTxSerialComm;
+import com.rapplogic.xbee.XBeeConnection;
 import com.rapplogic.xbee.api.ApiId;
 import com.rapplogic.xbee.api.PacketListener;
 import com.rapplogic.xbee.api.RemoteAtRequest;
 import com.rapplogic.xbee.api.RemoteAtResponse;
 import com.rapplogic.xbee.api.XBee;
-import com.rapplogic.xbee.api.XBeeAddress64;
+import com.rapplogic.xbee.api.XBeeAddress16;
+import com.rapplogic.xbee.api.XBeeConfiguration;
 import com.rapplogic.xbee.api.XBeeException;
 import com.rapplogic.xbee.api.XBeeResponse;
 import com.rapplogic.xbee.api.zigbee.ZNetRxIoSampleResponse;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 /**
  * Receives, maintains, and queries a list of IO samples received from a 
- * network of XBee Series 2 radios.
+ * network of XBee Series 2 radios.  New samples, Node Identifiers and nodes
+ * that have stopped reporting are published on an {@link XBeeEventBus}.
+ * <p>
+ * Samples may be received through any number of local XBees (coordinators),
+ * each on its own port and PAN.  Each has its own xbee-api receive thread,
+ * and all of them update the same registry.  A port that fails, or falls 
+ * silent, is reopened without affecting the others.
+ * <p>
+ * With the fast path enabled, I/O samples and NI responses are decoded by an
+ * {@link XBeeFrameDecoder} on a thread of their own, and only other frames
+ * are parsed by xbee-api.
+ * <p>
+ * Node Identifiers are looked up by an {@link XBeeNodeResolver}, which limits,
+ * retries and caches the requests sent to remote nodes.
  */
-class XBeeSampleListener extends Observable {
+class XBeeSampleListener {
         
-    private final XBee xbee = new XBee();    
+    private static final Logger log = Logger.getLogger(XBeeSampleListener.class.getName());
+    
+    private final XBeeEventBus bus = new XBeeEventBus();
+    
+    private final CopyOnWriteArrayList<Radio> radios = new CopyOnWriteArrayList<>();
+    private long reconnectAfter = TimeUnit.MINUTES.toMillis(1);
+    private long reconnectInterval = TimeUnit.SECONDS.toMillis(5);
+    private boolean fastPath = false;
+    
+    private final XBeeNodeResolver resolver = new XBeeNodeResolver();
+    private File nodeCache;
+    private long resolveInterval = 100;
+    private long saveInterval = TimeUnit.SECONDS.toMillis(10);
     
     /**
-     * This map holds the latest sample data from all XBees on the network.
-     * One entry per node, indexed by node address.
+     * Nodes reported as stale, which have not reported since.
      */
-    private HashMap<XBeeAddress, XBeeSample> sampleList = new HashMap<>();
-   
+    private final ConcurrentHashMap<XBeeAddress, Boolean> stale = new ConcurrentHashMap<>();
+    private long staleAfter = TimeUnit.MINUTES.toMillis(5);
+    
     /**
-     * Process incoming IO Samples.  The sampleList is updated with new data
-     * as it arrives.
+     * Runs the stale check, the resolver, and each port's reconnect check.
      */
-    private final PacketListener ioPacketListener = new PacketListener() {
-        @Override
-        public void processResponse(XBeeResponse response) {
-            if (response.getApiId() == ApiId.ZNET_IO_SAMPLE_RESPONSE) {
-                ZNetRxIoSampleResponse xbeeIOSample = (ZNetRxIoSampleResponse) response;                  
-                XBeeSample sample = new XBeeSample(xbeeIOSample);
-                if (sampleList.containsKey(sample.getAddress())) {
-                    /* re-use the Node Identifier */
-                    String ni = sampleList.get(sample.getAddress()).getNodeIdentifier();
-                    sample.setNodeIdentifier(ni);
-                    sampleList.put(sample.getAddress(), sample);                     
-                } else {
-                    /* This XBee is being seen for the first time, so we must
-                     * request the node identifer.
-                     */
-                    sampleList.put(sample.getAddress(), sample);                     
-                    sendNIRequest(sample.getAddress().toXBeeAddress64());
-                }      
-                setChanged();
-                notifyObservers(sample);
-            }
-        }        
-    };   
-    
-    /**
-     * Process incoming responses to Node-identifier requests.  Updates
-     * the Node Identifier field of an existing XBeeSample and ignore everything
-     * else.
-     */
-    private final PacketListener niPacketListener;
-
-    public XBeeSampleListener() {
-        this.niPacketListener = new PacketListener() {
+    private ScheduledExecutorService timer;
+    
+    /**
+     * This registry holds the latest sample data from all XBees on the network.
+     * One entry per node, indexed by node address.  It may be updated and read
+     * from any thread.
+     */
+    private final XBeeSampleRegistry sampleList = new XBeeSampleRegistry();
+    
+    /**
+     * One local XBee, and the packets received through it.
+     */
+    private final class Radio implements XBeeNodeResolver.Sender {
+        
+        private final String port;
+        private final int baud;
+        private final XBeeConnection connection;
+        private volatile XBee xbee;
+        private volatile XBeeFastConnection fast;
+        private volatile boolean connected = false;
+        private volatile long lastFrame;
+        private final AtomicLong frames = new AtomicLong();
+        private final AtomicLong samples = new AtomicLong();
+        private final AtomicLong reconnects = new AtomicLong();
+        
+        /**
+         * Process incoming IO Samples and responses to Node-identifier 
+         * requests, and ignore everything else.  Called on this radio's 
+         * receive thread.
+         */
+        private final PacketListener packetListener = new PacketListener() {
             @Override
             public void processResponse(XBeeResponse response) {
-                if (response.getApiId() == ApiId.REMOTE_AT_RESPONSE) {
+                lastFrame = System.currentTimeMillis();
+                frames.incrementAndGet();
+                if (response.getApiId() == ApiId.ZNET_IO_SAMPLE_RESPONSE) {
+                    samples.incrementAndGet();
+                    received(new XBeeSample((ZNetRxIoSampleResponse) response), Radio.this);
+                } else if (response.getApiId() == ApiId.REMOTE_AT_RESPONSE) {
                     RemoteAtResponse atResponse = (RemoteAtResponse) response;
                     if (atResponse.getCommand().equals("NI")) {
                         XBeeAddress address = new XBeeAddress(atResponse.getRemoteAddress64());
-                        if (sampleList.containsKey(address)) {
-                            XBeeSample sample = sampleList.get(address);
-                            sample.setNodeIdentifier(intArrayToString(atResponse.getValue()));
-                            sampleList.put(sample.getAddress(), sample);
+                        if (atResponse.isOk()) {
+                            replied(address, intArrayToString(atResponse.getValue()));
+                        } else {
+                            resolver.failed(atResponse.getFrameId(), address);
                         }
                     }
                 }
             }
         };
+        
+        /**
+         * Process frames decoded on the fast path.  Called on the decoding
+         * thread.
+         */
+        private final XBeeFrameDecoder.Handler frameHandler = new XBeeFrameDecoder.Handler() {
+            @Override
+            public void sample(long address, int digitalMask, int analogMask, int dio, long analog) {
+                lastFrame = System.currentTimeMillis();
+                frames.incrementAndGet();
+                samples.incrementAndGet();
+                received(new XBeeSample(new XBeeAddress(address),
+                        TimeUnit.MILLISECONDS.toNanos(lastFrame),
+                        digitalMask, analogMask, dio, analog, "Unknown"), Radio.this);
+            }
+
+            @Override
+            public void identified(long address, byte[] name, int offset, int length) {
+                lastFrame = System.currentTimeMillis();
+                frames.incrementAndGet();
+                replied(new XBeeAddress(address),
+                        new String(name, offset, length, StandardCharsets.US_ASCII));
+            }
+
+            @Override
+            public void other(byte[] frame, int length) {
+                /* passed on to xbee-api by the connection */
+            }
+        };
+        
+        Radio(String port, int baud, XBeeConnection connection) {
+            this.port = port;
+            this.baud = baud;
+            this.connection = connection;
+        }
+        
+        /**
+         * Open the port and start receiving.
+         */
+        void open() throws XBeeException {
+            XBee x;
+            if (connection != null) {
+                /* there may be no radio to answer the usual startup checks */
+                x = new XBee(new XBeeConfiguration().withStartupChecks(false));
+                x.initProviderConnection(fastPath ? decode(connection) : connection);
+            } else if (fastPath) {
+                RxTxSerialComm serial = new RxTxSerialComm();
+                try {
+                    serial.openSerialPort(port, baud);
+                } catch (XBeeException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new XBeeException(ex);
+                }
+                x = new XBee();
+                try {
+                    x.initProviderConnection(decode(serial));
+                } catch (XBeeException ex) {
+                    x.close();
+                    fast.close();
+                    throw ex;
+                }
+            } else {
+                x = new XBee();
+                try {
+                    x.open(port, baud);
+                } catch (XBeeException ex) {
+                    x.close();
+                    throw ex;
+                }
+            }
+            x.addPacketListener(packetListener);
+            xbee = x;
+            lastFrame = System.currentTimeMillis();
+            connected = true;
+        }
+        
+        void close() {
+            connected = false;
+            XBee x = xbee;
+            /* already closed if the last attempt to reopen failed */
+            if (x != null && x.isConnected()) {
+                /* the api automatically removes any packet listeners when closing */
+                x.close();
+            }
+            XBeeFastConnection f = fast;
+            if (f != null) {
+                f.close();
+                fast = null;
+            }
+        }
+        
+        /**
+         * Start decoding samples from a connection on the fast path.
+         * @return The connection to give xbee-api, for all other frames.
+         */
+        private XBeeConnection decode(XBeeConnection source) {
+            fast = new XBeeFastConnection(source, frameHandler,
+                    "XBeeFrameDecoder-" + ((port == null) ? "connection" : port));
+            return fast;
+        }
+        
+        /**
+         * Reopen the port if it has failed, or has received nothing for 
+         * longer than the reconnect interval.  Runs on the timer.
+         */
+        void check() {
+            if (connection != null) {
+                return;
+            }
+            long silence = System.currentTimeMillis() - lastFrame;
+            XBeeFastConnection f = fast;
+            if (connected && xbee.isConnected() && (f == null || f.isOpen())
+                    && (reconnectAfter <= 0 || silence < reconnectAfter)) {
+                return;
+            }
+            if (connected) {
+                log.log(Level.WARN, "Nothing received on " + port + " for " 
+                        + (silence / 1000) + " s.  Reopening.");
+            }
+            close();
+            try {
+                open();
+                reconnects.incrementAndGet();
+                log.log(Level.INFO, "Reopened " + port + ".");
+            } catch (XBeeException ex) {
+                log.log(Level.ERROR, "Cannot open " + port + ": " + ex.getMessage());
+            }
+        }
+        
+        /**
+         * Request the Node-Identifier field from a remote XBee.  The results 
+         * are returned asynchronously, through the same local XBee.  Nothing
+         * is sent while the port is being reopened; the resolver tries again
+         * later.
+         * @param address The remote XBee's address.
+         * @param frameId Frame ID for the reply.
+         */
+        @Override
+        public void sendNIRequest(XBeeAddress address, int frameId) {
+            if (!connected) {
+                return;
+            }
+            RemoteAtRequest request = new RemoteAtRequest(frameId, address.toXBeeAddress64(),
+                    XBeeAddress16.ZNET_BROADCAST, true, "NI");
+            try {
+                xbee.sendAsynchronous(request);
+            } catch (XBeeException ex) {            
+                log.log(Level.ERROR, null, ex);
+            }
+        }
+        
+        XBeePortStatistics getStatistics() {
+            return new XBeePortStatistics((port == null) ? "connection" : port, connected,
+                    frames.get(), samples.get(), reconnects.get(),
+                    System.currentTimeMillis() - lastFrame);
+        }
+    }
+    
+    /**
+     * Store a new sample and publish it.
+     * @param sample The sample.
+     * @param radio The local XBee that received it.
+     */
+    private void received(XBeeSample sample, Radio radio) {
+        /* the registry re-uses the Node Identifier of a known XBee */
+        if (sampleList.update(sample)) {
+            /* This XBee is being seen for the first time, so its name comes
+             * from the cache, or is requested through the radio that heard it.
+             */
+            String name = resolver.seen(sample.getAddress(), radio);
+            if (name != null) {
+                identified(sample.getAddress(), name);
+            }
+        }      
+        stale.remove(sample.getAddress());
+        bus.publish(new XBeeEvent.SampleReceived(sampleList.get(sample.getAddress())));
+    }
+    
+    /**
+     * Handle a node's reply to an NI request.
+     * @param address Node address.
+     * @param name Node Identifier.
+     */
+    private void replied(XBeeAddress address, String name) {
+        resolver.replied(address, name);
+        identified(address, name);
+    }
+    
+    /**
+     * Update the Node Identifier field of an existing XBeeSample.
+     * @param address Node address.
+     * @param name Node Identifier.
+     */
+    private void identified(XBeeAddress address, String name) {
+        XBeeSample current = sampleList.get(address);
+        if (current != null && name.equals(current.getNodeIdentifier())) {
+            /* usually a node checking in with the same name */
+            return;
+        }
+        if (sampleList.identify(address, name)) {
+            bus.publish(new XBeeEvent.NodeIdentified(address, name));
+        }
     }
     
     /**
@@ -105,74 +349,278 @@ class XBeeSampleListener extends Observable {
         return new String(result);
     }
     
+    /**
+     * Listen for incoming samples using an XBee attached to the specified
+     * port.  Must be called before starting.
+     * @param port XBee serial port (ie. /dev/ttyUSB0, COM6, etc.).
+     * @param baudRate Typically 9600, but this depends on how the local XBee
+     * is programmed.
+     */
+    void addPort(String port, int baudRate) {
+        radios.add(new Radio(port, baudRate, null));
+    }
     
     /**
-     * Request the Node-Identifier field from a remote XBee.  The results are
-     * returned asynchronously and processed by the niPacketListener.
-     * @param address The remote XBee's 64-bit address.
+     * Listen for incoming samples on a connection other than a serial port, 
+     * such as a stream of recorded or synthetic API frames.  The usual 
+     * startup checks are skipped, and the connection is never reopened.  Must
+     * be called before starting.
+     * @param connection Source of API frames.  Must notify itself when new
+     * data is available, as xbee-api expects.
      */
-    private void sendNIRequest(XBeeAddress64 address) {
-        RemoteAtRequest request = new RemoteAtRequest(address, "NI");
-        try {
-            xbee.sendAsynchronous(request);
-        } catch (XBeeException ex) {            
-            Logger.getLogger(XBeeSampleListener.class.getName()).log(Level.ERROR, null, ex);
-        }
+    void addConnection(XBeeConnection connection) {
+        radios.add(new Radio(null, 0, connection));
     }
                  
     /**
-     * Start listening for incoming samples using an XBee attached to the specified
-     * port.
-     * @param port XBee serial port (ie. /dev/ttyUSB0, COM6, etc.).
-     * @param baudRate Typically 9600, but this depends on how the local XBee
-     * is programmed.
-     * @throws XBeeException if the XBee cannot be opened.  May be caused by
+     * Start listening on every port.  A port that cannot be opened is retried
+     * in the background, as long as at least one port opens.
+     * @throws XBeeException if no XBee can be opened.  May be caused by
      * permissions, wiring, or an incorrect port.
      */
-    void start(String port, int baudRate) throws XBeeException {
-        xbee.open(port, baudRate);
-        xbee.addPacketListener(ioPacketListener);
-        xbee.addPacketListener(niPacketListener);               
+    void start() throws XBeeException {
+        if (nodeCache != null && nodeCache.exists()) {
+            try {
+                resolver.load(nodeCache);
+            } catch (FileNotFoundException ex) {
+                /* names will be requested again */
+                log.log(Level.ERROR, "Cannot read " + nodeCache + ": " + ex.getMessage());
+            }
+        }
+        XBeeException failure = null;
+        int opened = 0;
+        for (Radio radio : radios) {
+            try {
+                radio.open();
+                opened++;
+            } catch (XBeeException ex) {
+                log.log(Level.ERROR, "Cannot open " + radio.port + ": " + ex.getMessage());
+                if (failure == null) {
+                    failure = ex;
+                }
+            }
+        }
+        if (opened == 0) {
+            radios.clear();
+            throw (failure != null) ? failure : new XBeeException("No port to listen on.");
+        }
+        timer = Executors.newScheduledThreadPool(radios.size() + 2, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "XBeeSampleListener");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (final Radio radio : radios) {
+            timer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    radio.check();
+                }
+            }, reconnectInterval, reconnectInterval, TimeUnit.MILLISECONDS);
+        }
+        startStaleCheck();
+        startResolver();
     }
     
     /**
-     * Stop listening for incoming samples.  The XBee API automatically handles
-     * clean-up using a shutdown hook, so it is not necessary to call this function
-     * when shutting down.
+     * Stop listening for incoming samples, and forget the ports.  The XBee API
+     * automatically handles clean-up using a shutdown hook, so it is not 
+     * necessary to call this function when shutting down.
      */
     void stop() {        
-        /* the api automatically removes any packet listeners when closing */
-        xbee.close();
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        for (Radio radio : radios) {
+            radio.close();
+        }
+        radios.clear();
+        saveNodeCache();
+    }
+    
+    /**
+     * Get the activity of each port.
+     * @return Statistics, in the order ports were added.
+     */
+    List<XBeePortStatistics> getPortStatistics() {
+        ArrayList<XBeePortStatistics> statistics = new ArrayList<>();
+        for (Radio radio : radios) {
+            statistics.add(radio.getStatistics());
+        }
+        return statistics;
+    }
+    
+    /**
+     * Set how long a port may receive nothing before it is reopened.  Must be
+     * called before starting.
+     * @param ms Interval, in milliseconds.  0 to only reopen ports that fail.
+     */
+    void setReconnectAfter(long ms) {
+        this.reconnectAfter = ms;
+    }
+    
+    /**
+     * Decode I/O samples and Node Identifiers without xbee-api, which is much
+     * faster and creates far less garbage.  Must be called before starting.
+     * @param enabled True to use the fast path.
+     */
+    void setFastPath(boolean enabled) {
+        this.fastPath = enabled;
+    }
+    
+    /**
+     * Keep the Node Identifiers of known nodes in a file, so they need not be
+     * requested again when listening restarts.  Must be called before 
+     * starting.
+     * @param file Cache file.  Created if it does not exist.
+     */
+    void setNodeCache(File file) {
+        this.nodeCache = file;
+    }
+    
+    /**
+     * Limit the NI requests sent to remote nodes.  Must be called before
+     * starting.
+     * @param perSecond Requests per second, on average.
+     * @param burst Requests that may be sent at once.
+     */
+    void setLookupRate(double perSecond, int burst) {
+        resolver.setRate(perSecond, burst);
+    }
+    
+    /**
+     * Set how often the Node Identifier of a known node is requested again,
+     * to notice nodes that have been renamed.  Must be called before starting.
+     * @param ms Interval, in milliseconds.  0 to never request it again.
+     */
+    void setRevalidateAfter(long ms) {
+        resolver.setRevalidateAfter(ms);
+    }
+    
+    /**
+     * Get the progress of Node Identifier lookups.
+     * @return Statistics.
+     */
+    XBeeResolverStatistics getResolverStatistics() {
+        return resolver.getStatistics();
+    }
+    
+    /**
+     * Get the bus on which events are published.
+     * @return Event bus.
+     */
+    XBeeEventBus getEventBus() {
+        return bus;
+    }
+    
+    /**
+     * Set how long a node may go without reporting before a 
+     * {@link XBeeEvent.NodeStale} event is published.  Must be called before
+     * starting.
+     * @param ms Interval, in milliseconds.  0 to never publish stale events.
+     */
+    void setStaleAfter(long ms) {
+        this.staleAfter = ms;
+    }
+    
+    /**
+     * Periodically publish an event for each node that has stopped reporting.
+     */
+    private void startStaleCheck() {
+        if (staleAfter <= 0) {
+            return;
+        }
+        long period = Math.max(1000, staleAfter / 4);
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                long limit = System.currentTimeMillis() - staleAfter;
+                for (XBeeSample sample : sampleList.snapshot().values()) {
+                    if (sample.getTimestampMillis() >= limit
+                            || stale.putIfAbsent(sample.getAddress(), Boolean.TRUE) != null) {
+                        continue;
+                    }
+                    XBeeSample latest = sampleList.get(sample.getAddress());
+                    if (latest.getTimestampMillis() < limit) {
+                        bus.publish(new XBeeEvent.NodeStale(latest));
+                    } else {
+                        /* a sample arrived since the snapshot was taken */
+                        stale.remove(sample.getAddress());
+                    }
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
     }
                     
     /**
-     * Register an observer.  By implementing Observer, a custom class can be 
-     * notified whenever sample data is updated.  The object passed as the 
-     * Observer.update() argument represents the new sample data, and should be
-     * cast as an XBeeSample.
-     * @param o An object which implements Observer and wished to be notified
-     * whenever new sample data is recorded.
+     * Periodically send the NI requests that are due, and save the cache.
+     */
+    private void startResolver() {
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (XBeeNodeResolver.Request request : resolver.poll()) {
+                    request.send();
+                }
+            }
+        }, 0, resolveInterval, TimeUnit.MILLISECONDS);
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                saveNodeCache();
+            }
+        }, saveInterval, saveInterval, TimeUnit.MILLISECONDS);
+    }
+    
+    private void saveNodeCache() {
+        if (nodeCache == null) {
+            return;
+        }
+        try {
+            resolver.save(nodeCache);
+        } catch (IOException ex) {
+            log.log(Level.ERROR, "Cannot save " + nodeCache + ": " + ex.getMessage());
+        }
+    }
+                    
+    /**
+     * Get the latest sample from a node.  If more than one node uses the same
+     * Node Identifier, the one most recently identified is returned.
+     * @param nodeIdentifier XBee 'NI' string.
+     * @return Sample data, or null if no node has this name.
+     */
+    XBeeSample getSampleByName(String nodeIdentifier) {
+        return sampleList.getByName(nodeIdentifier);
+    }
+    
+    /**
+     * Get the latest sample from a node.
+     * @param address XBee 64-bit address.
+     * @return Sample data, or null if no sample has been received.
      */
-    void register(Observer o) {
-        this.addObserver(o);
+    XBeeSample getSampleByAddress(XBeeAddress address) {
+        return sampleList.get(address);
     }
     
     /**
-     * Unregister an observer.  Stops a custom class from receiving notifications
-     * about updated sample data.
-     * @param o An object which implements Observer that no longer wishes to be
-     * notified whenever new sample data is recorded.
+     * Get the version of the sample data.  Changes whenever a sample or Node 
+     * Identifier is updated.
+     * @return Version number.
      */
-    void unregister(Observer o) {
-        this.deleteObserver(o);
+    long getVersion() {
+        return sampleList.getVersion();
     }
     
     /**
-     * Get a HashMap of sample data, indexed by 64-bit address.  
+     * Get a HashMap of sample data, indexed by 64-bit address.  The map is a 
+     * snapshot that is shared by all callers until the data changes, so it is
+     * only copied when something has changed since the last call.
      * @return A read-only Hashmap.
      */
     HashMap<XBeeAddress, XBeeSample> getSamples() {
-        HashMap<XBeeAddress, XBeeSample> tempMap = new HashMap<>(sampleList);
-        return tempMap;
+        return sampleList.snapshot();
     }
 }
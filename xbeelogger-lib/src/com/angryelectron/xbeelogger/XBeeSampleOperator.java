@@ -0,0 +1,47 @@
+/**
+ * XBeeSampleOperator.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * An incremental calculation, such as a running total or a moving average,
+ * that is updated with each sample as it is received.  An operator keeps a
+ * small, fixed amount of state for each node, so its value is always current
+ * without re-reading old samples.
+ * <p>
+ * Operators do not hold state themselves.  The state for each node is held by
+ * an {@link XBeeOperatorGraph} and passed in, so that it can be saved and
+ * restored.  An operator's values are at a fixed offset in an array shared by
+ * every operator, and it must not touch the rest of the array.
+ */
+public interface XBeeSampleOperator {
+
+    /**
+     * Get the name of the value calculated by this operator.
+     * @return Name, unique within an {@link XBeeOperatorGraph}.
+     */
+    String getName();
+
+    /**
+     * Get the amount of state required for each node.
+     * @return Number of doubles of state.
+     */
+    int getStateSize();
+
+    /**
+     * Update a node's state with a new sample.
+     * @param state The node's state for every operator, initially all zero.
+     * @param offset Index of this operator's first value in state.
+     * @param sample The new sample.
+     */
+    void update(double[] state, int offset, XBeeSample sample);
+
+    /**
+     * Get the current value for a node.
+     * @param state The node's state for every operator.
+     * @param offset Index of this operator's first value in state.
+     * @return Value.
+     */
+    double getValue(double[] state, int offset);
+}
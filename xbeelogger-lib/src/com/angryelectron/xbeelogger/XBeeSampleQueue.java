@@ -0,0 +1,142 @@
+/**
+ * XBeeSampleQueue.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded queue of samples waiting to be written.  Adding a sample never
+ * blocks: if the queue is full the sample is dropped and counted.
+ * <p>
+ * A conflating queue holds at most one sample per node.  A new sample from a
+ * node that is already queued replaces the queued one, so a burst from one
+ * node costs a single write.  This suits formats that only keep the latest
+ * sample.  A non-conflating queue keeps every sample in order, for formats
+ * that keep history.
+ */
+class XBeeSampleQueue {
+
+    private final boolean conflate;
+    private final int capacity;
+
+    /* conflating */
+    private final ConcurrentHashMap<XBeeAddress, XBeeSample> latest;
+    private final ConcurrentLinkedQueue<XBeeAddress> order;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /* non-conflating */
+    private final ArrayBlockingQueue<XBeeSample> fifo;
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Constructor.
+     * @param capacity Maximum number of queued samples (or nodes, when
+     * conflating).
+     * @param conflate True to keep only the latest sample from each node.
+     */
+    XBeeSampleQueue(int capacity, boolean conflate) {
+        this.capacity = capacity;
+        this.conflate = conflate;
+        if (conflate) {
+            latest = new ConcurrentHashMap<>();
+            order = new ConcurrentLinkedQueue<>();
+            fifo = null;
+        } else {
+            latest = null;
+            order = null;
+            fifo = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+
+    /**
+     * Add a sample without blocking.
+     * @param sample The sample to be written.
+     * @return False if the queue was full and the sample was dropped.
+     */
+    boolean offer(XBeeSample sample) {
+        if (!conflate) {
+            if (!fifo.offer(sample)) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+        XBeeAddress address = sample.getAddress();
+        if (latest.replace(address, sample) != null) {
+            coalesced.incrementAndGet();
+            return true;
+        }
+        if (size.get() >= capacity) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (latest.putIfAbsent(address, sample) != null) {
+            /* another thread queued this node first */
+            latest.put(address, sample);
+            coalesced.incrementAndGet();
+            return true;
+        }
+        size.incrementAndGet();
+        order.add(address);
+        return true;
+    }
+
+    /**
+     * Remove queued samples, oldest first.
+     * @param batch Receives the samples.
+     * @param max Maximum number of samples to remove.
+     * @return Number of samples removed.
+     */
+    int drainTo(List<XBeeSample> batch, int max) {
+        if (!conflate) {
+            return fifo.drainTo(batch, max);
+        }
+        int n = 0;
+        while (n < max) {
+            XBeeAddress address = order.poll();
+            if (address == null) {
+                break;
+            }
+            XBeeSample sample = latest.remove(address);
+            size.decrementAndGet();
+            if (sample != null) {
+                batch.add(sample);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Get the number of queued samples.
+     * @return Queue depth.
+     */
+    int size() {
+        return conflate ? size.get() : fifo.size();
+    }
+
+    /**
+     * Get the number of samples that replaced an already queued sample.
+     * @return Coalesced samples.
+     */
+    long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Get the number of samples dropped because the queue was full.
+     * @return Dropped samples.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+}
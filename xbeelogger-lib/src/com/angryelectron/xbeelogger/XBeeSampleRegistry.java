@@ -0,0 +1,163 @@
+/**
+ * XBeeSampleRegistry.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the latest sample from each node.  Samples and Node Identifiers may be
+ * updated from any number of threads without locking, and readers can take a
+ * consistent snapshot of all nodes cheaply.
+ * <p>
+ * Every change increments a version number.  A snapshot is a copy of the
+ * registry taken at some version; it is built at most once per version, and
+ * only when asked for, so updates never pay for copying the registry.
+ * <p>
+ * Node Identifiers are stored separately from samples.  A new sample takes the
+ * current name of its node, and a new name is applied to the current sample,
+ * so a name is never lost when a sample and an NI response arrive at the same
+ * time.
+ */
+class XBeeSampleRegistry {
+
+    private final ConcurrentHashMap<XBeeAddress, XBeeSample> samples = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<XBeeAddress, String> names = new ConcurrentHashMap<>();
+    private final XBeeNameIndex nameIndex = new XBeeNameIndex();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(new HashMap<XBeeAddress, XBeeSample>(), 0);
+
+    private static final class Snapshot {
+
+        private final HashMap<XBeeAddress, XBeeSample> samples;
+        private final long version;
+
+        Snapshot(HashMap<XBeeAddress, XBeeSample> samples, long version) {
+            this.samples = samples;
+            this.version = version;
+        }
+    }
+
+    /**
+     * Store a new sample, replacing the previous sample from the same node.
+     * The sample is given the node's current Node Identifier, if known.
+     * @param sample The new sample.
+     * @return True if this is the first sample from this node.
+     */
+    boolean update(XBeeSample sample) {
+        XBeeAddress address = sample.getAddress();
+        String name = names.get(address);
+        if (name != null && !name.equals(sample.getNodeIdentifier())) {
+            sample = new XBeeSample(sample, name);
+        }
+        XBeeSample previous = samples.put(address, sample);
+        if (previous == null) {
+            synchronized (nameIndex) {
+                nameIndex.identify(address, sample.getNodeIdentifier());
+            }
+        }
+        reconcile(address);
+        version.incrementAndGet();
+        return previous == null;
+    }
+
+    /**
+     * Set the Node Identifier of a node.  Ignored if no sample has been
+     * received from the node.
+     * @param address Node address.
+     * @param name Node Identifier.
+     * @return True if the node is known.
+     */
+    boolean identify(XBeeAddress address, String name) {
+        if (!samples.containsKey(address)) {
+            return false;
+        }
+        names.put(address, name);
+        synchronized (nameIndex) {
+            nameIndex.identify(address, name);
+        }
+        reconcile(address);
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Get the latest sample from a node.
+     * @param address Node address.
+     * @return Sample, or null if no sample has been received from this node.
+     */
+    XBeeSample get(XBeeAddress address) {
+        return samples.get(address);
+    }
+
+    /**
+     * Get the latest sample from a node.  If more than one node uses the same
+     * Node Identifier, the one most recently identified is returned.
+     * @param name Node Identifier.
+     * @return Sample, or null if no node has this name.
+     */
+    XBeeSample getByName(String name) {
+        XBeeAddress address;
+        synchronized (nameIndex) {
+            address = nameIndex.get(name);
+        }
+        return (address == null) ? null : samples.get(address);
+    }
+
+    /**
+     * Get the number of nodes.
+     * @return Number of nodes from which samples have been received.
+     */
+    int size() {
+        return samples.size();
+    }
+
+    /**
+     * Get the current version.  The version changes whenever a sample or Node
+     * Identifier is updated.
+     * @return Version number.
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Get a snapshot of all samples.  The same snapshot is returned until the
+     * registry changes.
+     * @return A read-only HashMap of samples, indexed by address.  Must not be
+     * modified.
+     */
+    HashMap<XBeeAddress, XBeeSample> snapshot() {
+        Snapshot current = snapshot;
+        long v = version.get();
+        if (current.version == v) {
+            return current.samples;
+        }
+        /* the copy may include changes made after v was read; that only
+         * means the next caller copies again */
+        current = new Snapshot(new HashMap<>(samples), v);
+        snapshot = current;
+        return current.samples;
+    }
+
+    /**
+     * Make sure the current sample from a node carries the node's current
+     * name.  Whichever thread changes a sample or a name last sees both
+     * changes here, so the final state is always consistent.
+     */
+    private void reconcile(XBeeAddress address) {
+        while (true) {
+            XBeeSample current = samples.get(address);
+            String name = names.get(address);
+            if (current == null || name == null || name.equals(current.getNodeIdentifier())) {
+                return;
+            }
+            if (samples.replace(address, current, new XBeeSample(current, name))) {
+                return;
+            }
+        }
+    }
+}
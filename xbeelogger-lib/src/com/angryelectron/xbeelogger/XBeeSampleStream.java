@@ -5,53 +5,356 @@
 package com.angryelectron.xbeelogger;
 
 import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.StreamException;
+import com.thoughtworks.xstream.XStreamException;
 import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
 import java.util.HashMap;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Serialize XBee I/O data to/from XML file.
+ * <p>
+ * Files are written with XStream, but read with a parser that only knows the
+ * short form written by {@link XBeeSampleConverter}.  It builds each sample
+ * straight from the elements, and a lookup for one node skips every other
+ * entry and stops as soon as it can, so readers need not load XStream at all.
+ * Files from before the short form are read with XStream.
  */
 class XBeeSampleStream {
-    
-    private final XStream xstream;    
+
+    /* configured once, then only used to create readers */
+    private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    static {
+        /* the writer never produces a DTD, so never fetch or expand one */
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    private XStream xstream;
     private final File dataFile;
-    
+
+    /**
+     * Decides which samples are wanted while the file is parsed.
+     */
+    private abstract static class Scan {
+
+        /**
+         * Check an entry's key before the rest of the entry is read.
+         * @return False to skip the entry.
+         */
+        boolean wants(XBeeAddress address) {
+            return true;
+        }
+
+        /**
+         * Check a sample's name before the rest of the sample is read.
+         * @return False to skip the entry.
+         */
+        boolean wants(String nodeIdentifier) {
+            return true;
+        }
+
+        /**
+         * Take a sample.
+         * @return False to stop reading the file.
+         */
+        abstract boolean found(XBeeSample sample);
+    }
+
+    /**
+     * The file holds samples in the old form, which only XStream can read.
+     */
+    private static final class LegacyFormat extends Exception {
+
+        private static final long serialVersionUID = 1L;
+    }
+
     /**
      * Create a new XML serializer.
      * @param file Full path of an XML file for reading/writing.  If file does
-     * not exist it will be created when written.     
+     * not exist it will be created when written.
      */
     XBeeSampleStream(File file) {
-        xstream = new XStream(new StaxDriver());          
         this.dataFile = file;
     }
-            
+
     /**
      * Read XML data from disk.
      * @return XBee sample data HashMap, indexed by XBee address.
      */
     HashMap<XBeeAddress, XBeeSample> read() throws FileNotFoundException {
-        HashMap<XBeeAddress, XBeeSample> map = new HashMap<>();
+        final HashMap<XBeeAddress, XBeeSample> map = new HashMap<>();
         try {
-            Object fromXML = xstream.fromXML(dataFile, map);
-            return (HashMap<XBeeAddress, XBeeSample>) fromXML;
-        } catch (StreamException ex) {
-            throw new FileNotFoundException(ex.getMessage());
+            parse(new Scan() {
+                @Override
+                boolean found(XBeeSample sample) {
+                    map.put(sample.getAddress(), sample);
+                    return true;
+                }
+            });
+            return map;
+        } catch (LegacyFormat ex) {
+            return readLegacy();
+        }
+    }
+
+    /**
+     * Read one node's sample, without reading the rest of the file.
+     * @param address Node address.
+     * @return The sample, or null if the file has none from this node.
+     * @throws FileNotFoundException If the file cannot be read.
+     */
+    XBeeSample find(final XBeeAddress address) throws FileNotFoundException {
+        final XBeeSample[] match = new XBeeSample[1];
+        try {
+            parse(new Scan() {
+                @Override
+                boolean wants(XBeeAddress key) {
+                    return key.equals(address);
+                }
+
+                @Override
+                boolean found(XBeeSample sample) {
+                    match[0] = sample;
+                    return false;
+                }
+            });
+            return match[0];
+        } catch (LegacyFormat ex) {
+            return readLegacy().get(address);
         }
     }
-    
+
+    /**
+     * Read the sample from the node with a given name.  Only that node's
+     * sample is built.  If more than one node uses the name, the one with the
+     * newest sample is returned, as with {@link XBeeNameIndex}, so the whole
+     * file is scanned.
+     * @param nodeIdentifier Node Identifier.
+     * @return The sample, or null if no node in the file uses this name.
+     * @throws FileNotFoundException If the file cannot be read.
+     */
+    XBeeSample find(final String nodeIdentifier) throws FileNotFoundException {
+        final XBeeSample[] match = new XBeeSample[1];
+        try {
+            parse(new Scan() {
+                @Override
+                boolean wants(String name) {
+                    return name.equals(nodeIdentifier);
+                }
+
+                @Override
+                boolean found(XBeeSample sample) {
+                    if (match[0] == null || sample.getTimestampNanos() > match[0].getTimestampNanos()) {
+                        match[0] = sample;
+                    }
+                    return true;
+                }
+            });
+            return match[0];
+        } catch (LegacyFormat ex) {
+            XBeeSample newest = null;
+            for (XBeeSample sample : readLegacy().values()) {
+                if (sample.getNodeIdentifier().equals(nodeIdentifier)
+                        && (newest == null || sample.getTimestampNanos() > newest.getTimestampNanos())) {
+                    newest = sample;
+                }
+            }
+            return newest;
+        }
+    }
+
     /**
      * Write XBee sample data to disk.
      * @param data The XBee I/O Hashmap to be written.
      * @throws IOException If the XML file cannot be written.
      */
-    void write(HashMap<XBeeAddress, XBeeSample> data) throws IOException {                        
-            xstream.marshal(data, new PrettyPrintWriter(new FileWriter(dataFile, false)));                    
-    }        
+    void write(HashMap<XBeeAddress, XBeeSample> data) throws IOException {
+        try (FileWriter writer = new FileWriter(dataFile, false)) {
+            xstream().marshal(data, new PrettyPrintWriter(writer));
+        }
+    }
+
+    /**
+     * Force the last write to the storage device.
+     * @throws IOException If the file cannot be synced.
+     */
+    void sync() throws IOException {
+        if (!dataFile.exists()) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(dataFile, "rw")) {
+            file.getFD().sync();
+        }
+    }
+
+    private XStream xstream() {
+        if (xstream == null) {
+            xstream = new XStream(new StaxDriver());
+            xstream.registerConverter(new XBeeAddressConverter());
+            xstream.registerConverter(new XBeeSampleConverter());
+        }
+        return xstream;
+    }
+
+    private HashMap<XBeeAddress, XBeeSample> readLegacy() throws FileNotFoundException {
+        HashMap<XBeeAddress, XBeeSample> map = new HashMap<>();
+        try {
+            Object fromXML = xstream().fromXML(dataFile, map);
+            return (HashMap<XBeeAddress, XBeeSample>) fromXML;
+        } catch (XStreamException ex) {
+            /* includes a file that is only partly written */
+            throw new FileNotFoundException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Parse the file:
+     * <pre>
+     * &lt;map&gt;
+     *   &lt;entry&gt;
+     *     &lt;com.angryelectron.xbeelogger.XBeeAddress&gt;&lt;address&gt;...&lt;/address&gt;&lt;/...&gt;
+     *     &lt;com.angryelectron.xbeelogger.XBeeSample&gt;
+     *       &lt;address reference="..."/&gt; &lt;time&gt; &lt;nodeIdentifier&gt; ...
+     *     &lt;/...&gt;
+     *   &lt;/entry&gt;
+     * &lt;/map&gt;
+     * </pre>
+     */
+    private void parse(Scan scan) throws FileNotFoundException, LegacyFormat {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(dataFile))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                reader.nextTag();
+                int[] analog = new int[XBeeSample.ANALOG_CHANNELS];
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if (!entry(reader, scan, analog)) {
+                        return;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (XMLStreamException | IOException | IllegalArgumentException ex) {
+            /* includes a file that is only partly written */
+            throw new FileNotFoundException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Parse one entry, leaving the reader on its end tag.
+     * @return False to stop reading the file.
+     */
+    private static boolean entry(XMLStreamReader reader, Scan scan, int[] analog)
+            throws XMLStreamException, LegacyFormat {
+        /* the key */
+        reader.nextTag();
+        reader.nextTag();
+        XBeeAddress address = new XBeeAddress(reader.getElementText().trim());
+        reader.nextTag();
+        if (!scan.wants(address)) {
+            skip(reader, 0);
+            return true;
+        }
+
+        /* the sample */
+        reader.nextTag();
+        long time = 0;
+        String nodeIdentifier = "Unknown";
+        int digitalMask = 0;
+        int analogMask = 0;
+        int dio = 0;
+        Arrays.fill(analog, 0);
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            switch (reader.getLocalName()) {
+                case "address":
+                    /* a reference to the key, or the address again in full */
+                    skip(reader, 0);
+                    break;
+                case "time":
+                    time = Long.parseLong(reader.getElementText().trim());
+                    break;
+                case "nodeIdentifier":
+                    nodeIdentifier = reader.getElementText();
+                    if (!scan.wants(nodeIdentifier)) {
+                        skip(reader, 1);
+                        return true;
+                    }
+                    break;
+                case "digitalMask":
+                    digitalMask = Integer.parseInt(reader.getElementText().trim());
+                    break;
+                case "analogMask":
+                    analogMask = Integer.parseInt(reader.getElementText().trim());
+                    break;
+                case "dio":
+                    dio = Integer.parseInt(reader.getElementText().trim());
+                    break;
+                case "analog":
+                    parseAnalog(reader.getElementText(), analog);
+                    break;
+                case "timestamp":
+                case "ioSample":
+                    throw new LegacyFormat();
+                default:
+                    skip(reader, 0);
+                    break;
+            }
+        }
+        /* the end of the entry */
+        reader.nextTag();
+        return scan.found(new XBeeSample(address, time, digitalMask, analogMask, dio, analog, nodeIdentifier));
+    }
+
+    /**
+     * Parse space-separated ADC values, without a regular expression.
+     */
+    private static void parseAnalog(String text, int[] analog) {
+        int channel = 0;
+        int value = -1;
+        for (int i = 0; i <= text.length() && channel < analog.length; i++) {
+            char c = (i < text.length()) ? text.charAt(i) : ' ';
+            if (c >= '0' && c <= '9') {
+                value = ((value < 0) ? 0 : value * 10) + (c - '0');
+            } else if (Character.isWhitespace(c)) {
+                if (value >= 0) {
+                    analog[channel++] = value;
+                    value = -1;
+                }
+            } else {
+                throw new NumberFormatException("Invalid analog value: " + text);
+            }
+        }
+    }
+
+    /**
+     * Skip to the end of the element the reader is in, which is the element
+     * itself if the reader is on its start tag, and then out of the given
+     * number of enclosing elements.
+     */
+    private static void skip(XMLStreamReader reader, int enclosing) throws XMLStreamException {
+        int depth = 1 + enclosing;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
 }
@@ -0,0 +1,447 @@
+/**
+ * XBeeSampleTable.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A memory-mapped table holding the latest sample from each node.  The table
+ * is a file of fixed-size slots keyed by 64-bit address.  A single writer
+ * updates slots in place while any number of readers, in the same or in other
+ * processes, look up one node without parsing the rest of the file.
+ * <p>
+ * Each slot is protected by a sequence counter (a seqlock).  The writer makes
+ * the counter odd before changing a slot and even again once it is done.  A
+ * reader copies the slot and retries if the counter was odd or changed while
+ * it was copying, so reads never block the writer and never see a half-written
+ * sample.
+ * <p>
+ * File layout:
+ * <pre>
+ *   header (64 bytes): int magic, short version, short reserved, int slot count,
+ *                      int reserved, long renames
+ *   slot (64 bytes):   long sequence, long address, long timestamp,
+ *                      short digital mask, byte analog mask, byte reserved,
+ *                      short digital values, 5 x short ADC values,
+ *                      byte NI length, 20 bytes NI (UTF-8)
+ * </pre>
+ * A slot whose sequence is 0 has never been written.  The renames counter is
+ * incremented each time a slot is given a name it did not have, once the slot
+ * is complete, so a reader knows when a name it looked up may have moved.
+ */
+public class XBeeSampleTable {
+
+    static final int MAGIC = 0x58505431; /* "XPT1" */
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 64;
+    static final int SLOT_SIZE = 64;
+
+    /**
+     * The longest Node Identifier an XBee will accept.
+     */
+    static final int MAX_NI = 20;
+
+    private static final int RENAMES = 16;
+
+    private static final int SEQUENCE = 0;
+    private static final int ADDRESS = 8;
+    private static final int TIMESTAMP = 16;
+    private static final int DIGITAL_MASK = 24;
+    private static final int ANALOG_MASK = 26;
+    private static final int DIO = 28;
+    private static final int ANALOG = 30;
+    private static final int NI_LENGTH = 40;
+    private static final int NI = 41;
+
+    private static final int DEFAULT_SLOTS = 1024;
+
+    /**
+     * Reads of a slot that is being written before a reader gives up.  An
+     * update takes well under a microsecond, so only a writer that died in the
+     * middle of one keeps a slot busy this long.
+     */
+    private static final int MAX_RETRIES = 1000;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Used to order plain buffer accesses around the sequence counter.  A
+     * volatile write followed by a volatile read acts as a full fence.
+     */
+    private static volatile int fence;
+
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final int mask;
+    private final boolean writable;
+    private volatile boolean closed = false;
+
+    /**
+     * Slots holding names that only one node was using when they were looked
+     * up.  An entry is only used while no slot has been renamed since.
+     */
+    private final ConcurrentHashMap<String, Cached> names = new ConcurrentHashMap<>();
+
+    private static final class Cached {
+
+        private final int slot;
+        private final long renames;
+
+        Cached(int slot, long renames) {
+            this.slot = slot;
+            this.renames = renames;
+        }
+    }
+
+    private XBeeSampleTable(MappedByteBuffer buffer, int slots, boolean writable) {
+        this.buffer = buffer;
+        this.slots = slots;
+        this.mask = slots - 1;
+        this.writable = writable;
+    }
+
+    /**
+     * Open a table for reading.
+     * @param file The table file, created by {@link XBeeLogWriter}.
+     * @return Table.
+     * @throws FileNotFoundException if the file cannot be opened or is not a
+     * sample table.
+     */
+    public static XBeeSampleTable open(File file) throws FileNotFoundException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new FileNotFoundException(file + " is not a sample table.");
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt(0) != MAGIC || map.getShort(4) != VERSION) {
+                throw new FileNotFoundException(file + " is not a sample table.");
+            }
+            int slots = map.getInt(8);
+            if (channel.size() < HEADER_SIZE + (long) slots * SLOT_SIZE) {
+                throw new FileNotFoundException(file + " is truncated.");
+            }
+            return new XBeeSampleTable(map, slots, false);
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new FileNotFoundException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Create or re-open a table for writing, with room for 1024 nodes.
+     * @param file The table file.
+     * @return Table.
+     * @throws FileNotFoundException if the file cannot be created.
+     */
+    static XBeeSampleTable create(File file) throws FileNotFoundException {
+        return create(file, DEFAULT_SLOTS);
+    }
+
+    /**
+     * Create or re-open a table for writing.  An existing table of the same
+     * size is kept, so readers continue to see the last known samples while
+     * the writer restarts.  Slots left half-written by a writer that was 
+     * killed are released: a new slot is cleared, and an updated slot is
+     * made readable again until the node's next sample replaces it.
+     * <p>
+     * Any other file is replaced, never truncated: readers may have it mapped,
+     * and would fault on pages cut from under them.  They keep reading the old
+     * table until they open the file again.
+     * @param file The table file.
+     * @param capacity Maximum number of nodes.  Rounded up so that the table is
+     * never more than half full.
+     * @return Table.
+     * @throws FileNotFoundException if the file cannot be created.
+     */
+    static XBeeSampleTable create(File file, int capacity) throws FileNotFoundException {
+        int slots = Integer.highestOneBit(Math.max(capacity, 8) * 2 - 1) << 1;
+        long size = HEADER_SIZE + (long) slots * SLOT_SIZE;
+        try {
+            if (file.length() == size) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    if (map.getInt(0) == MAGIC && map.getShort(4) == VERSION
+                            && map.getInt(8) == slots) {
+                        release(map, slots);
+                        return new XBeeSampleTable(map, slots, true);
+                    }
+                }
+            }
+            File temp = new File(file.getPath() + ".tmp");
+            MappedByteBuffer map;
+            try (RandomAccessFile raf = new RandomAccessFile(temp, "rw")) {
+                /* extended with zeroes: every slot is empty */
+                raf.setLength(0);
+                raf.setLength(size);
+                map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                map.putInt(8, slots);
+                map.putShort(4, VERSION);
+                map.putInt(0, MAGIC);
+                map.force();
+            }
+            if (!temp.renameTo(file)) {
+                /* some platforms will not rename over an existing file */
+                if (!file.delete() || !temp.renameTo(file)) {
+                    throw new IOException("Cannot replace " + file + ".");
+                }
+            }
+            return new XBeeSampleTable(map, slots, true);
+        } catch (IOException ex) {
+            throw new FileNotFoundException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Make every slot with an odd sequence readable.  A slot whose sequence is
+     * 1 was being filled for the first time, and nothing was inserted after
+     * it, so it can be emptied without breaking any probe sequence.
+     */
+    private static void release(MappedByteBuffer map, int slots) {
+        for (int slot = 0; slot < slots; slot++) {
+            int base = offset(slot);
+            long sequence = map.getLong(base + SEQUENCE);
+            if (sequence == 1) {
+                for (int i = 0; i < SLOT_SIZE; i += 8) {
+                    map.putLong(base + i, 0);
+                }
+                map.putLong(RENAMES, map.getLong(RENAMES) + 1);
+            } else if ((sequence & 1) != 0) {
+                map.putLong(base + SEQUENCE, sequence + 1);
+            }
+        }
+    }
+
+    /**
+     * Store a sample, replacing any previous sample from the same node.
+     * @param sample The new sample.
+     * @throws IOException if the table is full, was opened read-only, or has
+     * been closed.
+     */
+    void update(XBeeSample sample) throws IOException {
+        if (!writable) {
+            throw new IOException("Sample table is read-only.");
+        }
+        if (closed) {
+            throw new IOException("Sample table is closed.");
+        }
+        long address = sample.getAddress().toLong();
+        int slot = find(address, true);
+        if (slot < 0) {
+            throw new IOException("Sample table is full.");
+        }
+        int base = offset(slot);
+        long sequence = buffer.getLong(base + SEQUENCE);
+        byte[] ni = sample.getNodeIdentifier().getBytes(UTF8);
+        boolean renamed = sequence == 0 || !nameEquals(base, ni);
+        buffer.putLong(base + SEQUENCE, sequence + 1);
+        fence();
+        buffer.putLong(base + ADDRESS, address);
+        buffer.putLong(base + TIMESTAMP, sample.getTimestampMillis());
+        buffer.putShort(base + DIGITAL_MASK, (short) sample.getDigitalChannelMask());
+        buffer.put(base + ANALOG_MASK, (byte) sample.getAnalogChannelMask());
+        buffer.putShort(base + DIO, (short) sample.getDigitalValues());
+        for (int i = 0; i < XBeeSample.ANALOG_CHANNELS; i++) {
+            buffer.putShort(base + ANALOG + 2 * i, (short) sample.getAnalogValue(i));
+        }
+        int length = Math.min(ni.length, MAX_NI);
+        buffer.put(base + NI_LENGTH, (byte) length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(base + NI + i, ni[i]);
+        }
+        fence();
+        buffer.putLong(base + SEQUENCE, sequence + 2);
+        if (renamed) {
+            fence();
+            buffer.putLong(RENAMES, buffer.getLong(RENAMES) + 1);
+        }
+    }
+
+    /**
+     * Force any changes to the storage device.  Not required for other
+     * processes to see updates.
+     */
+    void sync() {
+        buffer.force();
+    }
+
+    /**
+     * Force any changes to the storage device and stop writing.  Java cannot
+     * unmap a file, so the mapping is released once the table is no longer
+     * referenced.
+     */
+    void close() {
+        if (writable && !closed) {
+            buffer.force();
+        }
+        closed = true;
+    }
+
+    /**
+     * Get the latest sample from a node.
+     * @param address XBee 64-bit address.
+     * @return Sample data.
+     * @throws NoSuchFieldException If no data has been received from an XBee
+     * with this address.
+     */
+    public XBeeSample getSampleByAddress(XBeeAddress address) throws NoSuchFieldException {
+        int slot = find(address.toLong(), false);
+        if (slot < 0) {
+            throw new NoSuchFieldException("No samples were found for that address.");
+        }
+        XBeeSample sample = read(slot);
+        if (sample == null) {
+            throw new NoSuchFieldException("The sample from that address is being written.");
+        }
+        return sample;
+    }
+
+    /**
+     * Get the latest sample from a node.  If more than one node uses the name,
+     * the one with the newest sample is returned, as with
+     * {@link XBeeNameIndex}.
+     * @param nodeIdentifier XBee 'NI' string.
+     * @return Sample data.
+     * @throws NoSuchFieldException If no data has been received from an XBee
+     * with this node identifier.
+     */
+    public XBeeSample getSampleByName(String nodeIdentifier) throws NoSuchFieldException {
+        /* read before the slots, so a rename during the scan is not missed */
+        long renames = buffer.getLong(RENAMES);
+        fence();
+        Cached cached = names.get(nodeIdentifier);
+        if (cached != null && cached.renames == renames) {
+            XBeeSample sample = read(cached.slot);
+            if (sample != null && sample.getNodeIdentifier().equals(nodeIdentifier)) {
+                return sample;
+            }
+        }
+        byte[] name = nodeIdentifier.getBytes(UTF8);
+        XBeeSample newest = null;
+        int newestSlot = -1;
+        int found = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            int base = offset(slot);
+            if (buffer.getLong(base + SEQUENCE) != 0 && nameEquals(base, name)) {
+                XBeeSample sample = read(slot);
+                /* re-check, the slot may have changed while it was copied */
+                if (sample != null && sample.getNodeIdentifier().equals(nodeIdentifier)) {
+                    found++;
+                    if (newest == null || sample.getTimestampNanos() > newest.getTimestampNanos()) {
+                        newest = sample;
+                        newestSlot = slot;
+                    }
+                }
+            }
+        }
+        if (newest == null) {
+            names.remove(nodeIdentifier);
+            throw new NoSuchFieldException("No samples were found for that name.");
+        }
+        if (found == 1) {
+            names.put(nodeIdentifier, new Cached(newestSlot, renames));
+        } else {
+            /* the newest of several can change with any sample */
+            names.remove(nodeIdentifier);
+        }
+        return newest;
+    }
+
+    /**
+     * Find the slot for an address using linear probing.
+     * @param address 64-bit address.
+     * @param insert If true, return the first empty slot when the address is
+     * not found.
+     * @return Slot index, or -1 if not found.
+     */
+    private int find(long address, boolean insert) {
+        int slot = hash(address) & mask;
+        for (int probe = 0; probe < slots; probe++) {
+            int base = offset(slot);
+            if (buffer.getLong(base + SEQUENCE) == 0) {
+                return insert ? slot : -1;
+            }
+            if (buffer.getLong(base + ADDRESS) == address) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Copy a consistent sample out of a slot.
+     * @return The sample, or null if the slot stayed busy for 
+     * {@link #MAX_RETRIES} attempts.
+     */
+    private XBeeSample read(int slot) {
+        int base = offset(slot);
+        int[] analog = new int[XBeeSample.ANALOG_CHANNELS];
+        byte[] ni = new byte[MAX_NI];
+        for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            long before = buffer.getLong(base + SEQUENCE);
+            if ((before & 1) == 0) {
+                fence();
+                long address = buffer.getLong(base + ADDRESS);
+                long timestamp = buffer.getLong(base + TIMESTAMP);
+                int digitalMask = buffer.getShort(base + DIGITAL_MASK) & 0xffff;
+                int analogMask = buffer.get(base + ANALOG_MASK) & 0xff;
+                int dio = buffer.getShort(base + DIO) & 0xffff;
+                for (int i = 0; i < analog.length; i++) {
+                    analog[i] = buffer.getShort(base + ANALOG + 2 * i) & 0xffff;
+                }
+                int length = Math.min(buffer.get(base + NI_LENGTH) & 0xff, MAX_NI);
+                for (int i = 0; i < length; i++) {
+                    ni[i] = buffer.get(base + NI + i);
+                }
+                fence();
+                if (buffer.getLong(base + SEQUENCE) == before) {
+                    return new XBeeSample(address, TimeUnit.MILLISECONDS.toNanos(timestamp),
+                            digitalMask, analogMask, dio, analog, new String(ni, 0, length, UTF8));
+                }
+            }
+            Thread.yield();
+        }
+        return null;
+    }
+
+    private boolean nameEquals(int base, byte[] name) {
+        int length = buffer.get(base + NI_LENGTH) & 0xff;
+        if (length != Math.min(name.length, MAX_NI)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(base + NI + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int hash(long address) {
+        long h = address;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static void fence() {
+        fence = 0;
+        int f = fence;
+    }
+}
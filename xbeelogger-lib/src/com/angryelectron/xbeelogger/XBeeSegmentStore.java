@@ -0,0 +1,848 @@
+/**
+ * XBeeSegmentStore.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * A directory of samples partitioned by day, with an index for fast queries
+ * of one node over a period of time.
+ * <p>
+ * Samples are appended, in the order they are received, to a live segment in
+ * the store directory.  The live segment is replaced every roll interval, and
+ * a background compactor then seals the old one: its samples are sorted by
+ * address and time and written to a segment in the directory for each day
+ * (UTC), with a sparse index holding the position of each node's first sample
+ * and of every {@value #INDEX_INTERVAL}th sample after that.  A query for one
+ * node reads the index, seeks to the node's samples, and reads only those.
+ * <p>
+ * Each seal adds a small segment to a day, so the compactor also merges a
+ * day's segments once there are more than {@value #MAX_SEGMENTS} of them, and
+ * into one segment when the day is over.  Old days are deleted whole, by
+ * removing their directory.
+ * <p>
+ * Segments and live segments hold records in the same format as
+ * {@link XBeeSampleJournal}, after a header (magic, version).  Segments are
+ * named after the range of live segments they hold, eg.
+ * 20130614/0000000000000003-0000000000000009.segment, and are never modified;
+ * a merged segment replaces those it covers.  An index file is written after
+ * its segment, so a segment is only visible to readers once it is complete.
+ * <p>
+ * Queries may be made from any number of threads and processes while one
+ * writer appends samples.
+ */
+public class XBeeSegmentStore {
+
+    static final int MAGIC = 0x58505331; /* "XPS1" */
+    static final int INDEX_MAGIC = 0x58505831; /* "XPX1" */
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 6;
+
+    /**
+     * Index entry: address, timestamp (ms), offset.
+     */
+    static final int INDEX_ENTRY_SIZE = 24;
+    static final int INDEX_INTERVAL = 128;
+    static final int MAX_SEGMENTS = 8;
+
+    private static final String LIVE_SUFFIX = ".live";
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String INDEX_SUFFIX = ".index";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+    private static final long DEFAULT_ROLL_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+    private static final long COMPACT_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int QUERY_ATTEMPTS = 3;
+
+    private static final Logger log = Logger.getLogger(XBeeSegmentStore.class.getName());
+
+    private static final Comparator<XBeeSample> ORDER = new Comparator<XBeeSample>() {
+        @Override
+        public int compare(XBeeSample a, XBeeSample b) {
+            int c = Long.compare(a.getAddress().toLong(), b.getAddress().toLong());
+            return (c != 0) ? c : Long.compare(a.getTimestampNanos(), b.getTimestampNanos());
+        }
+    };
+
+    private final File directory;
+    private long rollInterval = DEFAULT_ROLL_INTERVAL;
+    private int retention = 0;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CRC32 crc = new CRC32();
+    private FileChannel live;
+    private volatile long liveSegment = -1;
+    private long liveOpened;
+    private Thread compactor;
+    private volatile boolean running;
+
+    /**
+     * A segment, as named by its range of live segments.
+     */
+    private static final class Segment {
+
+        private final long first;
+        private final long last;
+        private final File file;
+        private final File index;
+
+        Segment(File dayDirectory, long first, long last) {
+            this.first = first;
+            this.last = last;
+            String name = String.format("%016d-%016d", first, last);
+            this.file = new File(dayDirectory, name + SEGMENT_SUFFIX);
+            this.index = new File(dayDirectory, name + INDEX_SUFFIX);
+        }
+
+        boolean covers(long segment) {
+            return first <= segment && segment <= last;
+        }
+    }
+
+    /**
+     * Reads records one after the other from a segment file.
+     */
+    private static final class Records implements Closeable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long position;
+        private boolean eof = false;
+
+        Records(File file, long offset) throws FileNotFoundException {
+            channel = new RandomAccessFile(file, "r").getChannel();
+            position = offset;
+            buffer.flip();
+        }
+
+        /**
+         * Get the next record.
+         * @return The sample, or null at the end of the file or at a corrupt
+         * record.
+         */
+        XBeeSample next() throws IOException {
+            while (true) {
+                XBeeSample sample = XBeeSampleJournal.decode(buffer, crc);
+                if (sample != null) {
+                    return sample;
+                }
+                if (eof || buffer.remaining() >= XBeeSampleJournal.MAX_RECORD_SIZE) {
+                    return null;
+                }
+                buffer.compact();
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    eof = true;
+                } else {
+                    position += n;
+                }
+                buffer.flip();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes a sealed or merged segment and its index.
+     */
+    private static final class SegmentWriter implements Closeable {
+
+        private final Segment segment;
+        private final File segmentTemp;
+        private final File indexTemp;
+        private final FileChannel channel;
+        private final DataOutputStream index;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long position = 0;
+        private long lastAddress;
+        private int sinceIndexed = 0;
+        private boolean empty = true;
+
+        SegmentWriter(Segment segment) throws IOException {
+            this.segment = segment;
+            File dir = segment.file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new FileNotFoundException("Cannot create segment directory " + dir + ".");
+            }
+            segmentTemp = new File(segment.file.getPath() + TEMP_SUFFIX);
+            indexTemp = new File(segment.index.getPath() + TEMP_SUFFIX);
+            channel = new RandomAccessFile(segmentTemp, "rw").getChannel();
+            channel.truncate(0);
+            buffer.putInt(MAGIC).putShort(VERSION);
+            index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexTemp)));
+            index.writeInt(INDEX_MAGIC);
+        }
+
+        /**
+         * Append a sample.  Samples must be in address, then time, order.
+         */
+        void append(XBeeSample sample) throws IOException {
+            long address = sample.getAddress().toLong();
+            if (empty || address != lastAddress || sinceIndexed == INDEX_INTERVAL) {
+                index.writeLong(address);
+                index.writeLong(sample.getTimestampMillis());
+                index.writeLong(position + buffer.position());
+                sinceIndexed = 0;
+            }
+            if (buffer.remaining() < XBeeSampleJournal.MAX_RECORD_SIZE) {
+                flush();
+            }
+            XBeeSampleJournal.encode(buffer, crc, sample);
+            lastAddress = address;
+            sinceIndexed++;
+            empty = false;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Finish the segment and make it visible to readers.
+         */
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.force(false);
+            channel.close();
+            index.close();
+            rename(segmentTemp, segment.file);
+            rename(indexTemp, segment.index);
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param directory The store directory.  It is created if it does not
+     * exist.
+     */
+    public XBeeSegmentStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Set how often a new live segment is started.  Shorter intervals make
+     * recent samples faster to query, at the cost of more compaction.
+     * @param ms Roll interval, in milliseconds.
+     */
+    void setRollInterval(long ms) {
+        this.rollInterval = ms;
+    }
+
+    /**
+     * Set how long samples are kept.
+     * @param days Number of days, including today, or 0 to keep samples
+     * forever.
+     */
+    public void setRetention(int days) {
+        this.retention = days;
+    }
+
+    /**
+     * Open the store for writing, and start the compactor.  Live segments left
+     * by a writer that was not stopped cleanly are sealed by the compactor.
+     * @throws FileNotFoundException if the store directory cannot be written.
+     */
+    void open() throws FileNotFoundException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new FileNotFoundException("Cannot create store directory " + directory + ".");
+        }
+        try {
+            roll();
+        } catch (IOException ex) {
+            throw new FileNotFoundException(ex.getMessage());
+        }
+        running = true;
+        compactor = new Thread("XBeeSegmentCompactor") {
+            @Override
+            public void run() {
+                while (running) {
+                    compact();
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(COMPACT_INTERVAL));
+                }
+            }
+        };
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Append a sample to the live segment.  The record is buffered until the
+     * buffer fills or {@link #flush()} is called.
+     * @param sample The sample.
+     * @throws IOException If the store cannot be written.
+     */
+    void append(XBeeSample sample) throws IOException {
+        if (System.currentTimeMillis() - liveOpened >= rollInterval) {
+            roll();
+        }
+        if (buffer.remaining() < XBeeSampleJournal.MAX_RECORD_SIZE) {
+            flush();
+        }
+        XBeeSampleJournal.encode(buffer, crc, sample);
+    }
+
+    /**
+     * Write buffered records to the live segment.
+     * @throws IOException If the store cannot be written.
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            live.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flush buffered records and force them to the storage device.
+     * @throws IOException If the store cannot be written.
+     */
+    void sync() throws IOException {
+        flush();
+        live.force(false);
+    }
+
+    /**
+     * Stop the compactor, then close and seal the live segment.
+     * @throws IOException If the store cannot be written.
+     */
+    void close() throws IOException {
+        running = false;
+        if (compactor != null) {
+            LockSupport.unpark(compactor);
+            try {
+                compactor.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            compactor = null;
+        }
+        if (live != null) {
+            flush();
+            live.close();
+            live = null;
+            liveSegment = -1;
+            compact();
+        }
+    }
+
+    /**
+     * Get a node's samples from a period of time.
+     * @param address Node address.
+     * @param fromMs Start of the period, in ms since the epoch, inclusive.
+     * @param toMs End of the period, in ms since the epoch, inclusive.
+     * @return Samples, oldest first.  Empty if there are none in the period.
+     * @throws FileNotFoundException If the store cannot be read.
+     */
+    public List<XBeeSample> read(XBeeAddress address, long fromMs, long toMs)
+            throws FileNotFoundException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return query(address.toLong(), fromMs, toMs);
+            } catch (FileNotFoundException ex) {
+                /* a segment was replaced by compaction; look again */
+                if (attempt == QUERY_ATTEMPTS) {
+                    throw ex;
+                }
+            } catch (IOException ex) {
+                log.log(Level.ERROR, null, ex);
+                throw new FileNotFoundException(ex.getMessage());
+            }
+        }
+    }
+
+    private List<XBeeSample> query(long address, long fromMs, long toMs) throws IOException {
+        /*
+         * Read the live segments before listing the days.  A live segment that
+         * is sealed after it is read shows up in its days below, and is then
+         * left out; one that is gone by the time it is read was sealed before
+         * the days are listed, so it is skipped.
+         */
+        HashMap<Long, List<XBeeSample>> live = new HashMap<>();
+        for (long n : liveSegments()) {
+            Records records;
+            try {
+                records = new Records(liveFile(n), HEADER_SIZE);
+            } catch (FileNotFoundException ex) {
+                continue;
+            }
+            try {
+                ArrayList<XBeeSample> found = new ArrayList<>();
+                XBeeSample sample;
+                while ((sample = records.next()) != null) {
+                    long t = sample.getTimestampMillis();
+                    if (sample.getAddress().toLong() == address && t >= fromMs && t <= toMs) {
+                        found.add(sample);
+                    }
+                }
+                live.put(n, found);
+            } finally {
+                records.close();
+            }
+        }
+        ArrayList<XBeeSample> samples = new ArrayList<>();
+        HashMap<Long, List<Segment>> days = new HashMap<>();
+        for (File dayDirectory : dayDirectories()) {
+            long day = parseDay(dayDirectory.getName());
+            if (day < fromMs / DAY_MS || day > toMs / DAY_MS) {
+                continue;
+            }
+            List<Segment> segments = segments(dayDirectory);
+            days.put(day, segments);
+            for (Segment segment : segments) {
+                readSegment(segment, address, fromMs, toMs, samples);
+            }
+        }
+        /* samples in live segments that have not been sealed into a day yet */
+        for (Map.Entry<Long, List<XBeeSample>> entry : live.entrySet()) {
+            for (XBeeSample sample : entry.getValue()) {
+                if (!isSealed(days.get(sample.getTimestampMillis() / DAY_MS), entry.getKey())) {
+                    samples.add(sample);
+                }
+            }
+        }
+        Collections.sort(samples, ORDER);
+        return samples;
+    }
+
+    private static boolean isSealed(List<Segment> segments, long live) {
+        if (segments != null) {
+            for (Segment segment : segments) {
+                if (segment.covers(live)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add one node's samples from a segment, using the index to find the
+     * first.
+     */
+    private static void readSegment(Segment segment, long address, long fromMs, long toMs,
+            List<XBeeSample> samples) throws IOException {
+        long offset = HEADER_SIZE;
+        try (RandomAccessFile file = new RandomAccessFile(segment.index, "r")) {
+            MappedByteBuffer index = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (index.getInt(0) != INDEX_MAGIC) {
+                throw new IOException(segment.index + " is not a segment index.");
+            }
+            /* last entry at or before (address, fromMs) */
+            int low = 0;
+            int high = (int) ((file.length() - 4) / INDEX_ENTRY_SIZE) - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int at = 4 + mid * INDEX_ENTRY_SIZE;
+                long a = index.getLong(at);
+                int c = Long.compare(a, address);
+                if (c == 0) {
+                    c = Long.compare(index.getLong(at + 8), fromMs);
+                }
+                if (c <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (found >= 0) {
+                offset = index.getLong(4 + found * INDEX_ENTRY_SIZE + 16);
+            }
+        }
+        try (Records records = new Records(segment.file, offset)) {
+            XBeeSample sample;
+            while ((sample = records.next()) != null) {
+                long a = sample.getAddress().toLong();
+                if (a < address) {
+                    continue;
+                }
+                long t = sample.getTimestampMillis();
+                if (a > address || t > toMs) {
+                    break;
+                }
+                if (t >= fromMs) {
+                    samples.add(sample);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start a new live segment.
+     */
+    private void roll() throws IOException {
+        if (live != null) {
+            flush();
+            live.close();
+            if (compactor != null) {
+                LockSupport.unpark(compactor);
+            }
+        }
+        long n = Math.max(liveSegment, lastSegment()) + 1;
+        liveSegment = n;
+        live = new RandomAccessFile(liveFile(n), "rw").getChannel();
+        live.truncate(0);
+        buffer.clear();
+        buffer.putInt(MAGIC).putShort(VERSION);
+        liveOpened = System.currentTimeMillis();
+    }
+
+    /**
+     * Seal finished live segments, merge small segments and delete old days.
+     * Errors are logged and the work is tried again next time.
+     */
+    private void compact() {
+        try {
+            for (long n : liveSegments()) {
+                if (n != liveSegment) {
+                    seal(n);
+                }
+            }
+            long today = System.currentTimeMillis() / DAY_MS;
+            for (File dayDirectory : dayDirectories()) {
+                long day = parseDay(dayDirectory.getName());
+                if (retention > 0 && day <= today - retention) {
+                    deleteDay(dayDirectory);
+                    continue;
+                }
+                List<Segment> all = allSegments(dayDirectory);
+                List<Segment> segments = latest(all);
+                for (Segment segment : all) {
+                    /* left by a merge that was interrupted */
+                    if (!segments.contains(segment)) {
+                        delete(segment);
+                    }
+                }
+                if (day < today && segments.size() > 1) {
+                    merge(dayDirectory, segments);
+                } else if (segments.size() > MAX_SEGMENTS) {
+                    merge(dayDirectory, similar(segments));
+                }
+            }
+        } catch (IOException ex) {
+            log.log(Level.ERROR, null, ex);
+        }
+    }
+
+    /**
+     * Sort a live segment's samples into a segment for each day they cover.
+     */
+    private void seal(long n) throws IOException {
+        File file = liveFile(n);
+        ArrayList<XBeeSample> samples = new ArrayList<>();
+        try (Records records = new Records(file, HEADER_SIZE)) {
+            XBeeSample sample;
+            while ((sample = records.next()) != null) {
+                samples.add(sample);
+            }
+        }
+        Collections.sort(samples, new Comparator<XBeeSample>() {
+            @Override
+            public int compare(XBeeSample a, XBeeSample b) {
+                int c = Long.compare(a.getTimestampMillis() / DAY_MS, b.getTimestampMillis() / DAY_MS);
+                return (c != 0) ? c : ORDER.compare(a, b);
+            }
+        });
+        SegmentWriter writer = null;
+        long day = -1;
+        for (XBeeSample sample : samples) {
+            long d = sample.getTimestampMillis() / DAY_MS;
+            if (writer == null || d != day) {
+                if (writer != null) {
+                    writer.close();
+                }
+                day = d;
+                writer = new SegmentWriter(new Segment(new File(directory, dayName(day)), n, n));
+            }
+            writer.append(sample);
+        }
+        if (writer != null) {
+            writer.close();
+        }
+        if (!file.delete()) {
+            throw new IOException("Cannot delete " + file + ".");
+        }
+    }
+
+    /**
+     * Merge a day's segments into one.
+     */
+    private void merge(File dayDirectory, List<Segment> segments) throws IOException {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        try {
+            for (Segment segment : segments) {
+                first = Math.min(first, segment.first);
+                last = Math.max(last, segment.last);
+                Cursor cursor = new Cursor(segment);
+                if (cursor.sample != null) {
+                    queue.add(cursor);
+                } else {
+                    cursor.records.close();
+                }
+            }
+            try (SegmentWriter writer = new SegmentWriter(new Segment(dayDirectory, first, last))) {
+                while (!queue.isEmpty()) {
+                    Cursor cursor = queue.poll();
+                    writer.append(cursor.sample);
+                    cursor.sample = cursor.records.next();
+                    if (cursor.sample != null) {
+                        queue.add(cursor);
+                    } else {
+                        cursor.records.close();
+                    }
+                }
+            }
+        } finally {
+            for (Cursor cursor : queue) {
+                cursor.records.close();
+            }
+        }
+        for (Segment segment : segments) {
+            delete(segment);
+        }
+    }
+
+    /**
+     * The next sample from one of the segments being merged.
+     */
+    private static final class Cursor implements Comparable<Cursor> {
+
+        private final Records records;
+        private final long order;
+        private XBeeSample sample;
+
+        Cursor(Segment segment) throws IOException {
+            records = new Records(segment.file, HEADER_SIZE);
+            order = segment.first;
+            sample = records.next();
+        }
+
+        @Override
+        public int compareTo(Cursor o) {
+            int c = ORDER.compare(sample, o.sample);
+            return (c != 0) ? c : Long.compare(order, o.order);
+        }
+    }
+
+    /**
+     * Choose which of today's segments to merge: the newest ones, back to the
+     * first that is much larger than those after it.  Each sample is then 
+     * rewritten a few times a day, rather than every time segments are 
+     * merged.
+     */
+    private static List<Segment> similar(List<Segment> segments) {
+        int start = segments.size() - 1;
+        long total = segments.get(start).file.length();
+        while (start > 0 && segments.get(start - 1).file.length() <= 2 * total) {
+            start--;
+            total += segments.get(start).file.length();
+        }
+        return segments.subList(Math.min(start, segments.size() - 2), segments.size());
+    }
+
+    private static void deleteDay(File dayDirectory) throws IOException {
+        File[] files = dayDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        if (!dayDirectory.delete()) {
+            throw new IOException("Cannot delete " + dayDirectory + ".");
+        }
+    }
+
+    private static void delete(Segment segment) throws IOException {
+        /* the index first, so readers stop using the segment */
+        if (!segment.index.delete() || !segment.file.delete()) {
+            throw new IOException("Cannot delete " + segment.file + ".");
+        }
+    }
+
+    /**
+     * Get a day's segments, leaving out any that are covered by another.
+     * @return Segments, in order.
+     */
+    private static List<Segment> segments(File dayDirectory) {
+        return latest(allSegments(dayDirectory));
+    }
+
+    /**
+     * Leave out segments that are covered by another.
+     * @return Segments, in order.
+     */
+    private static List<Segment> latest(List<Segment> all) {
+        all = new ArrayList<>(all);
+        Collections.sort(all, new Comparator<Segment>() {
+            @Override
+            public int compare(Segment a, Segment b) {
+                int c = Long.compare(a.first, b.first);
+                return (c != 0) ? c : Long.compare(b.last, a.last);
+            }
+        });
+        ArrayList<Segment> segments = new ArrayList<>();
+        long covered = Long.MIN_VALUE;
+        for (Segment segment : all) {
+            if (segment.last > covered) {
+                segments.add(segment);
+                covered = segment.last;
+            }
+        }
+        return segments;
+    }
+
+    private static List<Segment> allSegments(File dayDirectory) {
+        ArrayList<Segment> segments = new ArrayList<>();
+        String[] names = dayDirectory.list();
+        if (names == null) {
+            return segments;
+        }
+        for (String name : names) {
+            if (!name.endsWith(INDEX_SUFFIX)) {
+                continue;
+            }
+            String[] range = name.substring(0, name.length() - INDEX_SUFFIX.length()).split("-");
+            try {
+                segments.add(new Segment(dayDirectory,
+                        Long.parseLong(range[0]), Long.parseLong(range[1])));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                /* not a segment */
+            }
+        }
+        return segments;
+    }
+
+    private List<File> dayDirectories() {
+        ArrayList<File> days = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && parseDay(file.getName()) >= 0) {
+                    days.add(file);
+                }
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Get the numbers of the live segments, in order.
+     */
+    private List<Long> liveSegments() {
+        ArrayList<Long> segments = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(LIVE_SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(
+                                name.substring(0, name.length() - LIVE_SUFFIX.length())));
+                    } catch (NumberFormatException ex) {
+                        /* not a live segment */
+                    }
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Find the highest numbered live segment, sealed or not.
+     */
+    private long lastSegment() {
+        long last = 0;
+        for (long n : liveSegments()) {
+            last = Math.max(last, n);
+        }
+        for (File dayDirectory : dayDirectories()) {
+            for (Segment segment : allSegments(dayDirectory)) {
+                last = Math.max(last, segment.last);
+            }
+        }
+        return last;
+    }
+
+    private File liveFile(long n) {
+        return new File(directory, String.format("%016d", n) + LIVE_SUFFIX);
+    }
+
+    private static String dayName(long day) {
+        return dayFormat().format(new Date(day * DAY_MS));
+    }
+
+    /**
+     * Get the day number from a day directory name.
+     * @return Days since the epoch, or -1 if this is not a day directory.
+     */
+    private static long parseDay(String name) {
+        if (name.length() != 8) {
+            return -1;
+        }
+        try {
+            return dayFormat().parse(name).getTime() / DAY_MS;
+        } catch (ParseException ex) {
+            return -1;
+        }
+    }
+
+    private static SimpleDateFormat dayFormat() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        format.setLenient(false);
+        return format;
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            /* some platforms will not rename over an existing file */
+            if (!to.delete() || !from.renameTo(to)) {
+                throw new IOException("Cannot replace " + to + ".");
+            }
+        }
+    }
+}
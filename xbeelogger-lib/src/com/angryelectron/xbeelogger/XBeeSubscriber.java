@@ -0,0 +1,38 @@
+/**
+ * XBeeSubscriber.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * Receives items from an {@link XBeePublisher}.  Calls to a subscriber are 
+ * never concurrent, but may come from different threads.  They should return
+ * quickly; a subscriber that falls behind is handled by the publisher's 
+ * backpressure policy.
+ * @param <T> The type of item received.
+ */
+public interface XBeeSubscriber<T> {
+
+    /**
+     * Called once, before any other method.
+     * @param subscription Used to request items or cancel.
+     */
+    void onSubscribe(XBeeSubscription subscription);
+
+    /**
+     * Called with each item, but never more often than requested.
+     * @param item The item.
+     */
+    void onNext(T item);
+
+    /**
+     * Called if the subscription fails.  No more items will be delivered.
+     * @param error The cause.
+     */
+    void onError(Throwable error);
+
+    /**
+     * Called when the publisher is stopped.  No more items will be delivered.
+     */
+    void onComplete();
+}
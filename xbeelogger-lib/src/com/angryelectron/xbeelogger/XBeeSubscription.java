@@ -0,0 +1,26 @@
+/**
+ * XBeeSubscription.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+/**
+ * Links an {@link XBeeSubscriber} to its {@link XBeePublisher}.  May be used 
+ * from any thread.
+ */
+public interface XBeeSubscription {
+
+    /**
+     * Request more items.  Requests add up, so a subscriber can request one 
+     * item each time it finishes with the last, or Long.MAX_VALUE to receive
+     * everything.
+     * @param n Number of items, greater than 0.  Otherwise the subscription
+     * fails with an IllegalArgumentException.
+     */
+    void request(long n);
+
+    /**
+     * Stop receiving items.  Items already being delivered may still arrive.
+     */
+    void cancel();
+}
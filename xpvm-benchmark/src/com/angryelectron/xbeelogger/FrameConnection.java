@@ -0,0 +1,91 @@
+/**
+ * FrameConnection.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.XBeeConnection;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An in-memory connection that feeds API frames to xbee-api in place of a
+ * serial port.  Anything sent to the radio is discarded.
+ */
+public class FrameConnection implements XBeeConnection {
+
+    private final int[] buffer = new int[64 * 1024];
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    private final InputStream in = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            synchronized (FrameConnection.this) {
+                while (count == 0) {
+                    if (closed) {
+                        return -1;
+                    }
+                    try {
+                        FrameConnection.this.wait();
+                    } catch (InterruptedException ex) {
+                        throw new IOException(ex);
+                    }
+                }
+                int b = buffer[head];
+                head = (head + 1) % buffer.length;
+                count--;
+                FrameConnection.this.notifyAll();
+                return b;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (FrameConnection.this) {
+                return count;
+            }
+        }
+    };
+
+    private final OutputStream out = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+    };
+
+    /**
+     * Queue a frame to be received.  Blocks while the buffer is full.
+     * @param frame Escaped API frame.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public synchronized void write(int[] frame) throws InterruptedException {
+        for (int b : frame) {
+            while (count == buffer.length) {
+                wait();
+            }
+            buffer[(head + count) % buffer.length] = b;
+            count++;
+        }
+        /* xbee-api waits on the connection for new data */
+        notifyAll();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * IngestLatencyBenchmark.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.api.XBeeException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time from an API frame arriving at the serial port to its sample being
+ * written by XBeeLogWriter.  Frames pass through the xbee-api parser,
+ * XBeeSampleListener, the event bus and the writer queue, as they would from
+ * a radio.  Optionally, a second consumer that takes 1 ms per sample is
+ * subscribed to the bus, which should not change the result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestLatencyBenchmark {
+
+    @Param({"XML", "JOURNAL"})
+    String format;
+
+    @Param({"100"})
+    int nodes;
+
+    @Param({"false", "true"})
+    boolean slowConsumer;
+
+    private File file;
+    private FrameConnection connection;
+    private XBeeLogWriter writer;
+    private int[][] frames;
+    private int next;
+    private long sent;
+
+    @Setup
+    public void setup() throws IOException, XBeeException {
+        file = File.createTempFile("xpvm-benchmark", "");
+        file.delete();
+        XBeeLogWriter.Format f = XBeeLogWriter.Format.valueOf(format);
+        if (f == XBeeLogWriter.Format.JOURNAL) {
+            file.mkdirs();
+        }
+        frames = new int[nodes][];
+        for (int i = 0; i < nodes; i++) {
+            frames[i] = SyntheticSamples.frame(i, i);
+        }
+        connection = new FrameConnection();
+        writer = new XBeeLogWriter(file, null, null, f);
+        writer.setBatchSize(1);
+        writer.setFlushInterval(1);
+        writer.setReportInterval(0);
+        writer.start(connection);
+        if (slowConsumer) {
+            writer.getEventBus().subscribe("slow", XBeeEvent.SampleReceived.class,
+                    new XBeeEventHandler<XBeeEvent.SampleReceived>() {
+                        @Override
+                        public void handle(XBeeEvent.SampleReceived event) {
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException ex) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    }, 1024);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        writer.stop();
+        delete(file);
+    }
+
+    @Benchmark
+    public long packetToWritten() throws InterruptedException {
+        connection.write(frames[next]);
+        next = (next + 1) % nodes;
+        sent++;
+        while (writer.getStatistics().getWritten() < sent) {
+            Thread.yield();
+        }
+        return sent;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
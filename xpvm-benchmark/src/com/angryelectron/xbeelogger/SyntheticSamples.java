@@ -0,0 +1,206 @@
+/**
+ * SyntheticSamples.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.api.zigbee.ZNetRxIoSampleResponse;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Made-up I/O samples and API frames for benchmarks.  Every node samples
+ * AD0-AD3.
+ */
+public class SyntheticSamples {
+
+    private static final long BASE_ADDRESS = 0x0013A20040000000L;
+    private static final int ANALOG_MASK = 0x0f;
+
+    private SyntheticSamples() {
+    }
+
+    /**
+     * Get the address of a node.
+     * @param node Node number.
+     * @return 64-bit address.
+     */
+    public static long address(int node) {
+        return BASE_ADDRESS + node;
+    }
+
+    /**
+     * Get the Node Identifier of a node.
+     * @param node Node number.
+     * @return Node Identifier.
+     */
+    public static String name(int node) {
+        return "node-" + node;
+    }
+
+    /**
+     * Create a sample.
+     * @param node Node number.
+     * @param reading Varies the ADC values.
+     * @return A sample from the node.
+     */
+    public static XBeeSample sample(int node, int reading) {
+        return new XBeeSample(address(node), TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()),
+                0, ANALOG_MASK, 0, analog(node, reading), name(node));
+    }
+
+    /**
+     * Create the latest sample from each of several nodes.
+     * @param nodes Number of nodes.
+     * @return Samples, indexed by address.
+     */
+    public static HashMap<XBeeAddress, XBeeSample> samples(int nodes) {
+        HashMap<XBeeAddress, XBeeSample> samples = new HashMap<>();
+        for (int i = 0; i < nodes; i++) {
+            XBeeSample sample = sample(i, 0);
+            samples.put(sample.getAddress(), sample);
+        }
+        return samples;
+    }
+
+    /**
+     * Create an xbee-api sample, as received from the radio.
+     * @param node Node number.
+     * @param reading Varies the ADC values.
+     * @return IO sample response.
+     */
+    @SuppressWarnings("deprecation")
+    public static ZNetRxIoSampleResponse response(int node, int reading) {
+        return sample(node, reading).getIoSample();
+    }
+
+    /**
+     * Create an escaped (AP=2) API frame holding an IO sample, as sent by the
+     * local XBee.
+     * @param node Node number.
+     * @param reading Varies the ADC values.
+     * @return Frame bytes.
+     */
+    public static int[] frame(int node, int reading) {
+        return frame(node, reading, 0, ANALOG_MASK);
+    }
+
+    /**
+     * Create an escaped (AP=2) API frame holding an IO sample with the given
+     * channels enabled.
+     * @param node Node number.
+     * @param reading Varies the ADC and digital values.
+     * @param digitalMask Digital channel mask, DIO0-DIO12.
+     * @param analogMask Analog channel mask, AD0-AD3 and bit 7 for the
+     * supply voltage.
+     * @return Frame bytes.
+     */
+    public static int[] frame(int node, int reading, int digitalMask, int analogMask) {
+        int[] analog = analog(node, reading);
+        analog[XBeeSample.SUPPLY_VOLTAGE] = 3000 + (reading & 0xff);
+        int[] data = new int[16 + 2 + 2 * XBeeSample.ANALOG_CHANNELS];
+        int n = 0;
+        data[n++] = 0x92; /* ZNET_IO_SAMPLE_RESPONSE */
+        n = putAddress(data, n, node);
+        data[n++] = 0x01; /* receive options */
+        data[n++] = 0x01; /* number of samples */
+        data[n++] = (digitalMask >> 8) & 0xff;
+        data[n++] = digitalMask & 0xff;
+        data[n++] = analogMask & 0xff;
+        if (digitalMask != 0) {
+            int dio = (node + reading) & digitalMask;
+            data[n++] = (dio >> 8) & 0xff;
+            data[n++] = dio & 0xff;
+        }
+        for (int i = 0; i < XBeeSample.ANALOG_CHANNELS; i++) {
+            /* the supply voltage is bit 7 of the mask */
+            int bit = (i == XBeeSample.SUPPLY_VOLTAGE) ? 7 : i;
+            if ((analogMask & (1 << bit)) != 0) {
+                data[n++] = (analog[i] >> 8) & 0xff;
+                data[n++] = analog[i] & 0xff;
+            }
+        }
+        return escape(data, n);
+    }
+
+    /**
+     * Create an escaped (AP=2) API frame holding a node's reply to a remote
+     * NI command, as sent by the local XBee.
+     * @param node Node number.
+     * @return Frame bytes.
+     */
+    public static int[] identifyFrame(int node) {
+        String name = name(node);
+        int[] data = new int[15 + name.length()];
+        int n = 0;
+        data[n++] = 0x97; /* REMOTE_AT_RESPONSE */
+        data[n++] = 0x01; /* frame id */
+        n = putAddress(data, n, node);
+        data[n++] = 'N';
+        data[n++] = 'I';
+        data[n++] = 0x00; /* status OK */
+        for (int i = 0; i < name.length(); i++) {
+            data[n++] = name.charAt(i);
+        }
+        return escape(data, n);
+    }
+
+    /**
+     * Get the node number of a synthetic sample.
+     * @param address Address of a node created by this class.
+     * @return Node number.
+     */
+    public static int node(XBeeAddress address) {
+        return (int) (address.toLong() - BASE_ADDRESS);
+    }
+
+    private static int putAddress(int[] data, int n, int node) {
+        long address = address(node);
+        for (int i = 0; i < 8; i++) {
+            data[n++] = (int) (address >>> (56 - 8 * i)) & 0xff;
+        }
+        data[n++] = 0xff; /* 16-bit address */
+        data[n++] = 0xfe;
+        return n;
+    }
+
+    /**
+     * Frame and escape the first length bytes of data.
+     */
+    private static int[] escape(int[] data, int length) {
+        int checksum = 0;
+        for (int i = 0; i < length; i++) {
+            checksum += data[i];
+        }
+        int[] frame = new int[2 * (length + 3) + 1];
+        int f = 0;
+        frame[f++] = 0x7e;
+        f = escape(frame, f, length >> 8);
+        f = escape(frame, f, length & 0xff);
+        for (int i = 0; i < length; i++) {
+            f = escape(frame, f, data[i]);
+        }
+        f = escape(frame, f, 0xff - (checksum & 0xff));
+        int[] result = new int[f];
+        System.arraycopy(frame, 0, result, 0, f);
+        return result;
+    }
+
+    private static int escape(int[] frame, int f, int b) {
+        if (b == 0x7e || b == 0x7d || b == 0x11 || b == 0x13) {
+            frame[f++] = 0x7d;
+            frame[f++] = b ^ 0x20;
+        } else {
+            frame[f++] = b;
+        }
+        return f;
+    }
+
+    private static int[] analog(int node, int reading) {
+        int[] analog = new int[XBeeSample.ANALOG_CHANNELS];
+        for (int i = 0; i < 4; i++) {
+            analog[i] = (node * 7 + reading * 13 + i * 101) & 0x3ff;
+        }
+        return analog;
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * XBeeAddressBenchmark.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.api.XBeeAddress64;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creating, converting and looking up addresses, as done for every packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XBeeAddressBenchmark {
+
+    private long value;
+    private String text;
+    private XBeeAddress64 address64;
+    private XBeeAddress address;
+    private HashMap<XBeeAddress, XBeeSample> samples;
+
+    @Setup
+    public void setup() {
+        value = SyntheticSamples.address(500);
+        address = new XBeeAddress(value);
+        text = address.toString();
+        address64 = XBeeAddress.toXBeeAddress64(text);
+        samples = SyntheticSamples.samples(1000);
+    }
+
+    @Benchmark
+    public XBeeAddress fromString() {
+        return new XBeeAddress(text);
+    }
+
+    @Benchmark
+    public XBeeAddress fromAddress64() {
+        return new XBeeAddress(address64);
+    }
+
+    @Benchmark
+    public String toStringNew() {
+        return new XBeeAddress(value).toString();
+    }
+
+    @Benchmark
+    public String toStringCached() {
+        return address.toString();
+    }
+
+    @Benchmark
+    public XBeeAddress64 toXBeeAddress64New() {
+        return new XBeeAddress(value).toXBeeAddress64();
+    }
+
+    @Benchmark
+    public String toXBeeAddress() {
+        return XBeeAddress.toXBeeAddress(address64);
+    }
+
+    @Benchmark
+    public XBeeSample lookup() {
+        return samples.get(new XBeeAddress(address64));
+    }
+}
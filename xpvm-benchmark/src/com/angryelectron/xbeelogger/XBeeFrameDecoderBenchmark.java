@@ -0,0 +1,126 @@
+/**
+ * XBeeFrameDecoderBenchmark.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.api.PacketParser;
+import com.rapplogic.xbee.api.XBeeResponse;
+import com.rapplogic.xbee.api.zigbee.ZNetRxIoSampleResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Turning received I/O sample frames into samples, through xbee-api and
+ * through {@link XBeeFrameDecoder}.  Times are per frame.  Run with
+ * -prof gc to compare the garbage created.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XBeeFrameDecoderBenchmark {
+
+    private static final int FRAMES = 1000;
+
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private XBeeFrameDecoder decoder;
+    private XBeeFrameDecoder sampleDecoder;
+    private long sum;
+    private XBeeSample last;
+
+    @Setup
+    public void setup() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < FRAMES; i++) {
+            for (int b : SyntheticSamples.frame(i, i, 0x0c, 0x8f)) {
+                out.write(b);
+            }
+        }
+        bytes = out.toByteArray();
+        buffer = ByteBuffer.wrap(bytes);
+        decoder = new XBeeFrameDecoder(new Handler() {
+            @Override
+            public void sample(long address, int digitalMask, int analogMask, int dio, long analog) {
+                sum += address + dio + analog;
+            }
+        });
+        sampleDecoder = new XBeeFrameDecoder(new Handler() {
+            @Override
+            public void sample(long address, int digitalMask, int analogMask, int dio, long analog) {
+                last = new XBeeSample(new XBeeAddress(address),
+                        TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()),
+                        digitalMask, analogMask, dio, analog, "Unknown");
+            }
+        });
+    }
+
+    /**
+     * Parse with xbee-api and copy into a sample, as XBeeSampleListener does
+     * without the fast path.
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public XBeeSample xbeeApi() {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        XBeeSample sample = null;
+        /* the parser starts after the start delimiter */
+        while (in.read() == 0x7e) {
+            XBeeResponse response = new PacketParser(in).parsePacket();
+            sample = new XBeeSample((ZNetRxIoSampleResponse) response);
+        }
+        return sample;
+    }
+
+    /**
+     * Decode only.
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long decode() {
+        buffer.clear();
+        decoder.decode(buffer);
+        return sum;
+    }
+
+    /**
+     * Decode into a sample, as XBeeSampleListener does on the fast path.
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public XBeeSample decodeSample() {
+        buffer.clear();
+        sampleDecoder.decode(buffer);
+        return last;
+    }
+
+    /**
+     * Ignores everything but samples.
+     */
+    private static abstract class Handler implements XBeeFrameDecoder.Handler {
+
+        @Override
+        public void identified(long address, byte[] name, int offset, int length) {
+        }
+
+        @Override
+        public void other(byte[] frame, int length) {
+        }
+    }
+}
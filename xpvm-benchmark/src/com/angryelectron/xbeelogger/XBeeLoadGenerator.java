@@ -0,0 +1,313 @@
+/**
+ * XBeeLoadGenerator.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.api.XBeeException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load-test XBeeLogWriter without radios, to find how many nodes a gateway
+ * can handle.
+ * <p>
+ * Virtual nodes send I/O sample frames (and an NI reply after their first
+ * sample) as escaped API-mode bytes, which pass through the xbee-api parser
+ * (or the fast-path decoder, with -x), XBeeSampleListener, the event bus and
+ * the writer exactly as they would from a serial port.  Nodes may be spread
+ * over several coordinators, each with its own connection and receive thread.
+ * Each node count is run for a fixed time, and one line is printed with the
+ * sustained rate, the latency from a frame being sent to its sample reaching
+ * an event bus consumer, and the growth of the heap.  A step is marked
+ * SATURATED if frames could not be sent or received at 95% of the
+ * offered rate, or any samples were dropped.
+ * <pre>
+ * java -cp dist/xpvm-benchmark.jar com.angryelectron.xbeelogger.XBeeLoadGenerator \
+ *     -n 100,1000,10000 -c 2 -r 1 -d 30 -f JOURNAL
+ * </pre>
+ */
+public class XBeeLoadGenerator {
+
+    /**
+     * Send times kept for each node.  A node's samples are delivered in order,
+     * so the n'th sample received matches the n'th sent.
+     */
+    private static final int WINDOW = 64;
+
+    private final int nodes;
+    private final int coordinators;
+    private final double rate;
+    private final long duration;
+    private final int digitalMask;
+    private final int analogMask;
+    private final boolean identify;
+    private final boolean fastPath;
+    private final XBeeLogWriter.Format format;
+
+    /* written by the generator, read by the consumer */
+    private final AtomicLongArray sent;
+
+    /* used only by the consumer's thread until it is unsubscribed */
+    private final int[] received;
+    private long[] latencies = new long[1024];
+    private int count = 0;
+    private long lastReceived;
+
+    XBeeLoadGenerator(int nodes, int coordinators, double rate, long durationMs,
+            int digitalMask, int analogMask, boolean identify, boolean fastPath,
+            XBeeLogWriter.Format format) {
+        this.nodes = nodes;
+        this.coordinators = coordinators;
+        this.rate = rate;
+        this.duration = durationMs;
+        this.digitalMask = digitalMask;
+        this.analogMask = analogMask;
+        this.identify = identify;
+        this.fastPath = fastPath;
+        this.format = format;
+        this.sent = new AtomicLongArray(nodes * WINDOW);
+        this.received = new int[nodes];
+    }
+
+    /**
+     * Run one step and print the results.
+     */
+    void run() throws IOException, XBeeException, InterruptedException {
+        File directory = File.createTempFile("xpvm-load", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create " + directory + ".");
+        }
+        File file = (format == XBeeLogWriter.Format.XML)
+                ? new File(directory, "samples.xml") : directory;
+        FrameConnection[] connections = new FrameConnection[coordinators];
+        for (int i = 0; i < coordinators; i++) {
+            connections[i] = new FrameConnection();
+        }
+        XBeeLogWriter writer = new XBeeLogWriter(file, null, null, format);
+        writer.setReportInterval(0);
+        writer.setStaleAfter(0);
+        writer.setQueueCapacity(Math.max(4096, 2 * nodes));
+        writer.setFastPath(fastPath);
+        writer.start(connections);
+        XBeeEventConsumer<XBeeEvent.SampleReceived> consumer = writer.getEventBus().subscribe(
+                "XBeeLoadGenerator", XBeeEvent.SampleReceived.class,
+                new XBeeEventHandler<XBeeEvent.SampleReceived>() {
+                    @Override
+                    public void handle(XBeeEvent.SampleReceived event) {
+                        record(event.getSample());
+                    }
+                }, 1 << 16);
+
+        long heapBefore = usedHeap();
+        long total = 0;
+        for (int i = 0; i < coordinators; i++) {
+            total += frames(i);
+        }
+        final long start = System.nanoTime();
+        Thread[] senders = new Thread[coordinators];
+        for (int i = 0; i < coordinators; i++) {
+            final int coordinator = i;
+            final FrameConnection connection = connections[i];
+            senders[i] = new Thread("XBeeLoadGenerator-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        send(coordinator, connection, start);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            senders[i].start();
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+        long sendNanos = System.nanoTime() - start;
+        /* allow a second for the last samples to arrive */
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (consumer.getStatistics().getDelivered() < total && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long heapAfter = usedHeap();
+        XBeeLogStatistics statistics = writer.getStatistics();
+        writer.getEventBus().unsubscribe(consumer);
+        writer.stop();
+        delete(directory);
+
+        long delivered = count;
+        long receiveNanos = Math.max(1, lastReceived - start);
+        long dropped = consumer.getStatistics().getDropped() + statistics.getDropped();
+        double offered = nodes * rate;
+        double sentRate = total * 1e9 / sendNanos;
+        /* the frames could not even be sent on time if the parser fell behind */
+        boolean saturated = sentRate < offered * 0.95 || delivered < total * 0.95 || dropped > 0;
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        System.out.printf("nodes=%d coordinators=%d offered=%.0f/s sent=%.0f/s received=%.0f/s "
+                + "latency(p50/p90/p99/p99.9/max)=%.2f/%.2f/%.2f/%.2f/%.2fms "
+                + "heap=%+.1fMB written=%d coalesced=%d dropped=%d%s%n",
+                nodes, coordinators, offered, sentRate, delivered * 1e9 / receiveNanos,
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), percentile(sorted, 1),
+                (heapAfter - heapBefore) / 1048576.0,
+                statistics.getWritten(), statistics.getCoalesced(), dropped,
+                saturated ? " SATURATED" : "");
+    }
+
+    /**
+     * Send frames from the nodes of one coordinator, nodes c, c + n, c + 2n
+     * and so on, at their share of the offered rate.
+     */
+    private void send(int coordinator, FrameConnection connection, long start)
+            throws InterruptedException {
+        int share = share(coordinator);
+        long total = frames(coordinator);
+        double perNano = share * rate / TimeUnit.SECONDS.toNanos(1);
+        long next = 0;
+        while (next < total) {
+            long due = Math.min(total, (long) ((System.nanoTime() - start) * perNano) + 1);
+            if (next >= due) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(200));
+                continue;
+            }
+            for (; next < due; next++) {
+                int node = coordinator + (int) (next % share) * coordinators;
+                int reading = (int) (next / share);
+                sent.set(node * WINDOW + reading % WINDOW, System.nanoTime());
+                connection.write(SyntheticSamples.frame(node, reading, digitalMask, analogMask));
+                if (identify && reading == 0) {
+                    connection.write(SyntheticSamples.identifyFrame(node));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of nodes on a coordinator.
+     */
+    private int share(int coordinator) {
+        return (nodes - coordinator + coordinators - 1) / coordinators;
+    }
+
+    /**
+     * Get the number of sample frames sent through a coordinator.
+     */
+    private long frames(int coordinator) {
+        return (long) (share(coordinator) * rate * duration / 1000);
+    }
+
+    private void record(XBeeSample sample) {
+        long now = System.nanoTime();
+        int node = SyntheticSamples.node(sample.getAddress());
+        int n = received[node]++;
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, 2 * count);
+        }
+        latencies[count++] = now - sent.get(node * WINDOW + n % WINDOW);
+        lastReceived = now;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void showHelp() {
+        System.out.println("XBeeLoadGenerator [options]");
+        System.out.println(" -n <list>    Node counts to run, eg. 10,100,1000 (default).");
+        System.out.println(" -c <n>       Coordinators, each with its own connection (default 1).");
+        System.out.println(" -r <hz>      Samples per second from each node (default 1).");
+        System.out.println(" -d <s>       Seconds to run each node count (default 10).");
+        System.out.println(" -a <mask>    Analog channel mask; bit 7 is the supply voltage (default 0x0f).");
+        System.out.println(" -D <mask>    Digital channel mask (default 0).");
+        System.out.println(" -f <format>  XML, JOURNAL, ARCHIVE or SEGMENTS (default XML).");
+        System.out.println(" -i           Do not send NI replies.");
+        System.out.println(" -x           Decode samples on the fast path instead of with xbee-api.");
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<Integer> counts = new ArrayList<>(Arrays.asList(10, 100, 1000));
+        int coordinators = 1;
+        double rate = 1;
+        long seconds = 10;
+        int analogMask = 0x0f;
+        int digitalMask = 0;
+        boolean identify = true;
+        boolean fastPath = false;
+        XBeeLogWriter.Format format = XBeeLogWriter.Format.XML;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-n":
+                        counts.clear();
+                        for (String n : args[++i].split(",")) {
+                            counts.add(Integer.parseInt(n));
+                        }
+                        break;
+                    case "-c":
+                        coordinators = Integer.parseInt(args[++i]);
+                        break;
+                    case "-r":
+                        rate = Double.parseDouble(args[++i]);
+                        break;
+                    case "-d":
+                        seconds = Long.parseLong(args[++i]);
+                        break;
+                    case "-a":
+                        analogMask = Integer.decode(args[++i]);
+                        break;
+                    case "-D":
+                        digitalMask = Integer.decode(args[++i]);
+                        break;
+                    case "-f":
+                        format = XBeeLogWriter.Format.valueOf(args[++i].toUpperCase());
+                        break;
+                    case "-i":
+                        identify = false;
+                        break;
+                    case "-x":
+                        fastPath = true;
+                        break;
+                    default:
+                        showHelp();
+                        System.exit(args[i].equals("-h") ? 0 : -1);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            showHelp();
+            System.exit(-1);
+        }
+        for (int nodes : counts) {
+            new XBeeLoadGenerator(nodes, coordinators, rate, TimeUnit.SECONDS.toMillis(seconds),
+                    digitalMask, analogMask, identify, fastPath, format).run();
+        }
+        System.exit(0);
+    }
+}
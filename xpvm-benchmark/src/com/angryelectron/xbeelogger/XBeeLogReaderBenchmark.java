@@ -0,0 +1,69 @@
+/**
+ * XBeeLogReaderBenchmark.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looking up the latest sample by Node Identifier and by address.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XBeeLogReaderBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    int nodes;
+
+    private final XBeeLogReader reader = new XBeeLogReader();
+    private String[] names;
+    private XBeeAddress[] addresses;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        File file = File.createTempFile("xpvm-benchmark", ".xml");
+        try {
+            new XBeeSampleStream(file).write(SyntheticSamples.samples(nodes));
+            reader.loadSampleData(file);
+        } finally {
+            file.delete();
+        }
+        names = new String[nodes];
+        addresses = new XBeeAddress[nodes];
+        for (int i = 0; i < nodes; i++) {
+            names[i] = SyntheticSamples.name(i);
+            addresses[i] = new XBeeAddress(SyntheticSamples.address(i));
+        }
+    }
+
+    @Benchmark
+    public XBeeSample getSampleByName() throws NoSuchFieldException {
+        next = (next + 1) % nodes;
+        return reader.getSampleByName(names[next]);
+    }
+
+    @Benchmark
+    public XBeeSample getSampleByAddress() throws NoSuchFieldException {
+        next = (next + 1) % nodes;
+        return reader.getSampleByAddress(addresses[next]);
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * XBeeProgrammerBenchmark.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.rapplogic.xbee.api.XBeeException;
+import com.rapplogic.xbee.api.XBeePacket;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Programming a 15-command profile into a simulated radio, one command at a
+ * time and as a single batch.  The radio handles one frame at a time, takes
+ * longer for a frame that applies settings, and each reply arrives a fixed
+ * serial round trip after the radio has finished with its frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XBeeProgrammerBenchmark {
+
+    /** Serial round trip, in ms. */
+    @Param({"10"})
+    int latency;
+
+    /** Time for the radio to apply changed settings, in ms. */
+    @Param({"5"})
+    int apply;
+
+    private SimulatedRadio radio;
+    private XBeeProgrammer programmer;
+    private XBeeCommandBatch profile;
+
+    @Setup
+    public void setup() throws XBeeException {
+        radio = new SimulatedRadio(latency, apply);
+        programmer = new XBeeProgrammer();
+        programmer.open(radio);
+        profile = new XBeeCommandBatch()
+                .add("ID", "7FFF")
+                .add("NI", "BENCHMARK")
+                .add("D0", 2)
+                .add("D1", 2)
+                .add("D2", 2)
+                .add("D3", 2)
+                .add("D4", 2)
+                .add("D5", 1)
+                .add("D6", 0)
+                .add("D7", 1)
+                .add("P0", 1)
+                .add("PR", 0)
+                .add("IR", "3E8")
+                .add("SP", "AF0")
+                .add("WR");
+    }
+
+    @TearDown
+    public void tearDown() {
+        programmer.close();
+        radio.shutdown();
+    }
+
+    /**
+     * One synchronous command at a time, as XBeeProgrammer used to work.
+     */
+    @Benchmark
+    public void commandByCommand() throws XBeeException {
+        for (int i = 0; i < profile.size(); i++) {
+            int[] value = profile.getValue(i);
+            if (value == null) {
+                programmer.command(profile.getCommand(i));
+            } else {
+                programmer.command(profile.getCommand(i), value);
+            }
+        }
+    }
+
+    /**
+     * Every command queued and sent back to back.
+     */
+    @Benchmark
+    public void batch() throws XBeeException {
+        for (XBeeCommandResult result : programmer.command(profile)) {
+            if (!result.isOk()) {
+                throw new XBeeException(result.toString());
+            }
+        }
+    }
+
+    /**
+     * A radio that answers local AT commands.  Queued settings (0x09) are
+     * cheap; an AT command (0x08) applies anything queued.
+     */
+    static class SimulatedRadio extends FrameConnection {
+
+        private final ScheduledExecutorService replies = Executors.newSingleThreadScheduledExecutor();
+        private final int latency;
+        private final int apply;
+        private final int[] frame = new int[256];
+        private int length;
+        private int position = -3;
+        private boolean escaped = false;
+        private boolean queued = false;
+        private long busyUntil = 0;
+
+        private final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                received(b);
+            }
+        };
+
+        SimulatedRadio(int latency, int apply) {
+            this.latency = latency;
+            this.apply = apply;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        void shutdown() {
+            replies.shutdownNow();
+        }
+
+        /**
+         * Unescape and frame the bytes sent to the radio.
+         */
+        private synchronized void received(int b) {
+            if (b == 0x7e) {
+                position = -2;
+                escaped = false;
+                return;
+            }
+            if (b == 0x7d) {
+                escaped = true;
+                return;
+            }
+            if (escaped) {
+                b ^= 0x20;
+                escaped = false;
+            }
+            if (position == -2) {
+                length = b << 8;
+                position++;
+            } else if (position == -1) {
+                length |= b;
+                position++;
+            } else if (position >= 0 && position < length) {
+                frame[position++] = b;
+            } else if (position == length) {
+                /* checksum */
+                position = -3;
+                handle(Arrays.copyOf(frame, length));
+            }
+        }
+
+        /**
+         * Answer 0x08 and 0x09 frames OK, one at a time.
+         */
+        private void handle(int[] request) {
+            long now = System.nanoTime() / 1000000;
+            long cost = 1;
+            if (request[0] == 0x09) {
+                queued = true;
+            } else if (request[0] == 0x08 && (queued || request.length > 4)) {
+                cost += apply;
+                queued = false;
+            } else if (request[0] != 0x08) {
+                return;
+            }
+            busyUntil = Math.max(now, busyUntil) + cost;
+            final int[] response = new int[]{0x88, request[1], request[2], request[3], 0};
+            replies.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        write(new XBeePacket(response).getByteArray());
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, busyUntil + latency - now, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * XBeeSampleArchiveBenchmark.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding an hour of 1 Hz samples from one node in the
+ * compressed archive.  The achieved size, in bytes per sample, is printed when
+ * each trial ends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XBeeSampleArchiveBenchmark {
+
+    private static final int SAMPLES = 3600;
+
+    /**
+     * Random timing jitter, in ms.  0 for a perfectly regular sample rate.
+     */
+    @Param({"0", "20"})
+    int jitter;
+
+    private final XBeeSample[] samples = new XBeeSample[SAMPLES];
+    private final XBeeAddress address = new XBeeAddress(SyntheticSamples.address(0));
+    private File encodeDirectory;
+    private File decodeDirectory;
+    private XBeeSampleArchive encoder;
+    private XBeeSampleArchive decoder;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(1);
+        int[] analog = {300, 500, 200, 700, 3000};
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < SAMPLES; i++) {
+            /* slowly drifting readings with a little noise */
+            for (int c = 0; c < 4; c++) {
+                analog[c] = Math.max(0, Math.min(1023, analog[c] + random.nextInt(5) - 2));
+            }
+            long t = time + i * 1000L + ((jitter == 0) ? 0 : random.nextInt(2 * jitter) - jitter);
+            samples[i] = new XBeeSample(address, TimeUnit.MILLISECONDS.toNanos(t), 0, 0x0f, 0,
+                    analog, SyntheticSamples.name(0));
+        }
+        encodeDirectory = directory("encode");
+        encoder = new XBeeSampleArchive(encodeDirectory);
+        encoder.setBlockSize(SAMPLES);
+        decodeDirectory = directory("decode");
+        XBeeSampleArchive archive = new XBeeSampleArchive(decodeDirectory);
+        archive.setBlockSize(SAMPLES);
+        for (XBeeSample sample : samples) {
+            archive.append(sample);
+        }
+        decoder = archive;
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%.3f bytes/sample%n",
+                (double) encoder.getBytesWritten() / encoder.getSamplesWritten());
+        delete(encodeDirectory);
+        delete(decodeDirectory);
+    }
+
+    @Benchmark
+    public long encode() throws IOException {
+        for (XBeeSample sample : samples) {
+            encoder.append(sample);
+        }
+        return encoder.getBytesWritten();
+    }
+
+    @Benchmark
+    public List<XBeeSample> decode() throws NoSuchFieldException, IOException {
+        return decoder.read(address, 0, Long.MAX_VALUE);
+    }
+
+    private static File directory(String name) throws IOException {
+        File file = File.createTempFile("xpvm-benchmark-" + name, "");
+        if (!file.delete() || !file.mkdir()) {
+            throw new IOException("Cannot create " + file + ".");
+        }
+        return file;
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * XBeeSampleRegistryStress.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Check that XBeeSampleRegistry never loses a Node Identifier when samples and
+ * NI responses for the same nodes arrive on different threads at once.
+ * <p>
+ * Each round starts an empty registry, and released together, sample threads
+ * store samples for random nodes for as long as NI threads are renaming them.
+ * Samples carry an out-of-date name, as a sample decoded before an NI response
+ * would.  Each node is renamed by only one NI thread, so its last name is
+ * known.  Reading a sample's name yields the CPU, and the registry does that
+ * between looking up a node's name and storing the sample, so the threads
+ * interleave there even on a single CPU.  Once every thread has finished,
+ * every node's sample, its entry in a snapshot and a lookup by its last name
+ * must all agree on that name.
+ * <p>
+ * The inputs of each round come from the seed, so a failing run can be
+ * repeated with -S, although the interleaving of the threads will differ.
+ * Exits with status 1 if any node ends with the wrong name.
+ * <pre>
+ * java -cp dist/xpvm-benchmark.jar com.angryelectron.xbeelogger.XBeeSampleRegistryStress \
+ *     -n 64 -s 4 -i 4 -r 500
+ * </pre>
+ */
+public class XBeeSampleRegistryStress {
+
+    private static final long BASE_ADDRESS = 0x0013a20040000000L;
+    private static final String STALE = "Unknown";
+
+    private final int nodes;
+    private final int sampleThreads;
+    private final int niThreads;
+    private final int updates;
+    private final long seed;
+
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+
+    /**
+     * A sample that gives up the CPU whenever its name is read.
+     */
+    private static final class YieldingSample extends XBeeSample {
+
+        YieldingSample(long address, long time, int[] analog, String name) {
+            super(address, time, 0, 0x0f, 0, analog, name);
+        }
+
+        @Override
+        public String getNodeIdentifier() {
+            Thread.yield();
+            return super.getNodeIdentifier();
+        }
+    }
+
+    XBeeSampleRegistryStress(int nodes, int sampleThreads, int niThreads, int updates, long seed) {
+        this.nodes = nodes;
+        this.sampleThreads = sampleThreads;
+        this.niThreads = niThreads;
+        this.updates = updates;
+        this.seed = seed;
+    }
+
+    /**
+     * Run one round.
+     * @return Number of nodes that ended with the wrong name.
+     */
+    int round(final int round) throws InterruptedException {
+        final XBeeSampleRegistry registry = new XBeeSampleRegistry();
+        for (int node = 0; node < nodes; node++) {
+            registry.update(sample(node, 0, STALE));
+        }
+        final String[] expected = new String[nodes];
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch renamed = new CountDownLatch(niThreads);
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < sampleThreads; t++) {
+            final Random random = new Random(seed * 31 + round * 1009 + t);
+            threads.add(new Thread("samples-" + t) {
+                @Override
+                public void run() {
+                    await(start);
+                    long i = 0;
+                    while (renamed.getCount() > 0) {
+                        int node = random.nextInt(nodes);
+                        registry.update(sample(node, ++i, random.nextBoolean() ? STALE
+                                : name(round, node, random.nextInt(updates))));
+                    }
+                    samples.addAndGet(i);
+                }
+            });
+        }
+        for (int t = 0; t < niThreads; t++) {
+            final int first = t;
+            final Random random = new Random(seed * 31 + round * 1009 + sampleThreads + t);
+            threads.add(new Thread("names-" + t) {
+                @Override
+                public void run() {
+                    await(start);
+                    for (int i = 0; i < updates; i++) {
+                        /* this thread owns every niThreads'th node */
+                        int node = first + niThreads * random.nextInt((nodes - first + niThreads - 1) / niThreads);
+                        expected[node] = name(round, node, i);
+                        registry.identify(address(node), expected[node]);
+                    }
+                    renamed.countDown();
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        int wrong = 0;
+        for (int node = 0; node < nodes; node++) {
+            if (expected[node] == null) {
+                continue;
+            }
+            XBeeAddress address = address(node);
+            XBeeSample sample = registry.get(address);
+            XBeeSample snapshot = registry.snapshot().get(address);
+            XBeeSample byName = registry.getByName(expected[node]);
+            if (!expected[node].equals(sample.getNodeIdentifier())
+                    || !expected[node].equals(snapshot.getNodeIdentifier())
+                    || byName == null || !byName.getAddress().equals(address)) {
+                wrong++;
+                System.out.println("Round " + round + ": " + address + " expected "
+                        + expected[node] + ", sample " + sample.getNodeIdentifier()
+                        + ", snapshot " + snapshot.getNodeIdentifier() + ", by name "
+                        + ((byName == null) ? "none" : byName.getAddress()));
+            }
+        }
+        failures.addAndGet(wrong);
+        return wrong;
+    }
+
+    private static XBeeSample sample(int node, long time, String name) {
+        return new YieldingSample(BASE_ADDRESS + node, time, new int[]{node, 0, 0, 0, 0}, name);
+    }
+
+    private static XBeeAddress address(int node) {
+        return new XBeeAddress(BASE_ADDRESS + node);
+    }
+
+    private static String name(int round, int node, int i) {
+        return "R" + round + "N" + node + "-" + i;
+    }
+
+    private static void await(CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void showHelp() {
+        System.out.println("XBeeSampleRegistryStress [options]");
+        System.out.println(" -n <nodes>   Number of nodes (default 64).");
+        System.out.println(" -s <threads> Threads storing samples (default 4).");
+        System.out.println(" -i <threads> Threads renaming nodes (default 4).");
+        System.out.println(" -u <updates> Names sent by each NI thread per round (default 10000).");
+        System.out.println(" -r <rounds>  Number of rounds (default 100).");
+        System.out.println(" -S <seed>    Seed for the inputs (default 1).");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodes = 64;
+        int sampleThreads = 4;
+        int niThreads = 4;
+        int updates = 10000;
+        int rounds = 100;
+        long seed = 1;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-n":
+                        nodes = Integer.parseInt(args[++i]);
+                        break;
+                    case "-s":
+                        sampleThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-i":
+                        niThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-u":
+                        updates = Integer.parseInt(args[++i]);
+                        break;
+                    case "-r":
+                        rounds = Integer.parseInt(args[++i]);
+                        break;
+                    case "-S":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        showHelp();
+                        System.exit(args[i].equals("-h") ? 0 : -1);
+                }
+            }
+            if (nodes < 1 || sampleThreads < 1 || niThreads < 1 || niThreads > nodes || updates < 1) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            showHelp();
+            System.exit(-1);
+        }
+        XBeeSampleRegistryStress stress = new XBeeSampleRegistryStress(nodes, sampleThreads,
+                niThreads, updates, seed);
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            stress.round(round);
+        }
+        System.out.printf("%d rounds of %d nodes, %d NI threads sending %d names and %d sample "
+                + "threads sending %d samples: %d wrong names in %.1fs%n", rounds, nodes,
+                niThreads, updates, sampleThreads, stress.samples.get(),
+                stress.failures.get(), (System.nanoTime() - start) / 1e9);
+        System.exit(stress.failures.get() == 0 ? 0 : 1);
+    }
+}
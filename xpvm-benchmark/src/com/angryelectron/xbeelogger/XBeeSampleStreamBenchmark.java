@@ -0,0 +1,91 @@
+/**
+ * XBeeSampleStreamBenchmark.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xbeelogger;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.xml.StaxDriver;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing and reading the XML sample file.  The file is read with the
+ * streaming parser and, for comparison, with XStream as it used to be, and
+ * searched for the node in the middle of the file by address and by name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XBeeSampleStreamBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    int nodes;
+
+    private File file;
+    private XBeeSampleStream stream;
+    private HashMap<XBeeAddress, XBeeSample> samples;
+    private XStream xstream;
+    private XBeeAddress address;
+    private String name;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("xpvm-benchmark", ".xml");
+        stream = new XBeeSampleStream(file);
+        samples = SyntheticSamples.samples(nodes);
+        stream.write(samples);
+        xstream = new XStream(new StaxDriver());
+        xstream.registerConverter(new XBeeAddressConverter());
+        xstream.registerConverter(new XBeeSampleConverter());
+        address = new XBeeAddress(SyntheticSamples.address(nodes / 2));
+        name = SyntheticSamples.name(nodes / 2);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        stream.write(samples);
+    }
+
+    @Benchmark
+    public HashMap<XBeeAddress, XBeeSample> read() throws IOException {
+        return stream.read();
+    }
+
+    @Benchmark
+    public Object readXStream() {
+        return xstream.fromXML(file, new HashMap<XBeeAddress, XBeeSample>());
+    }
+
+    @Benchmark
+    public XBeeSample findAddress() throws IOException {
+        return stream.find(address);
+    }
+
+    @Benchmark
+    public XBeeSample findName() throws IOException {
+        return stream.find(name);
+    }
+}
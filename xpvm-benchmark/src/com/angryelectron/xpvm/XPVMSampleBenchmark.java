@@ -0,0 +1,70 @@
+/**
+ * XPVMSampleBenchmark.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xpvm;
+
+import com.angryelectron.xbeelogger.SyntheticSamples;
+import com.angryelectron.xbeelogger.XBeeSample;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converting raw ADC values to engineering units.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XPVMSampleBenchmark {
+
+    private XBeeSample xbeeSample;
+    private XPVMSample sample;
+
+    @Setup
+    public void setup() {
+        xbeeSample = SyntheticSamples.sample(1, 1);
+        sample = new XPVMSample(xbeeSample);
+    }
+
+    @Benchmark
+    public double temperatureC() {
+        return sample.getTemperatureC();
+    }
+
+    @Benchmark
+    public double arrayVoltage() {
+        return sample.getArrayVoltage();
+    }
+
+    @Benchmark
+    public double arrayCurrent() {
+        return sample.getArrayCurrent();
+    }
+
+    @Benchmark
+    public double batteryVoltage() {
+        return sample.getBatteryVoltage();
+    }
+
+    @Benchmark
+    public double power() {
+        return sample.getArrayVoltage() * sample.getArrayCurrent();
+    }
+
+    @Benchmark
+    public double wrapAndConvert() {
+        return new XPVMSample(xbeeSample).getArrayVoltage();
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * XPVMBenchmark.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+
+package com.angryelectron.xpvm.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.openjdk.jmh.Main;
+
+/**
+ * Run the JMH benchmarks for the ingest, persistence and query paths.
+ * <p>
+ * The JMH jars, jmh-core and jmh-generator-annprocess (1.37), jopt-simple
+ * (5.0.4) and commons-math3 (3.6.1), are in lib/jmh.
+ * <p>
+ * Any JMH command line options may be given, eg. to run one suite with fewer
+ * nodes:
+ * <pre>
+ * java -jar dist/xpvm-benchmark.jar -p nodes=100 XBeeSampleStreamBenchmark
+ * </pre>
+ * Results are written to jmh-result.json unless another result format or
+ * file is given with -rf or -rff, so runs can be compared.
+ * <p>
+ * To find how many nodes a gateway can handle, run the sustained load test
+ * {@link com.angryelectron.xbeelogger.XBeeLoadGenerator} instead.
+ */
+public class XPVMBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<String> options = new ArrayList<>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.add("-rf");
+            options.add("json");
+        }
+        if (!options.contains("-rff")) {
+            options.add("-rff");
+            options.add("jmh-result.json");
+        }
+        Main.main(options.toArray(new String[options.size()]));
+    }
+}
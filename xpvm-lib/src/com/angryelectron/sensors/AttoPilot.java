@@ -69,7 +69,7 @@ public class AttoPilot {
      * @param V Voltage (in volts) measured at the AttoPilot's "V" pin.     
      * @return Actual voltage, in volts.
      */
-    public Double getVoltage(double V) {
+    public double getVoltage(double V) {
         return V * model.vScale();
     }
 
@@ -78,7 +78,7 @@ public class AttoPilot {
      * @param I Voltage (in volts) measured at the AttoPilot's "I" pin.     
      * @return Actual current, in amps.
      */
-    public Double getCurrent(double I) {
+    public double getCurrent(double I) {
         return I * model.iScale();
     }
 }
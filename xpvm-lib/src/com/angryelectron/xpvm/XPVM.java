@@ -1,10 +1,21 @@
 package com.angryelectron.xpvm;
 
 import com.angryelectron.xbeelogger.XBeeAddress;
+import com.angryelectron.xbeelogger.XBeeChannelStatistics;
+import com.angryelectron.xbeelogger.XBeeOperatorGraph;
+import com.angryelectron.xbeelogger.XBeeRollup;
+import com.angryelectron.xbeelogger.XBeeRollupBucket;
 import com.angryelectron.xbeelogger.XBeeSample;
 import com.angryelectron.xbeelogger.XBeeLogReader;
+import com.angryelectron.xbeelogger.XBeeSampleHistory;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Fetch XPVM node data.
@@ -12,6 +23,8 @@ import java.io.FileNotFoundException;
 public class XPVM {
         
     private final XBeeLogReader sampleData = new XBeeLogReader();
+    private volatile XBeeOperatorGraph metrics;
+    private volatile XBeeRollup rollup;
             
     /**
      * Load sample data from an XBeeLogWriter file.
@@ -22,6 +35,73 @@ public class XPVM {
         sampleData.loadSampleData(sampleFile);        
     }
     
+    /**
+     * Read one node's sample data from an XBeeLogWriter file, without loading
+     * the other nodes.  Use this for a single lookup; to look up several 
+     * nodes, load the file instead.
+     * @param sampleFile The XML file containing the XPVM node data.
+     * @param address The node's address.
+     * @return Node sample data.
+     * @throws FileNotFoundException If the sampleFile cannot be found.
+     * @throws NoSuchFieldException if no data has been received from the node.
+     */
+    public static XPVMSample readSample(File sampleFile, XBeeAddress address) 
+            throws FileNotFoundException, NoSuchFieldException {
+        return new XPVMSample(XBeeLogReader.readSample(sampleFile, address));
+    }
+    
+    /**
+     * Read one node's sample data from an XBeeLogWriter file, without loading
+     * the other nodes.
+     * @param sampleFile The XML file containing the XPVM node data.
+     * @param nodeIdentifier The XBee's NI string.
+     * @return Node sample data.
+     * @throws FileNotFoundException If the sampleFile cannot be found.
+     * @throws NoSuchFieldException if no data has been received from the node.
+     */
+    public static XPVMSample readSample(File sampleFile, String nodeIdentifier) 
+            throws FileNotFoundException, NoSuchFieldException {
+        return new XPVMSample(XBeeLogReader.readSample(sampleFile, nodeIdentifier));
+    }
+    
+    /**
+     * Load sample data from an XBeeLogWriter file and keep it current.  The
+     * file is re-loaded in the background whenever it changes, so there is no
+     * need to call {@link #loadSampleData(java.io.File)} before each lookup.
+     * @param sampleFile The XML file containing the XPVM node data.
+     * @throws FileNotFoundException If the sampleFile cannot be found.
+     */
+    public void watchSampleData(File sampleFile) throws FileNotFoundException {
+        sampleData.watchSampleData(sampleFile);
+    }
+    
+    /**
+     * Stop re-loading the sample file when it changes.
+     */
+    public void stopWatching() {
+        sampleData.stopWatching();
+    }
+    
+    /**
+     * Get the version of the loaded sample data.  The version changes each 
+     * time new data is loaded.
+     * @return Version number, or 0 if no data has been loaded.
+     */
+    public long getVersion() {
+        return sampleData.getVersion();
+    }
+    
+    /**
+     * Read sample data from a memory-mapped sample table instead of an XML 
+     * file.  The table is kept current by the writer, so it only needs to be
+     * opened once.
+     * @param tableFile The sample table written by xpvm-writer.
+     * @throws FileNotFoundException If the tableFile cannot be opened.
+     */
+    public void openSampleTable(File tableFile) throws FileNotFoundException {
+        sampleData.openSampleTable(tableFile);
+    }
+    
     /**
      * Get sample data from an XPVM node.
      * @param address The node's address.
@@ -45,4 +125,277 @@ public class XPVM {
         XBeeSample sample = sampleData.getSampleByName(nodeIdentifier);
         return new XPVMSample(sample);
     }
+    
+    /**
+     * Get sample data from several XPVM nodes at once.
+     * @param nodeIdentifiers The XBee NI strings.
+     * @return Node sample data, indexed by NI, in the order requested.  Nodes 
+     * from which no data has been received are left out.
+     */
+    public Map<String, XPVMSample> getSamples(Collection<String> nodeIdentifiers) {
+        LinkedHashMap<String, XPVMSample> samples = new LinkedHashMap<>();
+        for (Map.Entry<String, XBeeSample> entry : sampleData.getSamplesByName(nodeIdentifiers).entrySet()) {
+            samples.put(entry.getKey(), new XPVMSample(entry.getValue()));
+        }
+        return samples;
+    }
+    
+    /**
+     * Load derived values, such as accumulated energy, from the metrics file
+     * kept by xpvm-writer.  Call again to pick up newer values.
+     * @param metricsFile The file given to xpvm-writer's --metrics option.
+     * @throws FileNotFoundException If the metricsFile cannot be read.
+     */
+    public void loadMetrics(File metricsFile) throws FileNotFoundException {
+        XBeeOperatorGraph graph = XPVMMetrics.createGraph();
+        graph.load(metricsFile);
+        metrics = graph;
+    }
+    
+    /**
+     * Get a derived value for an XPVM node.
+     * @param address The node's address.
+     * @param metric One of the names defined in {@link XPVMMetrics}.
+     * @return The current value.
+     * @throws NoSuchFieldException if there is no such metric, no value has 
+     * been calculated for the node, or the metrics file has not been loaded.
+     */
+    public double getMetric(XBeeAddress address, String metric) throws NoSuchFieldException {
+        XBeeOperatorGraph graph = metrics;
+        if (graph == null) {
+            throw new NoSuchFieldException("Metrics have not been loaded.");
+        }
+        return graph.getValue(address, metric);
+    }
+    
+    /**
+     * Get a derived value for an XPVM node.
+     * @param nodeIdentifier The XBee's NI string.
+     * @param metric One of the names defined in {@link XPVMMetrics}.
+     * @return The current value.
+     * @throws NoSuchFieldException if there is no such metric, no value has 
+     * been calculated for the node, or the sample data or metrics file has 
+     * not been loaded.
+     */
+    public double getMetric(String nodeIdentifier, String metric) throws NoSuchFieldException {
+        XBeeSample sample = sampleData.getSampleByName(nodeIdentifier);
+        return getMetric(sample.getAddress(), metric);
+    }
+    
+    /**
+     * Keep recent samples from each node, so they can be fetched with
+     * {@link #getSamples(java.lang.String, java.util.Date, java.util.Date)} and
+     * {@link #getStatistics(java.lang.String, XPVMChannel, java.util.Date, java.util.Date)}.
+     * Samples are collected each time the sample file is loaded, so call this 
+     * before {@link #loadSampleData(java.io.File)} or 
+     * {@link #watchSampleData(java.io.File)}.
+     * @param samples Maximum number of samples kept for each node.
+     * @param maxAgeMs Maximum age of kept samples, in milliseconds, or 0 for 
+     * no limit.
+     */
+    public void keepHistory(int samples, long maxAgeMs) {
+        sampleData.setHistory(new XBeeSampleHistory(samples, maxAgeMs));
+    }
+    
+    /**
+     * Get recent samples from an XPVM node.
+     * @param address The node's address.
+     * @param from Start of the period, inclusive.
+     * @param to End of the period, inclusive.
+     * @return Samples, oldest first.
+     * @throws NoSuchFieldException if no data has been received from the node or
+     * if history is not being kept.
+     */
+    public List<XPVMSample> getSamples(XBeeAddress address, Date from, Date to) throws NoSuchFieldException {
+        List<XBeeSample> history = history().getSamples(address, from.getTime(), to.getTime());
+        ArrayList<XPVMSample> samples = new ArrayList<>(history.size());
+        for (XBeeSample sample : history) {
+            samples.add(new XPVMSample(sample));
+        }
+        return samples;
+    }
+    
+    /**
+     * Get recent samples from an XPVM node.
+     * @param nodeIdentifier The XBee's NI string.
+     * @param from Start of the period, inclusive.
+     * @param to End of the period, inclusive.
+     * @return Samples, oldest first.
+     * @throws NoSuchFieldException if no data has been received from the node or
+     * if history is not being kept.
+     */
+    public List<XPVMSample> getSamples(String nodeIdentifier, Date from, Date to) throws NoSuchFieldException {
+        return getSamples(sampleData.getSampleByName(nodeIdentifier).getAddress(), from, to);
+    }
+    
+    /**
+     * Get the minimum, maximum and mean of a measurement over a period of time.
+     * @param address The node's address.
+     * @param channel The measurement.
+     * @param from Start of the period, inclusive.
+     * @param to End of the period, inclusive.
+     * @return Statistics, in engineering units.
+     * @throws NoSuchFieldException if no data has been received from the node or
+     * if history is not being kept.
+     */
+    public XPVMStatistics getStatistics(XBeeAddress address, XPVMChannel channel, Date from, Date to) 
+            throws NoSuchFieldException {
+        XBeeChannelStatistics raw = history().getStatistics(
+                address, channel.getPin(), from.getTime(), to.getTime());
+        if (raw.getCount() == 0) {
+            return new XPVMStatistics(0, 0, 0, 0);
+        }
+        return new XPVMStatistics(raw.getCount(), channel.fromAdc(raw.getMin()),
+                channel.fromAdc(raw.getMax()), channel.fromAdc(raw.getMean()));
+    }
+    
+    /**
+     * Get the minimum, maximum and mean of a measurement over a period of time.
+     * @param nodeIdentifier The XBee's NI string.
+     * @param channel The measurement.
+     * @param from Start of the period, inclusive.
+     * @param to End of the period, inclusive.
+     * @return Statistics, in engineering units.
+     * @throws NoSuchFieldException if no data has been received from the node or
+     * if history is not being kept.
+     */
+    public XPVMStatistics getStatistics(String nodeIdentifier, XPVMChannel channel, Date from, Date to) 
+            throws NoSuchFieldException {
+        return getStatistics(sampleData.getSampleByName(nodeIdentifier).getAddress(), channel, from, to);
+    }
+    
+    /**
+     * Load the time buckets from the rollup file written by xpvm-writer.  Call
+     * again to pick up newer buckets.
+     * @param rollupFile The file given to xpvm-writer's --rollup option.
+     * @throws FileNotFoundException If the rollupFile cannot be read.
+     */
+    public void loadRollup(File rollupFile) throws FileNotFoundException {
+        XBeeRollup buckets = XPVMRollup.createRollup();
+        buckets.load(rollupFile);
+        rollup = buckets;
+    }
+    
+    /**
+     * Get the minimum, maximum, mean and last value of a measurement in each
+     * time bucket over a period.  Use this rather than 
+     * {@link #getStatistics(java.lang.String, XPVMChannel, java.util.Date, java.util.Date)}
+     * for long periods.
+     * @param address The node's address.
+     * @param channel The measurement.
+     * @param resolution Bucket width, one of the resolutions defined in 
+     * {@link XPVMRollup}.
+     * @param from Start of the period.  The bucket containing this time is 
+     * included.
+     * @param to End of the period, inclusive.
+     * @return Buckets, oldest first, in engineering units.
+     * @throws NoSuchFieldException if there is no such resolution, no samples 
+     * have been received from the node, or the rollup file has not been loaded.
+     */
+    public List<XPVMBucket> getBuckets(XBeeAddress address, XPVMChannel channel, long resolution,
+            Date from, Date to) throws NoSuchFieldException {
+        XBeeRollup buckets = rollup;
+        if (buckets == null) {
+            throw new NoSuchFieldException("Rollup has not been loaded.");
+        }
+        List<XBeeRollupBucket> raw = buckets.getBuckets(address, resolution, channel.getPin(),
+                from.getTime(), to.getTime());
+        ArrayList<XPVMBucket> values = new ArrayList<>(raw.size());
+        for (XBeeRollupBucket bucket : raw) {
+            values.add(new XPVMBucket(bucket.getStart(), bucket.getCount(),
+                    channel.fromAdc(bucket.getMin()), channel.fromAdc(bucket.getMax()),
+                    channel.fromAdc(bucket.getMean()), channel.fromAdc(bucket.getLast()),
+                    bucket.isClosed()));
+        }
+        return values;
+    }
+    
+    /**
+     * Get the minimum, maximum, mean and last value of a measurement in each
+     * time bucket over a period.
+     * @param nodeIdentifier The XBee's NI string.
+     * @param channel The measurement.
+     * @param resolution Bucket width, one of the resolutions defined in 
+     * {@link XPVMRollup}.
+     * @param from Start of the period.  The bucket containing this time is 
+     * included.
+     * @param to End of the period, inclusive.
+     * @return Buckets, oldest first, in engineering units.
+     * @throws NoSuchFieldException if there is no such resolution, no samples 
+     * have been received from the node, or the sample data or rollup file has
+     * not been loaded.
+     */
+    public List<XPVMBucket> getBuckets(String nodeIdentifier, XPVMChannel channel, long resolution,
+            Date from, Date to) throws NoSuchFieldException {
+        return getBuckets(sampleData.getSampleByName(nodeIdentifier).getAddress(), 
+                channel, resolution, from, to);
+    }
+    
+    /**
+     * Read historical samples from the segment store written by xpvm-writer.
+     * @param storeDirectory The directory given to xpvm-writer's -f option 
+     * with --store.
+     * @throws FileNotFoundException If the directory does not exist.
+     */
+    public void openSampleStore(File storeDirectory) throws FileNotFoundException {
+        sampleData.openSegmentStore(storeDirectory);
+    }
+
+    /**
+     * Read historical samples from the journal written by xpvm-writer, instead
+     * of a segment store.  Each query reads the whole journal.
+     * @param journalDirectory The directory given to xpvm-writer's -f option
+     * with --journal.
+     * @throws FileNotFoundException If the directory does not exist.
+     */
+    public void openJournal(File journalDirectory) throws FileNotFoundException {
+        sampleData.openJournal(journalDirectory);
+    }
+    
+    /**
+     * Get stored samples from an XPVM node.  Unlike 
+     * {@link #getSamples(com.angryelectron.xbeelogger.XBeeAddress, java.util.Date, java.util.Date)},
+     * this can reach back as far as the store keeps samples.
+     * @param address The node's address.
+     * @param from Start of the period, inclusive.
+     * @param to End of the period, inclusive.
+     * @return Samples, oldest first.
+     * @throws NoSuchFieldException if neither the sample store nor the journal
+     * has been opened.
+     * @throws FileNotFoundException if the sample store or journal cannot be
+     * read.
+     */
+    public List<XPVMSample> getStoredSamples(XBeeAddress address, Date from, Date to) 
+            throws NoSuchFieldException, FileNotFoundException {
+        List<XBeeSample> stored = sampleData.getStoredSamples(address, from, to);
+        ArrayList<XPVMSample> samples = new ArrayList<>(stored.size());
+        for (XBeeSample sample : stored) {
+            samples.add(new XPVMSample(sample));
+        }
+        return samples;
+    }
+    
+    /**
+     * Get stored samples from an XPVM node.
+     * @param nodeIdentifier The XBee's NI string.
+     * @param from Start of the period, inclusive.
+     * @param to End of the period, inclusive.
+     * @return Samples, oldest first.
+     * @throws NoSuchFieldException if no data has been received from the node,
+     * or the sample data or sample store or journal has not been opened.
+     * @throws FileNotFoundException if the sample store or journal cannot be
+     * read.
+     */
+    public List<XPVMSample> getStoredSamples(String nodeIdentifier, Date from, Date to) 
+            throws NoSuchFieldException, FileNotFoundException {
+        return getStoredSamples(sampleData.getSampleByName(nodeIdentifier).getAddress(), from, to);
+    }
+    
+    private XBeeSampleHistory history() throws NoSuchFieldException {
+        XBeeSampleHistory history = sampleData.getHistory();
+        if (history == null) {
+            throw new NoSuchFieldException("History is not being kept.");
+        }
+        return history;
+    }
 }
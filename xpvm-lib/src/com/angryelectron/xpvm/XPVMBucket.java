@@ -0,0 +1,50 @@
+/**
+ * XPVMBucket.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xpvm;
+
+import java.util.Date;
+
+/**
+ * The minimum, maximum, mean and last value of one XPVM measurement over one
+ * bucket of time, in engineering units.
+ */
+public class XPVMBucket extends XPVMStatistics {
+
+    private final Date start;
+    private final double last;
+    private final boolean closed;
+
+    XPVMBucket(Date start, int count, double min, double max, double mean, 
+            double last, boolean closed) {
+        super(count, min, max, mean);
+        this.start = start;
+        this.last = last;
+        this.closed = closed;
+    }
+
+    /**
+     * Get the start of the bucket.
+     * @return Start time, inclusive.
+     */
+    public Date getStart() {
+        return start;
+    }
+
+    /**
+     * Get the value from the newest sample in the bucket.
+     * @return Last value.
+     */
+    public double getLast() {
+        return last;
+    }
+
+    /**
+     * Check if the bucket can still change.
+     * @return True if no more samples will be added.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+}
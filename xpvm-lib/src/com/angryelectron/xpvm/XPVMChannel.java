@@ -0,0 +1,115 @@
+/**
+ * XPVMChannel.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xpvm;
+
+import com.angryelectron.sensors.AttoPilot;
+import com.angryelectron.sensors.TMP36;
+import com.angryelectron.xbeelogger.XBeeSample;
+
+/**
+ * The measurements made by an XPVM node.  Selects which sensors are attached
+ * to which XBee IO pins, and converts the raw ADC readings to engineering
+ * units.
+ */
+public enum XPVMChannel {
+
+    /**
+     * Temperature (C).  TMP36 on AD0.
+     */
+    TEMPERATURE(0),
+
+    /**
+     * PV array voltage (V).  AttoPilot1, pin V, on AD1.
+     */
+    ARRAY_VOLTAGE(1),
+
+    /**
+     * PV array current (A).  AttoPilot1, pin I, on AD2.
+     */
+    ARRAY_CURRENT(2),
+
+    /**
+     * PV battery bank voltage (V).  AttoPilot2, pin V, on AD3.
+     */
+    BATTERY_VOLTAGE(3),
+
+    /**
+     * PV battery bank current (A).  AttoPilot2, pin I, on AD4.
+     */
+    BATTERY_CURRENT(4);
+
+    /**
+     * Select the AttoPilot Model.
+     */
+    private static final AttoPilot attoPilot = new AttoPilot(AttoPilot.Model.A180);
+
+    /**
+     * The ADC's reference voltage and resolution.
+     */
+    private static final double vRef = 3.3;
+    private static final int resolution = 1023;
+
+    private final int ioPin;
+
+    private XPVMChannel(int ioPin) {
+        this.ioPin = ioPin;
+    }
+
+    /**
+     * Get the XBee analog input used by this channel.
+     * @return Pin number.
+     */
+    public int getPin() {
+        return ioPin;
+    }
+
+    /**
+     * Get the voltage at the XBee pin.
+     * @param sample The sample.
+     * @return Voltage (V).
+     * @throws UnsupportedOperationException If the pin is not configured as an
+     * analog input.
+     */
+    double voltage(XBeeSample sample) {
+        if (sample.isAnalogEnabled(ioPin)) {
+            return (sample.getAnalog(ioPin) * vRef) / resolution;
+        }
+        throw new UnsupportedOperationException("AD" + ioPin
+                + " on XBee " + sample.getAddress() + " is not configured as an analog output.");
+    }
+
+    /**
+     * Get the measurement from a sample.
+     * @param sample The sample.
+     * @return Value, in engineering units.
+     * @throws UnsupportedOperationException If the pin is not configured as an
+     * analog input.
+     */
+    public double getValue(XBeeSample sample) {
+        return convert(voltage(sample));
+    }
+
+    /**
+     * Convert a raw ADC reading.  The conversion is linear, so it can also be
+     * applied to averages.
+     * @param adc ADC reading.
+     * @return Value, in engineering units.
+     */
+    public double fromAdc(double adc) {
+        return convert((adc * vRef) / resolution);
+    }
+
+    private double convert(double volts) {
+        switch (this) {
+            case TEMPERATURE:
+                return TMP36.getTemperatureC(volts);
+            case ARRAY_VOLTAGE:
+            case BATTERY_VOLTAGE:
+                return attoPilot.getVoltage(volts);
+            default:
+                return attoPilot.getCurrent(volts);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * XPVMMetrics.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xpvm;
+
+import com.angryelectron.xbeelogger.XBeeOperatorGraph;
+import com.angryelectron.xbeelogger.XBeeSample;
+import com.angryelectron.xbeelogger.XBeeSampleOperator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Values derived from XPVM samples as they are received, such as power and
+ * accumulated energy.  Use {@link #createGraph()} with
+ * com.angryelectron.xbeelogger.XBeeLogWriter to calculate them, and
+ * {@link XPVM#getMetric(java.lang.String, java.lang.String)} to read them.
+ */
+public class XPVMMetrics {
+
+    /**
+     * PV array power (W), from the most recent sample.
+     */
+    public static final String POWER = "power";
+
+    /**
+     * Energy produced by the PV array (Wh) since the node was first seen.
+     */
+    public static final String ENERGY = "energy";
+
+    /**
+     * Charge delivered by the PV array (Ah) since the node was first seen.
+     */
+    public static final String AH_IN = "ah-in";
+
+    /**
+     * Charge drawn from the battery bank (Ah) since the node was first seen.
+     */
+    public static final String AH_OUT = "ah-out";
+
+    /**
+     * Temperature (C), smoothed over about five minutes.
+     */
+    public static final String TEMPERATURE = "temperature";
+
+    /**
+     * Samples further apart than this are not integrated, so a node that was
+     * switched off is not credited with energy for the whole time it was off.
+     */
+    private static final long MAX_GAP_MS = 15 * 60 * 1000;
+
+    private static final long TEMPERATURE_TAU_MS = 5 * 60 * 1000;
+
+    private static final double MS_PER_HOUR = 60 * 60 * 1000;
+
+    private XPVMMetrics() {
+    }
+
+    /**
+     * Create a graph that calculates all XPVM metrics.
+     * @return A new graph.
+     */
+    public static XBeeOperatorGraph createGraph() {
+        XBeeOperatorGraph graph = new XBeeOperatorGraph();
+        graph.add(new Latest(POWER) {
+            @Override
+            double value(XPVMSample sample) {
+                return sample.getArrayVoltage() * sample.getArrayCurrent();
+            }
+        });
+        graph.add(new Integral(ENERGY) {
+            @Override
+            double value(XPVMSample sample) {
+                return sample.getArrayVoltage() * sample.getArrayCurrent();
+            }
+        });
+        graph.add(new Integral(AH_IN) {
+            @Override
+            double value(XPVMSample sample) {
+                return sample.getArrayCurrent();
+            }
+        });
+        graph.add(new Integral(AH_OUT) {
+            @Override
+            double value(XPVMSample sample) {
+                return sample.getBatteryCurrent();
+            }
+        });
+        graph.add(new Average(TEMPERATURE, TEMPERATURE_TAU_MS) {
+            @Override
+            double value(XPVMSample sample) {
+                return sample.getTemperatureC();
+            }
+        });
+        return graph;
+    }
+
+    /**
+     * An operator that reads one value from each sample.  Samples from which
+     * the value cannot be read, because the sensor is not connected or not
+     * configured, are ignored.
+     */
+    private abstract static class Metric implements XBeeSampleOperator {
+
+        private final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void update(double[] state, int offset, XBeeSample sample) {
+            double value;
+            try {
+                value = value(new XPVMSample(sample));
+            } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+                return;
+            }
+            update(state, offset, TimeUnit.NANOSECONDS.toMillis(sample.getTimestampNanos()), value);
+        }
+
+        abstract double value(XPVMSample sample);
+
+        abstract void update(double[] state, int offset, long time, double value);
+    }
+
+    /**
+     * The most recent value.  State: value.
+     */
+    private abstract static class Latest extends Metric {
+
+        Latest(String name) {
+            super(name);
+        }
+
+        @Override
+        public int getStateSize() {
+            return 1;
+        }
+
+        @Override
+        void update(double[] state, int offset, long time, double value) {
+            state[offset] = value;
+        }
+
+        @Override
+        public double getValue(double[] state, int offset) {
+            return state[offset];
+        }
+    }
+
+    /**
+     * The area under the value over time, in value-hours, using the trapezoid
+     * rule.  State: total, last time, last value.
+     */
+    private abstract static class Integral extends Metric {
+
+        Integral(String name) {
+            super(name);
+        }
+
+        @Override
+        public int getStateSize() {
+            return 3;
+        }
+
+        @Override
+        void update(double[] state, int offset, long time, double value) {
+            long last = (long) state[offset + 1];
+            long dt = time - last;
+            if (last != 0 && dt > 0 && dt <= MAX_GAP_MS) {
+                state[offset] += (state[offset + 2] + value) / 2 * dt / MS_PER_HOUR;
+            }
+            if (dt > 0) {
+                state[offset + 1] = time;
+                state[offset + 2] = value;
+            }
+        }
+
+        @Override
+        public double getValue(double[] state, int offset) {
+            return state[offset];
+        }
+    }
+
+    /**
+     * An exponentially weighted moving average.  Samples are weighted by the
+     * time since the previous sample, so irregular sampling does not bias the
+     * average.  State: average, last time.
+     */
+    private abstract static class Average extends Metric {
+
+        private final double tau;
+
+        Average(String name, long tauMs) {
+            super(name);
+            this.tau = tauMs;
+        }
+
+        @Override
+        public int getStateSize() {
+            return 2;
+        }
+
+        @Override
+        void update(double[] state, int offset, long time, double value) {
+            long last = (long) state[offset + 1];
+            if (last == 0) {
+                state[offset] = value;
+            } else if (time > last) {
+                double alpha = 1 - Math.exp(-(time - last) / tau);
+                state[offset] += alpha * (value - state[offset]);
+            } else {
+                return;
+            }
+            state[offset + 1] = time;
+        }
+
+        @Override
+        public double getValue(double[] state, int offset) {
+            return state[offset];
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * XPVMRollup.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xpvm;
+
+import com.angryelectron.xbeelogger.XBeeRollup;
+
+/**
+ * Resolutions at which XPVM samples are summarized as they are received.  Use
+ * {@link #createRollup()} with com.angryelectron.xbeelogger.XBeeLogWriter to 
+ * maintain the buckets, and 
+ * {@link XPVM#getBuckets(java.lang.String, XPVMChannel, long, java.util.Date, java.util.Date)}
+ * to read them.
+ */
+public class XPVMRollup {
+
+    /**
+     * One minute buckets, kept for 12 hours.
+     */
+    public static final long MINUTE = 60 * 1000;
+
+    /**
+     * 15 minute buckets, kept for a week.
+     */
+    public static final long QUARTER_HOUR = 15 * MINUTE;
+
+    /**
+     * One hour buckets, kept for 31 days.
+     */
+    public static final long HOUR = 60 * MINUTE;
+
+    /**
+     * One day buckets, kept for two years.
+     */
+    public static final long DAY = 24 * HOUR;
+
+    /**
+     * How long a bucket accepts late samples after it ends.
+     */
+    private static final long GRACE_MS = 2 * MINUTE;
+
+    private XPVMRollup() {
+    }
+
+    /**
+     * Create a rollup with all XPVM resolutions.
+     * @return A new rollup.
+     */
+    public static XBeeRollup createRollup() {
+        XBeeRollup rollup = new XBeeRollup(GRACE_MS);
+        rollup.add(MINUTE, 12 * 60);
+        rollup.add(QUARTER_HOUR, 7 * 24 * 4);
+        rollup.add(HOUR, 31 * 24);
+        rollup.add(DAY, 2 * 366);
+        return rollup;
+    }
+}
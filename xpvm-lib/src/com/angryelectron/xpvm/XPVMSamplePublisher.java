@@ -0,0 +1,77 @@
+/**
+ * XPVMSamplePublisher.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xpvm;
+
+import com.angryelectron.xbeelogger.XBeePublisher;
+import com.angryelectron.xbeelogger.XBeeSample;
+import com.angryelectron.xbeelogger.XBeeSampleFilter;
+import com.angryelectron.xbeelogger.XBeeSubscriber;
+import com.angryelectron.xbeelogger.XBeeSubscription;
+
+/**
+ * Pushes XPVM samples to subscribers as they are received.  Wraps a publisher
+ * from an {@link com.angryelectron.xbeelogger.XBeeSampleFeed}, which chooses
+ * the filter and backpressure policy:
+ * <pre>
+ * XBeeSampleFilter filter = XPVMSamplePublisher.filter(XPVMChannel.ARRAY_VOLTAGE).name("roof");
+ * new XPVMSamplePublisher(writer.getFeed().publisher(filter,
+ *         XBeeSampleFeed.Backpressure.LATEST, 64)).subscribe(subscriber);
+ * </pre>
+ */
+public class XPVMSamplePublisher implements XBeePublisher<XPVMSample> {
+
+    private final XBeePublisher<XBeeSample> samples;
+
+    /**
+     * Constructor.
+     * @param samples Publisher of XBee samples.
+     */
+    public XPVMSamplePublisher(XBeePublisher<XBeeSample> samples) {
+        this.samples = samples;
+    }
+
+    /**
+     * Create a filter that accepts only samples containing every given
+     * channel.  Nodes can then be selected with
+     * {@link XBeeSampleFilter#address(com.angryelectron.xbeelogger.XBeeAddress)}
+     * or {@link XBeeSampleFilter#name(String)}.
+     * @param channels The channels required.
+     * @return A new filter.
+     * @throws IllegalArgumentException If a channel's pin is not reported in
+     * XBee samples.
+     */
+    public static XBeeSampleFilter filter(XPVMChannel... channels) {
+        XBeeSampleFilter filter = new XBeeSampleFilter();
+        for (XPVMChannel channel : channels) {
+            filter.analog(channel.getPin());
+        }
+        return filter;
+    }
+
+    @Override
+    public void subscribe(final XBeeSubscriber<? super XPVMSample> subscriber) {
+        samples.subscribe(new XBeeSubscriber<XBeeSample>() {
+            @Override
+            public void onSubscribe(XBeeSubscription subscription) {
+                subscriber.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(XBeeSample item) {
+                subscriber.onNext(new XPVMSample(item));
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                subscriber.onError(error);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        });
+    }
+}
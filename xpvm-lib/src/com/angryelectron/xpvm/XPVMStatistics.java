@@ -0,0 +1,56 @@
+/**
+ * XPVMStatistics.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xpvm;
+
+/**
+ * The minimum, maximum and mean of one XPVM measurement over a period of
+ * time, in engineering units.
+ */
+public class XPVMStatistics {
+
+    private final int count;
+    private final double min;
+    private final double max;
+    private final double mean;
+
+    XPVMStatistics(int count, double min, double max, double mean) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+    }
+
+    /**
+     * Get the number of samples.
+     * @return Number of samples in the period.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the lowest value.
+     * @return Minimum, or 0 if there were no samples.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Get the highest value.
+     * @return Maximum, or 0 if there were no samples.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Get the average value.
+     * @return Mean, or 0 if there were no samples.
+     */
+    public double getMean() {
+        return mean;
+    }
+}
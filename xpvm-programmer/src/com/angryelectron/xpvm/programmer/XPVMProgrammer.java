@@ -3,14 +3,22 @@
  */
 package com.angryelectron.xpvm.programmer;
 
+import com.angryelectron.xbeelogger.XBeeAddress;
+import com.angryelectron.xbeelogger.XBeeCommandBatch;
+import com.angryelectron.xbeelogger.XBeeCommandResult;
+import com.angryelectron.xbeelogger.XBeeFleetProgrammer;
+import com.angryelectron.xbeelogger.XBeeFleetResult;
 import com.angryelectron.xbeelogger.XBeeProgrammer;
 import com.rapplogic.xbee.api.XBeeException;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.commons.cli.*;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 /**
- * Program an XBee radio for use in an XPVM node.
+ * Program an XBee radio for use in an XPVM node.  With --fleet, program many
+ * nodes over the air through the coordinator on the given port instead.
  */
 public class XPVMProgrammer {
 
@@ -33,7 +41,8 @@ public class XPVMProgrammer {
         /**
          * Show help if required arguments are not specified.
          */
-        if (cmd.hasOption("h") || !cmd.hasOption("p") || !cmd.hasOption("i") || !cmd.hasOption("n")) {
+        if (cmd.hasOption("h") || !cmd.hasOption("p") || !cmd.hasOption("i") 
+                || (!cmd.hasOption("n") && !cmd.hasOption("F"))) {
             showHelp();
             System.exit(0);
         }
@@ -58,8 +67,14 @@ public class XPVMProgrammer {
             System.exit(-1);
         }
         try {            
-            programXBees();       
-        } catch (XBeeException ex) {
+            if (cmd.hasOption("F")) {
+                if (!programFleet()) {
+                    System.exit(-1);
+                }
+            } else {
+                programXBees();       
+            }
+        } catch (XBeeException | IllegalArgumentException ex) {
             System.out.println(ex.getMessage());
             System.exit(-1);
         }
@@ -74,6 +89,8 @@ public class XPVMProgrammer {
         options.addOption("i", "id", true, "Network/Pan ID (0-7FFF).");
         options.addOption("n", "name", true, "Node name.");
         options.addOption("r", "rate", true, "Sample rate in ms (0-FFFF)");
+        options.addOption("F", "fleet", true, "Program remote nodes over the air: a comma-separated list of 64-bit addresses, or 'discover' for every node on the PAN.  Node names are not changed.");
+        options.addOption("c", "concurrency", true, "Nodes programmed at the same time with --fleet (default 8).");
         return options;
     }
 
@@ -97,22 +114,81 @@ public class XPVMProgrammer {
             System.out.println("hardware: " + Integer.toHexString(hwVersion[0]) + Integer.toHexString(hwVersion[1]));
             System.out.println("firmware: " + Integer.toHexString(hwFirmware[0]) + Integer.toHexString(hwFirmware[1]));
 
-            programmer.command("ID", cmd.getOptionValue("i"));
-            programmer.command("NI", cmd.getOptionValue("n"));
-            programmer.command("D0", 2);
-            programmer.command("D1", 2);
-            programmer.command("D2", 2);
-            programmer.command("D3", 2);
-            programmer.command("D4", 2);
-            programmer.command("PR", 0);
-            programmer.command("IR", cmd.getOptionValue("r"));
+            XBeeCommandBatch profile = new XBeeCommandBatch()
+                    .add("ID", cmd.getOptionValue("i"))
+                    .add("NI", cmd.getOptionValue("n"))
+                    .add("D0", 2)
+                    .add("D1", 2)
+                    .add("D2", 2)
+                    .add("D3", 2)
+                    .add("D4", 2)
+                    .add("PR", 0)
+                    .add("IR", cmd.getOptionValue("r"));
 
             if (cmd.hasOption("w")) {
-                programmer.command("WR");
+                profile.add("WR");
+            }
+            for (XBeeCommandResult result : programmer.command(profile)) {
+                if (!result.isOk()) {
+                    throw new XBeeException("Could not set " + result + ".");
+                }
             }
             programmer.close();        
     }
     
+    /**
+     * Program many nodes over the air with the same settings as 
+     * programXBees(), except the serial API mode and the node name.
+     * @return True if every node was programmed.
+     */
+    private static boolean programFleet() throws XBeeException {
+        XBeeFleetProgrammer fleet = new XBeeFleetProgrammer();
+        if (cmd.hasOption("c")) {
+            fleet.setConcurrency(Integer.parseInt(cmd.getOptionValue("c")));
+        }
+        fleet.set("ID", cmd.getOptionValue("i"));
+        fleet.set("D0", 2);
+        fleet.set("D1", 2);
+        fleet.set("D2", 2);
+        fleet.set("D3", 2);
+        fleet.set("D4", 2);
+        fleet.set("PR", 0);
+        fleet.set("IR", cmd.getOptionValue("r"));
+        
+        fleet.open(cmd.getOptionValue("p"), baud);
+        try {
+            List<XBeeAddress> nodes = new ArrayList<>();
+            if (cmd.getOptionValue("F").equalsIgnoreCase("discover")) {
+                System.out.println("Discovering nodes...");
+                nodes = fleet.discover();
+            } else {
+                for (String address : cmd.getOptionValue("F").split(",")) {
+                    nodes.add(new XBeeAddress(address.trim()));
+                }
+            }
+            long start = System.currentTimeMillis();
+            int programmed = 0;
+            int unconfirmed = 0;
+            for (XBeeFleetResult result : fleet.program(nodes, cmd.hasOption("w"))) {
+                System.out.println(result);
+                if (result.isSuccess()) {
+                    programmed++;
+                } else if (result.isUnconfirmed()) {
+                    unconfirmed++;
+                }
+            }
+            System.out.printf("Programmed %d of %d nodes in %.1fs.%n", programmed, nodes.size(),
+                    (System.currentTimeMillis() - start) / 1000.0);
+            if (unconfirmed > 0) {
+                System.out.printf("%d more did not confirm AC, and should be checked on PAN %s.%n",
+                        unconfirmed, cmd.getOptionValue("i"));
+            }
+            return programmed == nodes.size();
+        } finally {
+            fleet.close();
+        }
+    }
+    
     private static boolean verifyPan() {        
         try {
             Integer pan = Integer.parseInt(cmd.getOptionValue("i"), 16);
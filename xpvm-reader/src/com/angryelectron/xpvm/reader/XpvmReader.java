@@ -1,13 +1,34 @@
 package com.angryelectron.xpvm.reader;
 
+import com.angryelectron.xbeelogger.XBeeAddress;
 import com.angryelectron.xpvm.XPVM;
 import com.angryelectron.xpvm.XPVMSample;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
 import java.util.Date;
+import org.apache.commons.cli.*;
 
 public class XpvmReader {
 
+    static final String version = "1.0";
+    static final String progname = "xpvm-reader";
+    static XpvmReaderDaemon daemon = null;
+
+    /**
+     * How long to wait for the daemon to accept a connection, and then to
+     * reply, in milliseconds, before reading the file instead.
+     */
+    static final int CONNECT_TIMEOUT = 1000;
+    static final int REPLY_TIMEOUT = 5000;
+
     /**
      * @param args the command line arguments
      * @throws java.io.FileNotFoundException
@@ -15,29 +36,77 @@ public class XpvmReader {
      */
     public static void main(String[] args) throws FileNotFoundException, NoSuchFieldException {
 
-        XPVM xpvm = new XPVM();
-        File logfile = new File("/tmp/xpvm.xml");
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = null;
+        try {
+            cmd = parser.parse(getOptions(), args);
+        } catch (ParseException ex) {
+            showHelp();
+            System.exit(-1);
+        }
+        if (cmd.hasOption("h")) {
+            showHelp();
+            System.exit(0);
+        }
+
+        File logfile = new File(cmd.getOptionValue("f", "/tmp/xpvm.xml"));
+        String node = cmd.getOptionValue("n", "THERMOMETER");
+
+        /**
+         * Keep the data loaded and answer queries from other processes.
+         */
+        if (cmd.hasOption("d")) {
+            runDaemon(logfile, Integer.parseInt(cmd.getOptionValue("d")));
+            return;
+        }
+
+        /**
+         * Ask a running daemon, which has the data loaded already.
+         */
+        if (cmd.hasOption("c")) {
+            try {
+                query(Integer.parseInt(cmd.getOptionValue("c")), node);
+                return;
+            } catch (IOException ex) {
+                /* no daemon; read the file instead */
+            }
+        }
 
         /**
-         * Load the latest sample data from a file created by the logger daemon.
+         * Read the latest sample data from a file created by the logger daemon.
+         * Only the one node is read, so there is no need to load the file.
          */
+        XPVMSample sample = null;
         try {
-            xpvm.loadSampleData(logfile);
+            sample = readSample(logfile, node);
         } catch (FileNotFoundException ex) {
             System.out.println("Logfile " + logfile + " not found.");
             System.exit(-1);
         }
 
-        /**
-         * Get data from a Node called "THERMOMETER".
-         */
-        XPVMSample sample = xpvm.getSample("THERMOMETER");
-
         /**
          * Display some data.
          */
+        display(sample.getAddress().toString(), sample.getTimeStamp(),
+                Double.toString(sample.getTemperatureC()));
+    }
+
+    /**
+     * Get data from a node by address or, failing that, by name.
+     */
+    private static XPVMSample readSample(File logfile, String node) 
+            throws FileNotFoundException, NoSuchFieldException {
+        try {
+            return XPVM.readSample(logfile, new XBeeAddress(node));
+        } catch (IllegalArgumentException | NoSuchFieldException ex) {
+            /* not an address, or not a known one; try it as a name */
+        }
+        return XPVM.readSample(logfile, node);
+    }
+
+    private static void display(String address, Date timestamp, String temperature) {
         Date expires = new Date(System.currentTimeMillis() - 60000);
-        if (expires.after(sample.getTimeStamp())) {
+        if (expires.after(timestamp)) {
             /**
              * Alert - no data received for 1 minute or more.
              */
@@ -46,10 +115,79 @@ public class XpvmReader {
             /**
              * Print some node data.
              */
-            System.out.println("Address: " + sample.getAddress());
-            System.out.println("Timestamp: " + sample.getTimeStamp());
-            System.out.println("Current Temperature: " + sample.getTemperatureC());
+            System.out.println("Address: " + address);
+            System.out.println("Timestamp: " + timestamp);
+            System.out.println("Current Temperature: " + temperature);
+        }
+    }
+
+    /**
+     * Get a node's data from a daemon started with --daemon.  The protocol is
+     * described in {@link XpvmReaderDaemon}.
+     * @throws IOException If there is no daemon, or it does not reply in time.
+     */
+    private static void query(int port, String node) throws IOException, NoSuchFieldException {
+        Charset utf8 = Charset.forName("UTF-8");
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+            socket.setSoTimeout(REPLY_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            out.write((node + "\n").getBytes(utf8));
+            out.flush();
+            String reply = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), utf8)).readLine();
+            if (reply == null) {
+                throw new IOException("The daemon closed the connection.");
+            }
+            String[] fields = reply.split(" ");
+            if (!fields[0].equals("OK")) {
+                throw new NoSuchFieldException(reply.substring(reply.indexOf(' ') + 1));
+            }
+            display(fields[1], new Date(Long.parseLong(fields[2])), fields[3]);
         }
     }
 
+    private static void runDaemon(File logfile, int port) {
+        try {
+            daemon = new XpvmReaderDaemon(logfile, port, 4);
+        } catch (FileNotFoundException ex) {
+            System.out.println("Logfile " + logfile + " not found.");
+            System.exit(-1);
+        } catch (IOException ex) {
+            System.out.println("Cannot listen on port " + port + ": " + ex.getMessage());
+            System.exit(-1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                daemon.stop();
+            }
+        });
+        daemon.start();
+        try {
+            daemon.join();
+        } catch (InterruptedException ex) {
+            daemon.stop();
+        }
+    }
+
+    private static Options getOptions() {
+        Options options = new Options();
+        options.addOption("f", "file", true, "Sample file written by xpvm-writer (default /tmp/xpvm.xml).");
+        options.addOption("n", "node", true, "Node Identifier or 64-bit address of the node to show (default THERMOMETER).");
+        options.addOption("d", "daemon", true, "Keep the sample file loaded and answer queries on this port, on the loopback interface only.");
+        options.addOption("c", "connect", true, "Ask the daemon on this port instead of reading the file.  Falls back to the file if no daemon is running.");
+        options.addOption("h", "help", false, "Show help.");
+        return options;
+    }
+
+    private static void showHelp() {
+        System.out.println(progname + " version " + version);
+        System.out.println("(C)2013 Andrew Bythell <abythell@ieee.org>");
+        System.out.println("Show the latest data from an XPVM node.\n");
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp(progname, getOptions());
+    }
+
 }
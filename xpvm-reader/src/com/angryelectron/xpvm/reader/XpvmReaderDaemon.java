@@ -0,0 +1,246 @@
+/**
+ * XpvmReaderDaemon.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+package com.angryelectron.xpvm.reader;
+
+import com.angryelectron.xbeelogger.XBeeAddress;
+import com.angryelectron.xpvm.XPVM;
+import com.angryelectron.xpvm.XPVMChannel;
+import com.angryelectron.xpvm.XPVMSample;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the sample file loaded and answers queries about single nodes, so a
+ * script that checks a node every few seconds does not pay for a new JVM and
+ * a full parse of the file each time.  The file is re-loaded in the background
+ * whenever the writer changes it.
+ * <p>
+ * The daemon only listens on the loopback interface.  Each request is one
+ * line holding a node's Node Identifier or 64-bit address; each reply is one
+ * line:
+ * <pre>
+ * OK address timestamp temperature arrayVoltage arrayCurrent batteryVoltage batteryCurrent
+ * ERR message
+ * </pre>
+ * The timestamp is in ms since the epoch, measurements are in engineering
+ * units, and a measurement the node does not report is "-".  A connection may
+ * be used for any number of requests, so shell scripts can also talk to the
+ * daemon directly, eg. with nc.
+ * <p>
+ * Each connection has a thread to itself until it is closed, or has been idle
+ * for a few seconds.  A connection that arrives while every thread is busy is
+ * closed at once, so the client reads the file instead of waiting.
+ */
+class XpvmReaderDaemon {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * How long an idle connection is kept open, in milliseconds.
+     */
+    private static final int IDLE_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * The measurements in each reply, in order.
+     */
+    private static final XPVMChannel[] CHANNELS = {XPVMChannel.TEMPERATURE,
+        XPVMChannel.ARRAY_VOLTAGE, XPVMChannel.ARRAY_CURRENT,
+        XPVMChannel.BATTERY_VOLTAGE, XPVMChannel.BATTERY_CURRENT};
+
+    private static final Logger log = Logger.getLogger(XpvmReaderDaemon.class.getName());
+
+    private final XPVM xpvm = new XPVM();
+    private final ServerSocket server;
+    private final ExecutorService executor;
+    private Thread acceptor;
+
+    /**
+     * Constructor.
+     * @param sampleFile The file written by xpvm-writer.
+     * @param port TCP port to listen on, on the loopback interface.
+     * @param threads Number of connections served at once.  More are refused.
+     * @throws FileNotFoundException If the sample file cannot be read.
+     * @throws IOException If the port cannot be opened.
+     */
+    XpvmReaderDaemon(File sampleFile, int port, int threads) throws IOException {
+        xpvm.watchSampleData(sampleFile);
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        /* no queue: a connection waiting for a thread would wait for an idle one to time out */
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>());
+    }
+
+    /**
+     * Start answering requests.
+     */
+    synchronized void start() {
+        acceptor = new Thread("XpvmReaderDaemon") {
+            @Override
+            public void run() {
+                accept();
+            }
+        };
+        acceptor.start();
+    }
+
+    /**
+     * Wait until the daemon is stopped.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    void join() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = acceptor;
+        }
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    /**
+     * Stop answering requests.  Connections in progress are closed.
+     */
+    void stop() {
+        try {
+            server.close();
+        } catch (IOException ex) {
+            log.log(Level.ERROR, null, ex);
+        }
+        executor.shutdownNow();
+        xpvm.stopWatching();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketException ex) {
+                /* stopped */
+                return;
+            } catch (IOException ex) {
+                log.log(Level.ERROR, null, ex);
+                continue;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                /* busy, or stopped */
+                log.log(Level.DEBUG, "Every thread is busy; closing a connection.");
+                close(socket);
+            }
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            log.log(Level.DEBUG, ex.getMessage());
+        }
+    }
+
+    /**
+     * Answer requests on one connection until the client closes it.
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(IDLE_TIMEOUT);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), UTF8));
+            OutputStream out = s.getOutputStream();
+            String request;
+            while ((request = in.readLine()) != null) {
+                out.write(answer(request.trim()).getBytes(UTF8));
+                out.flush();
+            }
+        } catch (SocketTimeoutException ex) {
+            /* idle */
+        } catch (IOException ex) {
+            log.log(Level.DEBUG, ex.getMessage());
+        }
+    }
+
+    /**
+     * Build the reply to one request.
+     */
+    private String answer(String id) {
+        XPVMSample sample = find(id);
+        if (sample == null) {
+            return "ERR No samples were found for " + id + ".\n";
+        }
+        StringBuilder reply = new StringBuilder(128);
+        reply.append("OK ").append(sample.getAddress())
+                .append(' ').append(sample.getTimeStamp().getTime());
+        for (XPVMChannel channel : CHANNELS) {
+            reply.append(' ');
+            try {
+                double value = value(sample, channel);
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    reply.append('-');
+                } else {
+                    reply.append(value);
+                }
+            } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+                /* input not enabled, or not reported by the XBee */
+                reply.append('-');
+            }
+        }
+        return reply.append('\n').toString();
+    }
+
+    private static double value(XPVMSample sample, XPVMChannel channel) {
+        switch (channel) {
+            case TEMPERATURE:
+                return sample.getTemperatureC();
+            case ARRAY_VOLTAGE:
+                return sample.getArrayVoltage();
+            case ARRAY_CURRENT:
+                return sample.getArrayCurrent();
+            case BATTERY_VOLTAGE:
+                return sample.getBatteryVoltage();
+            default:
+                return sample.getBatteryCurrent();
+        }
+    }
+
+    /**
+     * Find a node by 64-bit address (16 hex digits) or Node Identifier.
+     */
+    private XPVMSample find(String id) {
+        try {
+            return xpvm.getSample(new XBeeAddress(id));
+        } catch (IllegalArgumentException | NoSuchFieldException ex) {
+            /* not an address, or not a known one; try it as a name */
+        }
+        try {
+            return xpvm.getSample(id);
+        } catch (NoSuchFieldException ex) {
+            return null;
+        }
+    }
+}
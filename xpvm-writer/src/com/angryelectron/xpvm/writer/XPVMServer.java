@@ -0,0 +1,569 @@
+/**
+ * XPVMServer.java
+ * Copyright 2013 Andrew Bythell <abythell@ieee.org>
+ */
+
+package com.angryelectron.xpvm.writer;
+
+import com.angryelectron.xbeelogger.XBeeAddress;
+import com.angryelectron.xbeelogger.XBeeLogWriter;
+import com.angryelectron.xbeelogger.XBeeSample;
+import com.angryelectron.xbeelogger.XBeeSampleFeed;
+import com.angryelectron.xbeelogger.XBeeSampleFilter;
+import com.angryelectron.xbeelogger.XBeeSampleHistory;
+import com.angryelectron.xbeelogger.XBeeSubscriber;
+import com.angryelectron.xbeelogger.XBeeSubscription;
+import com.angryelectron.xpvm.XPVMChannel;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * A small HTTP server that answers queries about XPVM nodes from the samples
+ * held in memory by the writer, so clients never read the log file.
+ * <ul>
+ * <li>GET /nodes - the latest sample from every node.</li>
+ * <li>GET /nodes/{address or name} - the latest sample from one node.</li>
+ * <li>GET /nodes/{address or name}/history?from=ms&amp;to=ms - the node's
+ * recent samples.  Defaults to the last hour.</li>
+ * <li>GET /events?address=a,b&amp;name=n,m&amp;channel=c&amp;policy=p&amp;buffer=n
+ * - new samples as Server-Sent Events, one "sample" event each.  All
+ * parameters are optional.  Channels are named as in the JSON, and the
+ * policy is buffer, drop_oldest or latest (the default).</li>
+ * </ul>
+ * Responses are JSON, with measurements in engineering units.  The latest
+ * samples are serialized once each time they change and then served from
+ * memory, so polling costs little more than copying the response.  Event
+ * streams are pushed from the writer's {@link XBeeSampleFeed}, so clients
+ * need not poll at all; a client that cannot keep up loses samples according
+ * to its policy rather than slowing the writer.
+ */
+class XPVMServer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String CONTEXT = "/nodes";
+    private static final String EVENTS = "/events";
+    private static final int DEFAULT_EVENT_BUFFER = 256;
+    private static final long DEFAULT_HISTORY_MS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * How often an empty comment is sent on each event stream, so a client
+     * that has gone is noticed even when no samples pass its filter.
+     */
+    private static final long HEARTBEAT_MS = TimeUnit.SECONDS.toMillis(15);
+
+    private static final Logger log = Logger.getLogger(XPVMServer.class.getName());
+
+    private final XBeeLogWriter writer;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService heartbeat;
+
+    /**
+     * Event streams that are open.
+     */
+    private final Set<EventStream> streams = Collections.newSetFromMap(
+            new ConcurrentHashMap<EventStream, Boolean>());
+
+    /**
+     * The /nodes response, and the version of the samples it was made from.
+     */
+    private volatile Cached all = new Cached(-1, null);
+
+    /**
+     * Each /nodes/{id} response, and the sample it was made from.  Samples
+     * are immutable, so a response is current while its sample is.
+     */
+    private final ConcurrentHashMap<XBeeAddress, CachedSample> nodes = new ConcurrentHashMap<>();
+
+    private static final class Cached {
+
+        private final long version;
+        private final byte[] body;
+
+        Cached(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+
+    private static final class CachedSample {
+
+        private final XBeeSample sample;
+        private final byte[] body;
+
+        CachedSample(XBeeSample sample, byte[] body) {
+            this.sample = sample;
+            this.body = body;
+        }
+    }
+
+    /**
+     * One client's event stream.  Samples are written by the feed's thread and
+     * heartbeats by the server's, one at a time.  The first write that fails
+     * cancels the subscription and closes the exchange.
+     */
+    private final class EventStream implements XBeeSubscriber<XBeeSample> {
+
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private volatile XBeeSubscription subscription;
+        private boolean closed = false;
+
+        EventStream(HttpExchange exchange) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+        }
+
+        @Override
+        public void onSubscribe(XBeeSubscription subscription) {
+            this.subscription = subscription;
+            streams.add(this);
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(XBeeSample sample) {
+            StringBuilder event = new StringBuilder(280);
+            event.append("event: sample\ndata: ");
+            appendSample(event, sample);
+            event.append("\n\n");
+            if (write(event.toString())) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            StringBuilder event = new StringBuilder("event: error\ndata: ");
+            event.append(new String(error(error.getMessage()), UTF8)).append("\n\n");
+            write(event.toString());
+            close();
+        }
+
+        @Override
+        public void onComplete() {
+            close();
+        }
+
+        /**
+         * Write to the client.
+         * @return False if the client has gone, and the stream is closed.
+         */
+        synchronized boolean write(String text) {
+            if (closed) {
+                return false;
+            }
+            try {
+                out.write(text.getBytes(UTF8));
+                out.flush();
+                return true;
+            } catch (IOException ex) {
+                /* the client has gone */
+                XBeeSubscription s = subscription;
+                if (s != null) {
+                    s.cancel();
+                }
+                close();
+                return false;
+            }
+        }
+
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                streams.remove(this);
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param writer The running writer.
+     * @param port TCP port to listen on.
+     * @param threads Number of threads handling requests.
+     * @throws IOException If the port cannot be opened.
+     */
+    XPVMServer(XBeeLogWriter writer, int port, int threads) throws IOException {
+        this.writer = writer;
+        /* the headers and body are written separately, so without this a
+         * small response waits for the client's delayed ACK (~40 ms) */
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "XPVMServer-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.createContext(CONTEXT, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    route(exchange);
+                } catch (RuntimeException ex) {
+                    log.log(Level.ERROR, null, ex);
+                    send(exchange, 500, error("Internal error."));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext(EVENTS, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                /* the exchange stays open until the stream ends */
+                try {
+                    if (!events(exchange)) {
+                        exchange.close();
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    log.log(Level.ERROR, null, ex);
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Start answering requests.
+     */
+    void start() {
+        server.start();
+        heartbeat.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (EventStream stream : streams) {
+                    stream.write(":\n\n");
+                }
+            }
+        }, HEARTBEAT_MS, HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop answering requests, waiting up to a second for those in progress.
+     */
+    void stop() {
+        heartbeat.shutdownNow();
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            send(exchange, 405, error("Method not allowed."));
+            return;
+        }
+        String path = exchange.getRequestURI().getRawPath();
+        if (!path.equals(CONTEXT) && !path.startsWith(CONTEXT + "/")) {
+            send(exchange, 404, error("Not found."));
+            return;
+        }
+        String[] parts = path.substring(CONTEXT.length()).split("/");
+        /* parts[0] is empty: the path after the context starts with '/' */
+        if (parts.length <= 1) {
+            send(exchange, 200, allNodes());
+            return;
+        }
+        XBeeSample sample = find(decode(parts[1]));
+        if (sample == null) {
+            send(exchange, 404, error("No such node."));
+        } else if (parts.length == 2) {
+            send(exchange, 200, node(sample));
+        } else if (parts.length == 3 && parts[2].equals("history")) {
+            history(exchange, sample.getAddress());
+        } else {
+            send(exchange, 404, error("Not found."));
+        }
+    }
+
+    /**
+     * Start an event stream.
+     * @return True if the stream was started and now owns the exchange.
+     */
+    private boolean events(final HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            send(exchange, 405, error("Method not allowed."));
+            return false;
+        }
+        if (!exchange.getRequestURI().getRawPath().equals(EVENTS)) {
+            send(exchange, 404, error("Not found."));
+            return false;
+        }
+        XBeeSampleFilter filter = new XBeeSampleFilter();
+        XBeeSampleFeed.Backpressure policy = XBeeSampleFeed.Backpressure.LATEST;
+        int buffer = DEFAULT_EVENT_BUFFER;
+        try {
+            for (String address : list(parameter(exchange, "address"))) {
+                filter.address(new XBeeAddress(address));
+            }
+            for (String name : list(parameter(exchange, "name"))) {
+                filter.name(name);
+            }
+            for (String channel : list(parameter(exchange, "channel"))) {
+                filter.analog(channel(channel).getPin());
+            }
+            String p = parameter(exchange, "policy");
+            if (p != null) {
+                try {
+                    policy = XBeeSampleFeed.Backpressure.valueOf(p.toUpperCase());
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("policy must be buffer, drop_oldest or latest.");
+                }
+            }
+            String b = parameter(exchange, "buffer");
+            if (b != null) {
+                buffer = Integer.parseInt(b);
+            }
+            if (buffer < 1) {
+                throw new IllegalArgumentException("buffer must be at least 1.");
+            }
+        } catch (IllegalArgumentException ex) {
+            send(exchange, 400, error("Invalid parameter: " + ex.getMessage()));
+            return false;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        EventStream stream = new EventStream(exchange);
+        /* an empty comment, so the client sees the stream open at once */
+        if (!stream.write(":\n\n")) {
+            return true;
+        }
+        writer.getFeed().publisher(filter, policy, buffer).subscribe(stream);
+        return true;
+    }
+
+    private static List<String> list(String value) {
+        if (value == null || value.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(value.split(","));
+    }
+
+    private static XPVMChannel channel(String name) {
+        for (XPVMChannel channel : XPVMChannel.values()) {
+            if (key(channel).equals(name)) {
+                return channel;
+            }
+        }
+        throw new IllegalArgumentException("no channel named " + name + ".");
+    }
+
+    private byte[] allNodes() {
+        long version = writer.getVersion();
+        Cached cached = all;
+        if (cached.version == version) {
+            return cached.body;
+        }
+        /* the snapshot may be newer than version; that only means the next
+         * request serializes again */
+        ArrayList<XBeeSample> samples = new ArrayList<>(writer.getSamples().values());
+        Collections.sort(samples, new Comparator<XBeeSample>() {
+            @Override
+            public int compare(XBeeSample a, XBeeSample b) {
+                return Long.compare(a.getAddress().toLong(), b.getAddress().toLong());
+            }
+        });
+        StringBuilder json = new StringBuilder(samples.size() * 256);
+        json.append('[');
+        for (int i = 0; i < samples.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendSample(json, samples.get(i));
+        }
+        json.append(']');
+        cached = new Cached(version, json.toString().getBytes(UTF8));
+        all = cached;
+        return cached.body;
+    }
+
+    private byte[] node(XBeeSample sample) {
+        CachedSample cached = nodes.get(sample.getAddress());
+        if (cached != null && cached.sample == sample) {
+            return cached.body;
+        }
+        StringBuilder json = new StringBuilder(256);
+        appendSample(json, sample);
+        cached = new CachedSample(sample, json.toString().getBytes(UTF8));
+        nodes.put(sample.getAddress(), cached);
+        return cached.body;
+    }
+
+    private void history(HttpExchange exchange, XBeeAddress address) throws IOException {
+        XBeeSampleHistory history = writer.getHistory();
+        if (history == null) {
+            send(exchange, 404, error("History is not being kept."));
+            return;
+        }
+        long to;
+        long from;
+        try {
+            String t = parameter(exchange, "to");
+            String f = parameter(exchange, "from");
+            to = (t == null) ? System.currentTimeMillis() : Long.parseLong(t);
+            from = (f == null) ? to - DEFAULT_HISTORY_MS : Long.parseLong(f);
+        } catch (NumberFormatException ex) {
+            send(exchange, 400, error("from and to must be times in ms since the epoch."));
+            return;
+        }
+        List<XBeeSample> samples;
+        try {
+            samples = history.getSamples(address, from, to);
+        } catch (NoSuchFieldException ex) {
+            samples = Collections.emptyList();
+        }
+        StringBuilder json = new StringBuilder(samples.size() * 256 + 2);
+        json.append('[');
+        for (int i = 0; i < samples.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendSample(json, samples.get(i));
+        }
+        json.append(']');
+        send(exchange, 200, json.toString().getBytes(UTF8));
+    }
+
+    /**
+     * Find a node by 64-bit address (16 hex digits) or Node Identifier.
+     */
+    private XBeeSample find(String id) {
+        try {
+            return writer.getSampleByAddress(new XBeeAddress(id));
+        } catch (IllegalArgumentException | NoSuchFieldException ex) {
+            /* not an address, or not a known one; try it as a name */
+        }
+        try {
+            return writer.getSampleByName(id);
+        } catch (NoSuchFieldException ex) {
+            return null;
+        }
+    }
+
+    private static void appendSample(StringBuilder json, XBeeSample sample) {
+        json.append("{\"address\":");
+        quote(json, sample.getAddress().toString());
+        json.append(",\"nodeIdentifier\":");
+        quote(json, sample.getNodeIdentifier());
+        json.append(",\"timestamp\":").append(sample.getTimestamp().getTime());
+        for (XPVMChannel channel : XPVMChannel.values()) {
+            json.append(",\"").append(key(channel)).append("\":");
+            try {
+                double value = channel.getValue(sample);
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    json.append("null");
+                } else {
+                    json.append(value);
+                }
+            } catch (UnsupportedOperationException | IllegalArgumentException ex) {
+                /* input not enabled, or not reported by the XBee */
+                json.append("null");
+            }
+        }
+        json.append('}');
+    }
+
+    private static String key(XPVMChannel channel) {
+        switch (channel) {
+            case TEMPERATURE:
+                return "temperature";
+            case ARRAY_VOLTAGE:
+                return "arrayVoltage";
+            case ARRAY_CURRENT:
+                return "arrayCurrent";
+            case BATTERY_VOLTAGE:
+                return "batteryVoltage";
+            default:
+                return "batteryCurrent";
+        }
+    }
+
+    private static void quote(StringBuilder json, String s) {
+        json.append('"');
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    private static byte[] error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        quote(json, message);
+        return json.append('}').toString().getBytes(UTF8);
+    }
+
+    private static String parameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return decode(pair.substring(eq + 1));
+            }
+        }
+        return null;
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return s;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -6,9 +6,14 @@
 package com.angryelectron.xpvm.writer;
 
 import com.angryelectron.xbeelogger.XBeeLogWriter;
+import com.angryelectron.xbeelogger.XBeeSampleHistory;
+import com.angryelectron.xpvm.XPVMMetrics;
+import com.angryelectron.xpvm.XPVMRollup;
 import com.rapplogic.xbee.api.XBeeException;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.cli.*;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -22,6 +27,14 @@ public class XPVMWriter {
 
     static final String version = "1.0";
     static final String progname = "xpvm-writer";
+    static XBeeLogWriter writer = null;
+    static XPVMServer server = null;
+    
+    /**
+     * Recent samples kept for each node when serving HTTP requests.
+     */
+    static final int HISTORY_SAMPLES = 3600;
+    static final long HISTORY_AGE = TimeUnit.HOURS.toMillis(24);
 
     public static void main(String[] args) {
 
@@ -29,6 +42,13 @@ public class XPVMWriter {
             @Override
             public void run() {
                 Logger.getLogger(XPVMWriter.class.getName()).log(Level.INFO, "Stopping.");                
+                if (server != null) {
+                    server.stop();
+                }
+                /* write any queued samples */
+                if (writer != null) {
+                    writer.stop();
+                }
             }
         });
         
@@ -63,10 +83,58 @@ public class XPVMWriter {
          * Start the logger using the given port and filename.
          */
         if (cmd.hasOption("p") && cmd.hasOption("f")) {
-            XBeeLogWriter writer = new XBeeLogWriter(
+            XBeeLogWriter.Format format = XBeeLogWriter.Format.XML;
+            if (cmd.hasOption("j")) {
+                format = XBeeLogWriter.Format.JOURNAL;
+            } else if (cmd.hasOption("a")) {
+                format = XBeeLogWriter.Format.ARCHIVE;
+            } else if (cmd.hasOption("d")) {
+                format = XBeeLogWriter.Format.SEGMENTS;
+            }
+            /* one coordinator per port, eg. -p /dev/ttyUSB0,/dev/ttyUSB1 */
+            String[] ports = cmd.getOptionValue("p").split(",");
+            writer = new XBeeLogWriter(
                     new File(cmd.getOptionValue("f")),
-                    cmd.getOptionValue("p"),
-                    baud);
+                    ports[0],
+                    baud, format);
+            for (int i = 1; i < ports.length; i++) {
+                writer.addPort(ports[i], baud);
+            }
+            if (cmd.hasOption("x")) {
+                writer.setFastPath(true);
+            }
+            if (cmd.hasOption("n")) {
+                writer.setNodeCache(new File(cmd.getOptionValue("n")));
+            }
+            if (cmd.hasOption("R")) {
+                writer.setRetention(Integer.parseInt(cmd.getOptionValue("R")));
+            }
+            if (cmd.hasOption("t")) {
+                writer.setSampleTable(new File(cmd.getOptionValue("t")), 1024);
+            }
+            if (cmd.hasOption("m")) {
+                writer.setOperators(XPVMMetrics.createGraph(), new File(cmd.getOptionValue("m")));
+            }
+            if (cmd.hasOption("r")) {
+                writer.setRollup(XPVMRollup.createRollup(), new File(cmd.getOptionValue("r")));
+            }
+            if (cmd.hasOption("F")) {
+                writer.setFlushInterval(Long.parseLong(cmd.getOptionValue("F")));
+            }
+            if (cmd.hasOption("B")) {
+                writer.setBatchSize(Integer.parseInt(cmd.getOptionValue("B")));
+            }
+            if (cmd.hasOption("S")) {
+                try {
+                    writer.setSync(XBeeLogWriter.Sync.valueOf(cmd.getOptionValue("S").toUpperCase()), 10000);
+                } catch (IllegalArgumentException ex) {
+                    showHelp();
+                    System.exit(-1);
+                }
+            }
+            if (cmd.hasOption("H")) {
+                writer.setHistory(new XBeeSampleHistory(HISTORY_SAMPLES, HISTORY_AGE));
+            }
             Logger.getLogger(XPVMWriter.class.getName()).log(Level.INFO, 
                     "Starting " + progname + " verion " + version + ".");
             try {
@@ -75,6 +143,16 @@ public class XPVMWriter {
                 Logger.getLogger(XPVMWriter.class.getName()).log(Level.ERROR, ex.getMessage());
                 System.exit(-1);
             }
+            if (cmd.hasOption("H")) {
+                try {
+                    server = new XPVMServer(writer, Integer.parseInt(cmd.getOptionValue("H")),
+                            2 * Runtime.getRuntime().availableProcessors());
+                    server.start();
+                } catch (IOException ex) {
+                    Logger.getLogger(XPVMWriter.class.getName()).log(Level.ERROR, ex.getMessage());
+                    System.exit(-1);
+                }
+            }
         } else {
             showHelp();
             System.exit(-1);
@@ -84,9 +162,22 @@ public class XPVMWriter {
 
     private static Options getOptions() {
         Options options = new Options();
-        options.addOption("p", "port", true, "XBee serial port.");
+        options.addOption("p", "port", true, "XBee serial port, or a comma-separated list of ports with one coordinator each.");
         options.addOption("b", "baud", true, "Baud rate.");
         options.addOption("f", "file", true, "Log file name.");
+        options.addOption("j", "journal", false, "Append samples to a binary journal in the directory given by -f.");
+        options.addOption("a", "archive", false, "Append samples to compressed archive files in the directory given by -f.");
+        options.addOption("d", "store", false, "Write samples to a segment store, partitioned by day and indexed by node, in the directory given by -f.");
+        options.addOption("x", "fast", false, "Decode samples without xbee-api, for gateways receiving many samples per second.");
+        options.addOption("n", "names", true, "Remember node names in this file, so they are not requested again after a restart.");
+        options.addOption("R", "retention", true, "Days of samples kept in the segment store (default: keep forever).");
+        options.addOption("t", "table", true, "Also keep the latest samples in a memory-mapped table file.");
+        options.addOption("m", "metrics", true, "Calculate power, energy and other totals, keeping them in this file.");
+        options.addOption("r", "rollup", true, "Summarize samples in 1 minute, 15 minute, hourly and daily buckets, keeping them in this file.");
+        options.addOption("H", "http", true, "Answer JSON queries about the latest and recent samples, and stream new samples as Server-Sent Events, on this HTTP port.");
+        options.addOption("F", "flush", true, "Maximum time samples are queued before being written, in ms (default 1000).");
+        options.addOption("B", "batch", true, "Number of queued samples that causes an early write (default 256).");
+        options.addOption("S", "sync", true, "When to force data to disk: none, batch or periodic (default none).");
         options.addOption("h", "help", false, "Show help.");
         return options;
     }